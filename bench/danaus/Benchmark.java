@@ -0,0 +1,55 @@
+package danaus;
+
+/** An instance is a benchmark of the Danaus engine: an operation that is
+ * timed again and again on a map set up once for a trial. A trial is given
+ * the size of its map and the density of its flowers, which a benchmark on a
+ * map file ignores.
+ * <br>
+ * The result of each operation is kept by the runner, so the JIT cannot
+ * drop the work that made it.
+ * @see danaus.Benchmarks
+ */
+abstract class Benchmark {
+	/** The name of the benchmark, as it is reported and filtered. */
+	final String name;
+	/** The map file the benchmark runs on, or null if it runs on random
+	 * maps of the trial's size and flower density. */
+	final String mapFilename;
+
+	/** Constructor: a benchmark named name on random maps. */
+	Benchmark(String name) {
+		this(name, null);
+	}
+
+	/** Constructor: a benchmark named name on map file mapFilename, or on
+	 * random maps if mapFilename is null. */
+	Benchmark(String name, String mapFilename) {
+		this.name= name;
+		this.mapFilename= mapFilename;
+	}
+
+	/** Set up a trial. The size and flower density of a random map are
+	 * already in Common. Not timed. */
+	void setUp() throws Exception {
+	}
+
+	/** Get ready for the next operation. Not timed. */
+	void prepare() throws Exception {
+	}
+
+	/** Perform the operation timed, and return its result. */
+	abstract Object run() throws Exception;
+
+	/** Return the number of calls to the engine one operation makes. Times
+	 * are reported per call. */
+	int calls() {
+		return 1;
+	}
+
+	/** Return a simulator of a new park on the benchmark's map, made with
+	 * seed seed and butterfly class className. */
+	Simulator simulator(int seed, String className) throws Exception {
+		return new Simulator(new SimulationContext(seed, mapFilename,
+				className));
+	}
+}
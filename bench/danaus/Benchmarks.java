@@ -0,0 +1,474 @@
+package danaus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** The benchmarks of the Danaus engine, and a runner for them. Each
+ * benchmark on random maps is run in a trial for every map size and flower
+ * density given, and each benchmark on a map file in one trial. A trial
+ * sets up its benchmark, runs its operation for some warmup iterations that
+ * are not reported, and then for some measured iterations, each as many
+ * times as fit in the iteration time. Only the operations are timed, not
+ * their set up.
+ * <br>
+ * The results are printed tab-separated, one trial to a line, so that runs
+ * before and after a change can be diffed or loaded into a spreadsheet:
+ * <pre>
+ *   benchmark  map  size  density  ns/call  error  calls/s
+ * </pre>
+ * where ns/call is the mean over the measured iterations of the time of a
+ * call to the engine, and error is its standard deviation. The size and
+ * density of a map file are "-". Whole simulations are only run on random
+ * maps of at most the simulate size. A trial that fails, even by running
+ * out of memory, is reported and the runner goes on to the next, but exits
+ * with error 1 at the end.
+ * <br>
+ * Run with make bench, which compiles the benchmarks against the engine in
+ * bin, and passes ARGS to the runner:
+ * <pre>
+ *   make bench ARGS="--sizes 64,256 --densities 0.02 --filter aroma"
+ * </pre>
+ * @see danaus.Benchmark
+ */
+class Benchmarks {
+	/** The stack size of the thread that runs the benchmarks. The student's
+	 * butterfly searches the map recursively, as deep as the map is big. */
+	private static final long STACK_SIZE= 1L << 29;
+	/** The seed of every random map. */
+	private static final int SEED= 2110;
+	/** The number of calls each operation of a flight benchmark makes. */
+	private static final int FLIGHTS= 1024;
+
+	/** The sizes (height and width) of the random maps. */
+	private static int[] sizes= {64, 256};
+	/** The largest size of the random maps whole simulations are run on.
+	 * On larger maps the student's butterfly takes minutes a simulation,
+	 * if its stack holds out at all. */
+	private static int simulateSize= 64;
+	/** The flower densities of the random maps. */
+	private static double[] densities= {0.01, 0.05};
+	/** The number of warmup and measured iterations of each trial. */
+	private static int warmups= 3;
+	private static int iterations= 5;
+	/** The least time of an iteration, in milliseconds. */
+	private static long iterationTime= 1000;
+	/** Only benchmarks whose names contain filter are run. */
+	private static String filter= "";
+	/** The directory of the map files benchmarked. */
+	private static String mapDirectory= "../res/maps";
+
+	/** The result of the last operation, kept so that its work is not
+	 * dropped by the JIT. */
+	static volatile Object sink;
+
+	/** Run the benchmarks as the command line args says, and exit with
+	 * error 1 if any of them failed. */
+	public static void main(String[] args) throws InterruptedException {
+		handleArguments(args);
+		Common.HEADLESS= true;
+		Common.INFINITE_ENERGY= true;
+		Common.MAP_CACHE_DIR= null;
+		Common.CLASS_NAMES.add("student.Butterfly");
+
+		// A runner that dies before it returns counts as a failure
+		final int[] errors= {1};
+		Thread runner= new Thread(null, new Runnable() {
+			public @Override void run() {
+				errors[0]= runAll();
+			}
+		}, "benchmarks", STACK_SIZE);
+		runner.start();
+		runner.join();
+		if (errors[0] > 0) {
+			System.exit(1);
+		}
+	}
+
+	/** Run every benchmark the filter lets through, print their results,
+	 * and return the number that failed. */
+	private static int runAll() {
+		System.out.println("benchmark\tmap\tsize\tdensity\tns/call\terror\tcalls/s");
+		int errors= 0;
+		for (int size : sizes) {
+			for (double density : densities) {
+				Common.MAP_HEIGHT= size;
+				Common.MAP_WIDTH= size;
+				Common.MAP_FLOWER_DENSITY= density;
+				List<Benchmark> benchmarks= randomBenchmarks(size);
+				for (int i= 0; i < benchmarks.size(); i++) {
+					errors += trial(benchmarks.set(i, null),
+							String.valueOf(size), String.valueOf(density));
+				}
+			}
+		}
+
+		Common.MAP_HEIGHT= null;
+		Common.MAP_WIDTH= null;
+		Common.MAP_FLOWER_DENSITY= null;
+		for (String mapFilename : mapFilenames()) {
+			List<Benchmark> benchmarks= fileBenchmarks(mapFilename);
+			for (int i= 0; i < benchmarks.size(); i++) {
+				errors += trial(benchmarks.set(i, null), "-", "-");
+			}
+		}
+		return errors;
+	}
+
+	/** Run a trial of benchmark, if the filter lets it through, on a map of
+	 * size size and density density, and print its result. Return 1 if it
+	 * failed, as by running out of memory or stack, and 0 if not.
+	 * Precondition: the caller holds no other reference to benchmark, so
+	 * that what it holds can be freed before a failure is reported. */
+	private static int trial(Benchmark benchmark, String size, String density) {
+		if (!benchmark.name.contains(filter)) {
+			return 0;
+		}
+		String name= benchmark.name;
+		String map= (benchmark.mapFilename == null) ? "random" :
+				new File(benchmark.mapFilename).getName();
+		Throwable failure;
+		try {
+			benchmark.setUp();
+			for (int i= 0; i < warmups; i++) {
+				iterate(benchmark);
+			}
+			double[] scores= new double[iterations];
+			for (int i= 0; i < iterations; i++) {
+				scores[i]= iterate(benchmark);
+			}
+
+			double mean= 0;
+			for (double score : scores) {
+				mean += score / scores.length;
+			}
+			double variance= 0;
+			for (double score : scores) {
+				variance += (score - mean) * (score - mean) / scores.length;
+			}
+			System.out.println(String.format("%s\t%s\t%s\t%s\t%.1f\t%.1f\t%.0f",
+					benchmark.name, map, size, density, mean,
+					Math.sqrt(variance), 1000000000.0 / mean));
+			return 0;
+		}
+		catch (Throwable e) {
+			failure= e;
+		}
+		// Let go of the maps of the benchmark, which may have filled the heap
+		benchmark= null;
+		Debugger.ERROR(name + " on " + map + " of size " + size + " failed: " +
+				failure);
+		return 1;
+	}
+
+	/** Run the operation of benchmark as many times as fit in an iteration,
+	 * and return the mean time of a call to the engine, in nanoseconds. */
+	private static double iterate(Benchmark benchmark) throws Exception {
+		long timed= 0;
+		long operations= 0;
+		long end= System.nanoTime() + iterationTime * 1000000;
+		do {
+			benchmark.prepare();
+			long start= System.nanoTime();
+			Object result= benchmark.run();
+			long stop= System.nanoTime();
+			sink= result;
+			timed += stop - start;
+			operations++;
+		} while (System.nanoTime() < end);
+		return timed / (double) (operations * benchmark.calls());
+	}
+
+	/** Return the XML map files of the map directory, in order. */
+	private static List<String> mapFilenames() {
+		List<String> filenames= new ArrayList<String>();
+		File[] files= new File(mapDirectory).listFiles();
+		if (files == null) {
+			Debugger.WARNING("no map directory " + mapDirectory);
+			return filenames;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.getName().endsWith(".xml")) {
+				filenames.add(file.getPath());
+			}
+		}
+		return filenames;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Benchmarks
+	////////////////////////////////////////////////////////////////////////////
+
+	/** Return the benchmarks on random maps of size size. */
+	private static List<Benchmark> randomBenchmarks(int size) {
+		List<Benchmark> benchmarks= new ArrayList<Benchmark>(Arrays.asList(
+				mapBenchmark(null),
+				aromaBenchmark(),
+				windBenchmark(),
+				flyBenchmark(),
+				landBenchmark(),
+				refreshBenchmark(),
+				gradeBenchmark()));
+		if (size <= simulateSize) {
+			benchmarks.add(simulateBenchmark(null));
+		}
+		return benchmarks;
+	}
+
+	/** Return the benchmarks on map file mapFilename. */
+	private static List<Benchmark> fileBenchmarks(String mapFilename) {
+		return Arrays.asList(
+				mapBenchmark(mapFilename),
+				simulateBenchmark(mapFilename));
+	}
+
+	/** Return a benchmark of making a park and its map, from its seed or
+	 * from map file mapFilename if it is not null. */
+	private static Benchmark mapBenchmark(String mapFilename) {
+		return new Benchmark((mapFilename == null) ? "map.seed" : "map.file",
+				mapFilename) {
+			Object run() throws Exception {
+				return simulator(SEED, "student.Butterfly").park;
+			}
+		};
+	}
+
+	/** Return a benchmark of spreading the aromas of every flower of a map
+	 * that has not yet begun running. */
+	private static Benchmark aromaBenchmark() {
+		return new Benchmark("aroma.spread") {
+			private AromaSpreader spreader;
+			private Flower[] flowers;
+			private int[] sources;
+
+			void setUp() throws Exception {
+				Map map= simulator(SEED, "student.Butterfly").park.map;
+				spreader= new AromaSpreader(adjacency(map),
+						tileStore(map).flyable(), Common.MIN_AROMA_INTENSITY);
+				flowers= map.learningFlowers.toArray(
+						new Flower[map.learningFlowers.size()]);
+				sources= new int[flowers.length];
+				for (int i= 0; i < flowers.length; i++) {
+					Location location= flowers[i].location;
+					sources[i]= location.row * map.getWidth() + location.col;
+				}
+			}
+
+			Object run() {
+				return spreader.spread(flowers, sources, Common.PARALLEL_AROMAS);
+			}
+		};
+	}
+
+	/** Return a benchmark of computing the transfers wind makes at every
+	 * tile of a map. */
+	private static Benchmark windBenchmark() {
+		return new Benchmark("wind.spread") {
+			private Adjacency adjacency;
+			private TileStore store;
+
+			void setUp() throws Exception {
+				Map map= simulator(SEED, "student.Butterfly").park.map;
+				adjacency= adjacency(map);
+				store= tileStore(map);
+			}
+
+			Object run() {
+				return new WindSpreader(adjacency, store.windIntensities(),
+						store.windDirections()).deltas(Common.PARALLEL_AROMAS);
+			}
+		};
+	}
+
+	/** Return a benchmark of flying in random directions, turning away from
+	 * the cliffs and water flown into. */
+	private static Benchmark flyBenchmark() {
+		return new FlightBenchmark("flight.fly") {
+			void call(Map map, Direction direction) {
+				try {
+					map.fly(direction, Speed.NORMAL);
+				}
+				catch (ObstacleCollisionException e) {
+					// Try another direction next
+				}
+			}
+		};
+	}
+
+	/** Return a benchmark of landing. */
+	private static Benchmark landBenchmark() {
+		return new FlightBenchmark("flight.land") {
+			void call(Map map, Direction direction) {
+				map.land();
+			}
+		};
+	}
+
+	/** Return a benchmark of refreshing the butterfly's state. */
+	private static Benchmark refreshBenchmark() {
+		return new FlightBenchmark("flight.refresh") {
+			void call(Map map, Direction direction) {
+				map.refreshState();
+			}
+		};
+	}
+
+	/** Return a benchmark of grading the true tile states of a map against
+	 * themselves, all of which are correct. Copies of them would hold every
+	 * aroma of the map a second time, which a large map with many flowers
+	 * has no room for. */
+	private static Benchmark gradeBenchmark() {
+		return new Benchmark("grade") {
+			private Map map;
+			private TileState[][] states;
+
+			void setUp() throws Exception {
+				map= simulator(SEED, "student.Butterfly").park.map;
+				Tile[][] tiles= map.tiles;
+				states= new TileState[tiles.length][tiles[0].length];
+				for (int row= 0; row < tiles.length; row++) {
+					for (int col= 0; col < tiles[0].length; col++) {
+						if (tiles[row][col].flyable) {
+							states[row][col]= tiles[row][col].tileState;
+						}
+					}
+				}
+			}
+
+			Object run() {
+				return new StateGrader(map, states).points(true);
+			}
+		};
+	}
+
+	/** Return a benchmark of the student's butterfly learning and running a
+	 * new park, on a random map or on map file mapFilename if it is not
+	 * null. */
+	private static Benchmark simulateBenchmark(String mapFilename) {
+		return new Benchmark("simulate", mapFilename) {
+			private Simulator simulator;
+
+			void prepare() throws Exception {
+				simulator= simulator(SEED, "student.Butterfly");
+			}
+
+			Object run() {
+				simulator.simulate();
+				return simulator.park.state;
+			}
+		};
+	}
+
+	/** An instance benchmarks a call the butterfly makes to its map, made
+	 * FLIGHTS times an operation, each in a random direction. */
+	private static abstract class FlightBenchmark extends Benchmark {
+		private Map map;
+		private Random random;
+
+		/** Constructor: a flight benchmark named name on random maps. */
+		FlightBenchmark(String name) {
+			super(name);
+		}
+
+		void setUp() throws Exception {
+			map= simulator(SEED, "student.Butterfly").park.map;
+			random= new Random(SEED);
+		}
+
+		Object run() {
+			for (int i= 0; i < FLIGHTS; i++) {
+				call(map, Common.DIRECTIONS[random.nextInt(8)]);
+			}
+			return map.butterfly.location;
+		}
+
+		int calls() {
+			return FLIGHTS;
+		}
+
+		/** Make the call benchmarked on map, in direction direction if it
+		 * has one. */
+		abstract void call(Map map, Direction direction);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Helpers
+	////////////////////////////////////////////////////////////////////////////
+
+	/** Return the neighbors of the tiles of map. */
+	private static Adjacency adjacency(Map map) {
+		return new Adjacency(map.getHeight(), map.getWidth());
+	}
+
+	/** Return a store of the tiles of map. */
+	private static TileStore tileStore(Map map) {
+		TileStore store= new TileStore(map.getHeight(), map.getWidth());
+		for (int row= 0; row < map.getHeight(); row++) {
+			for (int col= 0; col < map.getWidth(); col++) {
+				store.set(row * map.getWidth() + col, map.tiles[row][col]);
+			}
+		}
+		return store;
+	}
+
+	/** Handle command line arguments args, formatted as for
+	 * Simulator.handle_arguments. Print the usage and exit if one is not
+	 * understood. */
+	private static void handleArguments(String[] args) {
+		try {
+			for (int i= 0; i < args.length; i += 2) {
+				switch (args[i]) {
+					case ("--sizes"):
+						String[] s= args[i + 1].split(",");
+						sizes= new int[s.length];
+						for (int j= 0; j < s.length; j++) {
+							sizes[j]= Integer.parseInt(s[j]);
+						}
+						break;
+					case ("--simulate-size"):
+						simulateSize= Integer.parseInt(args[i + 1]);
+						break;
+					case ("--densities"):
+						String[] d= args[i + 1].split(",");
+						densities= new double[d.length];
+						for (int j= 0; j < d.length; j++) {
+							densities[j]= Double.parseDouble(d[j]);
+						}
+						break;
+					case ("--warmup"):
+						warmups= Integer.parseInt(args[i + 1]);
+						break;
+					case ("--iterations"):
+						iterations= Integer.parseInt(args[i + 1]);
+						break;
+					case ("--time"):
+						iterationTime= Long.parseLong(args[i + 1]);
+						break;
+					case ("--filter"):
+						filter= args[i + 1];
+						break;
+					case ("--maps"):
+						mapDirectory= args[i + 1];
+						break;
+					case ("-p"):
+					case ("--parallel"):
+						Common.PARALLEL_AROMAS= true;
+						i--;
+						break;
+					default:
+						throw new IllegalArgumentException(args[i]);
+				}
+			}
+		}
+		catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.out.println("USAGE java danaus.Benchmarks " +
+					"[--sizes n,...] [--simulate-size n] [--densities d,...] " +
+					"[--warmup n] [--iterations n] [--time ms] " +
+					"[--filter name] [--maps dir] [-p | --parallel]");
+			System.exit(1);
+		}
+	}
+}
@@ -18,7 +18,9 @@ public abstract class AbstractButterfly extends Entity {
     private Map map;
 
     /** A tile state (not necessarily the state of the tile the butterfly is 
-     * currently on).
+     * currently on). It is a snapshot of the state of the tile, shared by
+     * every refresh on the tile until the tile changes, so its lists cannot
+     * be modified.
      * @see danaus.AbstractButterfly#refreshState() */
     protected TileState state;
 	
@@ -0,0 +1,92 @@
+package danaus;
+
+/** An instance holds the neighbors of every tile of a map. Tiles are
+ * numbered by their tile index, row * width + col, and the neighbor of each
+ * tile in each direction is computed once, wrapping around the edges of the
+ * map, and stored in a flat array. Looking up a neighbor is then a single
+ * array access, with no Position or arithmetic modulo the map's size.
+ * <br>
+ * On a map with a single row or column, the neighbor of a tile in some
+ * directions is the tile itself. Callers that want distinct neighbors must
+ * check for this.
+ */
+class Adjacency {
+	/** The number of neighbors of a tile: one per direction. */
+	static final int DEGREE= Common.DIRECTIONS.length;
+	/** The mask of every direction. */
+	static final int ALL= (1 << DEGREE) - 1;
+
+	/** The height of the map (in rows). */
+	final int height;
+	/** The width of the map (in columns). */
+	final int width;
+	/** neighbors[tile * DEGREE + d.ordinal()] is the tile index of the
+	 * neighbor of tile index tile in direction d. */
+	private final int[] neighbors;
+
+	/** Constructor: the neighbors of a map with height rows and width
+	 * columns. */
+	Adjacency(int height, int width) {
+		this.height= height;
+		this.width= width;
+		neighbors= new int[height * width * DEGREE];
+		for (int row= 0; row < height; row++) {
+			for (int col= 0; col < width; col++) {
+				int base= index(row, col) * DEGREE;
+				for (Direction d : Common.DIRECTIONS) {
+					neighbors[base + d.ordinal()]=
+							index(Common.mod(row + d.dRow, height),
+									Common.mod(col + d.dCol, width));
+				}
+			}
+		}
+	}
+
+	/** Return the number of tiles of the map. */
+	int size() {
+		return height * width;
+	}
+
+	/** Return the tile index of the tile at row and col. */
+	int index(int row, int col) {
+		return row * width + col;
+	}
+
+	/** Return the row of tile index tile. */
+	int row(int tile) {
+		return tile / width;
+	}
+
+	/** Return the column of tile index tile. */
+	int col(int tile) {
+		return tile % width;
+	}
+
+	/** Return the tile index of the neighbor of tile index tile in direction
+	 * d. */
+	int neighbor(int tile, Direction d) {
+		return neighbors[tile * DEGREE + d.ordinal()];
+	}
+
+	/** Return the tile index of the neighbor of tile index tile in the
+	 * direction with ordinal d. */
+	int neighbor(int tile, int d) {
+		return neighbors[tile * DEGREE + d];
+	}
+
+	/** Return the mask of the directions that satisfy dc: bit d is set iff
+	 * the direction with ordinal d does. A null condition is satisfied by
+	 * every direction. */
+	static int mask(DirectionCondition dc) {
+		if (dc == null) {
+			return ALL;
+		}
+		int mask= 0;
+		for (Direction d : Common.DIRECTIONS) {
+			if (dc.directionCondition(d)) {
+				mask |= 1 << d.ordinal();
+			}
+		}
+		return mask;
+	}
+}
@@ -47,7 +47,41 @@ public class Aroma implements Comparable<Aroma> {
      * intensity in and still be detected.
      */
     public static int getMaxSteps(double in) {
-        return Common.MAXIMUM_STEPS;
+        return getMaxSteps(in, Common.MIN_AROMA_INTENSITY);
+    }
+
+    /** Return the maximum number of steps that can be taken away from
+     * initial intensity in while the intensity is still at least threshold,
+     * but no more than MAXIMUM_STEPS. A non-positive threshold is never
+     * crossed, and an aroma can always be detected at its own flower.
+     *
+     * @param in An initial intensity.
+     * @param threshold The smallest intensity that can be detected.
+     * @return the maximum number of steps that can be taken away from 
+     * intensity in and still be detected.
+     */
+    public static int getMaxSteps(double in, double threshold) {
+        if (threshold <= 0) {
+            return Common.MAXIMUM_STEPS;
+        }
+        if (in <= threshold) {
+            return 0;
+        }
+
+        /* Solve in / (s + 1)^2 = threshold for s, then correct for rounding
+         * so that s is exactly the last step at or above threshold. */
+        double root= Math.sqrt(in / threshold) - 1;
+        if (root >= Common.MAXIMUM_STEPS) {
+            return Common.MAXIMUM_STEPS;
+        }
+        int s= (int) root;
+        while (s < Common.MAXIMUM_STEPS && calculateIntensity(in, s + 1) >= threshold) {
+            s++;
+        }
+        while (s > 0 && calculateIntensity(in, s) < threshold) {
+            s--;
+        }
+        return s;
     }
 
     /** Make a negative intensity zero. */
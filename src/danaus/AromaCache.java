@@ -0,0 +1,266 @@
+package danaus;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/** An instance finds the aromas that reach a tile, for maps whose aromas are
+ * evaluated lazily. It keeps the fields of the map in buckets by the tile of
+ * their flower, so only the flowers near enough to reach a tile are looked
+ * at. The steps from those flowers to the tile are then found in one of two
+ * ways:
+ * <ul>
+ * <li> From the distance fields of the flowers. A distance field gives the
+ *      steps from a flower to every tile of the map, so it holds an int per
+ *      tile. Fields are kept in least-recently-used order and the least
+ *      recently used one is dropped once they take more than a fixed number
+ *      of bytes; a dropped field is simply computed again if it is needed
+ *      later. Distance fields are keyed by the tile of their flower, so the
+ *      flowers of one tile, and flowers spread again, share a single field.
+ * <li> By one search from the tile itself, if the flowers near enough to
+ *      reach it have more distance fields than the cache can hold. Reading
+ *      them would only push each other out of the cache, as they do on a
+ *      large map with thousands of flowers whose aromas reach every tile.
+ * </ul>
+ * The steps are the same either way.
+ * @see danaus.AromaStore
+ */
+class AromaCache {
+	/** The number of rows and columns of tiles in a bucket. */
+	static final int BUCKET_SIZE= 16;
+
+	/** The spreader that computes the distance fields. */
+	private final AromaSpreader spreader;
+	/** The distance fields, from least to most recently used, keyed by
+	 * the largest number of steps of the flower in their high 32 bits and
+	 * its tile index in their low 32 bits. */
+	private final LinkedHashMap<Long, int[]> distanceFields;
+	/** The most distance fields held. */
+	private final long capacity;
+
+	/** The number of rows and columns of buckets. */
+	private final int bucketRows;
+	private final int bucketCols;
+	/** buckets[b][0..bucketSizes[b]-1] are the numbers of the fields in
+	 * bucket b, in ascending order. Bucket b holds the fields of the flowers
+	 * on tiles BUCKET_SIZE * (b / bucketCols) to BUCKET_SIZE * (b /
+	 * bucketCols + 1) - 1 rows down and likewise b % bucketCols across. */
+	private final int[][] buckets;
+	/** @see danaus.AromaCache#buckets */
+	private final int[] bucketSizes;
+	/** The largest number of steps of the aroma of any field ever in each
+	 * bucket. */
+	private final int[] bucketReach;
+	/** The largest number of steps of the aroma of each field, by number. */
+	private int[] reach;
+
+	/** Scratch space for searches from a tile, with a slot per tile.
+	 * visited[t] is the search mark iff the last search reached t, in
+	 * steps[t] steps. */
+	private final int[] frontier;
+	private final int[] visited;
+	private final int[] steps;
+	/** The mark of the last search. */
+	private int mark;
+
+	/** Constructor: an empty cache of the fields computed by spreader,
+	 * holding at most bytes bytes of distance fields. At least one distance
+	 * field is always held. */
+	AromaCache(AromaSpreader spreader, long bytes) {
+		Debugger.NULL_CHECK(spreader, "null spreader in AromaCache(...)");
+
+		this.spreader= spreader;
+		int size= spreader.height() * spreader.width();
+		capacity= Math.max(1, bytes / (4L * size));
+		final long held= capacity;
+		distanceFields= new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID= 1L;
+
+			protected @Override boolean removeEldestEntry(
+					java.util.Map.Entry<Long, int[]> eldest) {
+				return size() > held;
+			}
+		};
+
+		bucketRows= (spreader.height() + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		bucketCols= (spreader.width() + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		buckets= new int[bucketRows * bucketCols][];
+		bucketSizes= new int[buckets.length];
+		bucketReach= new int[buckets.length];
+		reach= new int[16];
+
+		frontier= new int[size];
+		visited= new int[size];
+		steps= new int[size];
+	}
+
+	/** Return the largest number of steps the aroma of field f spreads. */
+	int maxSteps(AromaField f) {
+		return spreader.maxSteps(f.flower);
+	}
+
+	/** Add field f, numbered number, to the bucket of its flower's tile.
+	 * Precondition: number is larger than the number of every field in this
+	 * cache. */
+	void add(AromaField f, int number) {
+		if (number >= reach.length) {
+			reach= Arrays.copyOf(reach, Math.max(2 * reach.length, number + 1));
+		}
+		reach[number]= maxSteps(f);
+
+		int b= bucket(f.source);
+		if (buckets[b] == null) {
+			buckets[b]= new int[4];
+		}
+		else if (bucketSizes[b] == buckets[b].length) {
+			buckets[b]= Arrays.copyOf(buckets[b], 2 * bucketSizes[b]);
+		}
+		buckets[b][bucketSizes[b]++]= number;
+		bucketReach[b]= Math.max(bucketReach[b], reach[number]);
+	}
+
+	/** Remove field f, numbered number, from the bucket of its flower's
+	 * tile. */
+	void remove(AromaField f, int number) {
+		int b= bucket(f.source);
+		int i= (buckets[b] == null) ? -1 :
+				Arrays.binarySearch(buckets[b], 0, bucketSizes[b], number);
+		if (i >= 0) {
+			System.arraycopy(buckets[b], i + 1, buckets[b], i,
+					bucketSizes[b] - i - 1);
+			bucketSizes[b]--;
+		}
+	}
+
+	/** Return the index entries of tile index tile for the fields numbered
+	 * from on, in order, where field number n is fields.get(n): an entry for
+	 * each field whose aroma reaches tile, packing n into its high 32 bits
+	 * and the steps from the field's flower to tile into its low 32 bits.
+	 * @see danaus.AromaStore */
+	long[] entries(int tile, int from, List<AromaField> fields) {
+		int candidates[]= candidates(tile, from, fields);
+		long entries[]= new long[candidates.length];
+		int n= 0;
+		if (candidates.length == 0) {
+			return entries;
+		}
+
+		if (!spreader.isFlyable(tile)) {
+			// Only the flowers on a tile that cannot be flown to reach it
+			for (int number : candidates) {
+				if (fields.get(number).source == tile) {
+					entries[n++]= (long) number << 32;
+				}
+			}
+			return Arrays.copyOf(entries, n);
+		}
+
+		HashSet<Long> keys= new HashSet<Long>();
+		int farthest= 0;
+		for (int number : candidates) {
+			keys.add(key(fields.get(number)));
+			farthest= Math.max(farthest, reach[number]);
+		}
+
+		if (keys.size() <= capacity) {
+			for (int number : candidates) {
+				int s= distances(fields.get(number))[tile];
+				if (s >= 0) {
+					entries[n++]= ((long) number << 32) | s;
+				}
+			}
+		}
+		else {
+			nextMark();
+			spreader.searchFrom(tile, farthest, frontier, visited, steps, mark);
+			for (int number : candidates) {
+				int source= fields.get(number).source;
+				if (visited[source] == mark && steps[source] <= reach[number]) {
+					entries[n++]= ((long) number << 32) | steps[source];
+				}
+			}
+		}
+		return Arrays.copyOf(entries, n);
+	}
+
+	/** Return the numbers, in ascending order, of the fields numbered from
+	 * on whose flowers are near enough to tile index tile that their aromas
+	 * may reach it. */
+	private int[] candidates(int tile, int from, List<AromaField> fields) {
+		int candidates[]= new int[16];
+		int n= 0;
+		for (int b= 0; b < buckets.length; b++) {
+			if (bucketSizes[b] == 0 || minSteps(tile, b) > bucketReach[b]) {
+				continue;
+			}
+			int i= Arrays.binarySearch(buckets[b], 0, bucketSizes[b], from);
+			for (i= (i < 0) ? -i - 1 : i; i < bucketSizes[b]; i++) {
+				int number= buckets[b][i];
+				if (spreader.minSteps(fields.get(number).source, tile) >
+						reach[number]) {
+					continue;
+				}
+				if (n == candidates.length) {
+					candidates= Arrays.copyOf(candidates, 2 * n);
+				}
+				candidates[n++]= number;
+			}
+		}
+		candidates= Arrays.copyOf(candidates, n);
+		Arrays.sort(candidates);
+		return candidates;
+	}
+
+	/** Return the distance field of the flower of field f, computing it if
+	 * it is not held. */
+	private int[] distances(AromaField f) {
+		Long key= key(f);
+		int distances[]= distanceFields.get(key);
+		if (distances == null) {
+			distances= spreader.distances(f.flower, f.source);
+			distanceFields.put(key, distances);
+		}
+		return distances;
+	}
+
+	/** Return the key of the distance field of the flower of field f. */
+	private long key(AromaField f) {
+		return ((long) maxSteps(f) << 32) | f.source;
+	}
+
+	/** Return the bucket of tile index tile. */
+	private int bucket(int tile) {
+		return (tile / spreader.width() / BUCKET_SIZE) * bucketCols +
+				tile % spreader.width() / BUCKET_SIZE;
+	}
+
+	/** Return the fewest steps that can separate tile index tile from any
+	 * tile of bucket b, whatever lies between them. */
+	private int minSteps(int tile, int b) {
+		int top= b / bucketCols * BUCKET_SIZE;
+		int left= b % bucketCols * BUCKET_SIZE;
+		return Math.max(
+				minSteps(tile / spreader.width(), top, spreader.height()),
+				minSteps(tile % spreader.width(), left, spreader.width()));
+	}
+
+	/** Return the fewest steps along a line of n tiles, around its ends,
+	 * from tile i to any of the BUCKET_SIZE tiles from first on. */
+	private static int minSteps(int i, int first, int n) {
+		int last= Math.min(n - 1, first + BUCKET_SIZE - 1);
+		if (first <= i && i <= last) {
+			return 0;
+		}
+		return Math.min((first - i + n) % n, (i - last + n) % n);
+	}
+
+	/** Change the mark of the next search from a tile. */
+	private void nextMark() {
+		if (mark == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			mark= 0;
+		}
+		mark++;
+	}
+}
@@ -0,0 +1,129 @@
+package danaus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** An instance represents the aroma a single flower radiates across a map.
+ * Rather than storing an Aroma at every tile the aroma reaches, a field stores
+ * the tiles the aroma reaches grouped by their number of steps from the
+ * flower, and the intensity at a tile is derived from those steps when it is
+ * read. A field only holds the tiles its aroma reaches, so an aroma that
+ * fades out after a few steps takes little space on any size map.
+ * @see danaus.Aroma#calculateIntensity(double, int)
+ */
+class AromaField {
+	/** The flower that produced this aroma. */
+	final Flower flower;
+	/** The tile index of the flower. */
+	final int source;
+
+	/** The tile indices the aroma reaches, in order of their steps. Only
+	 * tiles[0..size-1] are used. Null once the field is released. */
+	private int[] tiles;
+	/** The number of tiles the aroma reaches. */
+	private int size;
+	/** levels[s] is the index into tiles of the first tile s steps from the
+	 * flower. Only levels[0..depth-1] are used. Null once the field is
+	 * released. */
+	private int[] levels;
+	/** The number of steps to the farthest tile, plus one. */
+	private int depth;
+
+	/** The number of times wind has been spread over this aroma. */
+	int windPasses;
+
+	/** Constructor: a field for flower, at tile index source, that does not
+	 * yet reach any tile. */
+	AromaField(Flower flower, int source) {
+		Debugger.NULL_CHECK(flower, "null flower in AromaField(...)");
+
+		this.flower= flower;
+		this.source= source;
+		tiles= new int[16];
+		levels= new int[4];
+	}
+
+	/** Record that the aroma reaches tile index tile in steps steps.
+	 * Precondition: tiles are reached in order of their steps, and
+	 * steps is at most one more than the steps of the last tile reached. */
+	void reach(int tile, int steps) {
+		if (size == tiles.length) {
+			tiles= Arrays.copyOf(tiles, 2 * size);
+		}
+		if (depth == steps) {
+			if (depth == levels.length) {
+				levels= Arrays.copyOf(levels, 2 * depth);
+			}
+			levels[depth++]= size;
+		}
+		tiles[size++]= tile;
+	}
+
+	/** Release the space this field reserved for tiles it did not reach. */
+	void trim() {
+		tiles= Arrays.copyOf(tiles, size);
+		levels= Arrays.copyOf(levels, depth);
+	}
+
+	/** Release the tiles of this field, once an AromaStore has indexed them.
+	 * Its size and depth are kept, but its tiles can no longer be read, and
+	 * it can no longer be written. */
+	void release() {
+		tiles= null;
+		levels= null;
+	}
+
+	/** Return the number of tiles the aroma reaches. */
+	int size() {
+		return size;
+	}
+
+	/** Return the number of steps to the farthest tile, plus one. */
+	int depth() {
+		return depth;
+	}
+
+	/** Return the index into this field of the first tile s steps from the
+	 * flower. Precondition: 0 <= s <= depth(). */
+	int levelStart(int s) {
+		return (s == depth) ? size : levels[s];
+	}
+
+	/** Return the tile index of the i-th tile the aroma reaches. */
+	int tile(int i) {
+		return tiles[i];
+	}
+
+	/** Write this field, but not its flower, to out.
+	 * @see danaus.AromaField#read(DataInput, Flower) */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(source);
+		out.writeInt(windPasses);
+		out.writeInt(depth);
+		for (int s= 0; s < depth; s++) {
+			out.writeInt(levelStart(s + 1) - levelStart(s));
+		}
+		for (int i= 0; i < size; i++) {
+			out.writeInt(tiles[i]);
+		}
+	}
+
+	/** Return the field of flower written to in by write(DataOutput). */
+	static AromaField read(DataInput in, Flower flower) throws IOException {
+		AromaField f= new AromaField(flower, in.readInt());
+		f.windPasses= in.readInt();
+		int levelSizes[]= new int[in.readInt()];
+		for (int s= 0; s < levelSizes.length; s++) {
+			levelSizes[s]= in.readInt();
+		}
+		for (int s= 0; s < levelSizes.length; s++) {
+			for (int i= 0; i < levelSizes[s]; i++) {
+				f.reach(in.readInt(), s);
+			}
+		}
+		f.trim();
+		return f;
+	}
+}
@@ -0,0 +1,101 @@
+package danaus;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** An instance finds the aroma of a given flower in a list of aromas,
+ * without scanning the list. It holds the flower ids of the list sorted,
+ * with the position in the list of each, and is searched by binary search.
+ * If a flower has several aromas in the list, the last one is found.
+ * <br>
+ * An index never changes once it is made, so it can be shared by a tile
+ * state and all of its copies.
+ * @see danaus.TileState#getAroma(long)
+ */
+class AromaIndex {
+	/** An index of no aromas. */
+	static final AromaIndex EMPTY= new AromaIndex(new long[0], new int[0]);
+
+	/** The distinct flower ids of the list, in ascending order. */
+	private final long[] ids;
+	/** positions[i] is the position in the list of the last aroma of the
+	 * flower with id ids[i]. */
+	private final int[] positions;
+
+	/** Constructor: an index with flower ids ids at positions positions. */
+	private AromaIndex(long[] ids, int[] positions) {
+		this.ids= ids;
+		this.positions= positions;
+	}
+
+	/** Return an index of the aromas whose flower ids, in list order, are
+	 * ids[0..n-1]. */
+	static AromaIndex of(long[] ids, int n) {
+		if (n == 0) {
+			return EMPTY;
+		}
+
+		/* Pack each id into the high 32 bits of an entry and its position
+		 * into the low 32 bits, so sorting the entries sorts by id and, among
+		 * equal ids, by position. Flower ids are numbered from 0, so they fit
+		 * unless the aromas were made with ids of their own. */
+		long entries[]= new long[n];
+		for (int i= 0; i < n; i++) {
+			if (ids[i] != (int) ids[i]) {
+				return ofWide(ids, n);
+			}
+			entries[i]= (ids[i] << 32) | i;
+		}
+		Arrays.sort(entries);
+
+		long sortedIds[]= new long[n];
+		int positions[]= new int[n];
+		int size= 0;
+		for (int i= 0; i < n; i++) {
+			long id= entries[i] >> 32;
+			if (size > 0 && sortedIds[size - 1] == id) {
+				size--;
+			}
+			sortedIds[size]= id;
+			positions[size++]= (int) entries[i];
+		}
+		return new AromaIndex(Arrays.copyOf(sortedIds, size),
+				Arrays.copyOf(positions, size));
+	}
+
+	/** Return an index of the aromas whose flower ids, in list order, are
+	 * ids[0..n-1], some of which do not fit in an int. */
+	private static AromaIndex ofWide(long[] ids, int n) {
+		long sortedIds[]= Arrays.copyOf(ids, n);
+		Arrays.sort(sortedIds);
+		int size= 0;
+		for (int i= 0; i < n; i++) {
+			if (size == 0 || sortedIds[size - 1] != sortedIds[i]) {
+				sortedIds[size++]= sortedIds[i];
+			}
+		}
+
+		// Later aromas of a flower overwrite earlier ones
+		int positions[]= new int[size];
+		for (int i= 0; i < n; i++) {
+			positions[Arrays.binarySearch(sortedIds, 0, size, ids[i])]= i;
+		}
+		return new AromaIndex(Arrays.copyOf(sortedIds, size), positions);
+	}
+
+	/** Return an index of aromas. */
+	static AromaIndex of(List<Aroma> aromas) {
+		long ids[]= new long[aromas.size()];
+		for (int i= 0; i < ids.length; i++) {
+			ids[i]= aromas.get(i).getFlowerId();
+		}
+		return of(ids, ids.length);
+	}
+
+	/** Return the position in the list of the last aroma of the flower with
+	 * id flowerId, or -1 if the list has no aroma of that flower. */
+	int find(long flowerId) {
+		int i= Arrays.binarySearch(ids, flowerId);
+		return (i < 0) ? -1 : positions[i];
+	}
+}
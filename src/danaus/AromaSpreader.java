@@ -0,0 +1,347 @@
+package danaus;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** An instance spreads the aromas of flowers across a map, computing one
+ * aroma field per flower. The search for each flower is independent of all
+ * the others, so flowers are spread in batches that can be computed on
+ * separate threads. The fields are returned in the order the flowers were
+ * given, so the aromas of a map do not depend on how they were computed.
+ * <br>
+ * Two kernels are available. The first is a plain breadth-first search from
+ * one flower. The second searches from up to 64 flowers at once: each tile
+ * holds a long word with one bit per flower, and a whole level of every
+ * search is advanced by or-ing the words of each tile's neighbors. It is
+ * used for batches dense enough to outweigh scanning the map on every level.
+ *
+ * @see danaus.Map#spreadAromas(List)
+ */
+class AromaSpreader {
+	/** The largest number of flowers spread by one bit-parallel search: the
+	 * number of bits in a long. */
+	static final int BATCH_SIZE= Long.SIZE;
+	/** The smallest number of flowers a thread spreads with plain searches.
+	 * Smaller batches are not worth the cost of handing out. */
+	static final int MIN_PARALLEL_BATCH= 8;
+
+	/** The height of the map (in rows). */
+	private final int height;
+	/** The width of the map (in columns). */
+	private final int width;
+	/** The neighbors of every tile of the map. */
+	private final Adjacency adjacency;
+	/** True at tile index i iff tile i can be flown to. */
+	private final boolean[] flyable;
+	/** The smallest intensity an aroma can have and still be detected. No
+	 * search grows past the tiles at which its aroma drops below it. */
+	private final double threshold;
+
+	/** Constructor: a spreader over a map with neighbors adjacency whose
+	 * flyable tiles are given by flyable, indexed by row * width + col.
+	 * Aromas are detected down to intensity threshold. */
+	AromaSpreader(Adjacency adjacency, boolean[] flyable, double threshold) {
+		this.height= adjacency.height;
+		this.width= adjacency.width;
+		this.adjacency= adjacency;
+		this.flyable= flyable;
+		this.threshold= threshold;
+	}
+
+	/** Return the aroma fields of flowers, where flowers[i] is at tile index
+	 * sources[i]. Entry i of the result is the field of flowers[i]. If
+	 * parallel is true, batches of flowers are spread on a ForkJoin pool. */
+	AromaField[] spread(Flower[] flowers, int[] sources, boolean parallel) {
+		AromaField fields[]= new AromaField[flowers.length];
+		if (parallel && flowers.length > MIN_PARALLEL_BATCH) {
+			ForkJoinPool.commonPool().invoke(
+					new SpreadTask(flowers, sources, fields, 0, flowers.length));
+		}
+		else {
+			spread(flowers, sources, fields, 0, flowers.length);
+		}
+		return fields;
+	}
+
+	/** Spread flowers[lo..hi-1] into fields[lo..hi-1], BATCH_SIZE flowers at
+	 * a time, choosing the kernel for each batch. */
+	private void spread(Flower[] flowers, int[] sources, AromaField[] fields,
+			int lo, int hi) {
+		int frontier[]= null;
+		int visited[]= null;
+		for (int start= lo; start < hi; start += BATCH_SIZE) {
+			int end= Math.min(hi, start + BATCH_SIZE);
+			if (isDense(end - start)) {
+				spreadBits(flowers, sources, fields, start, end);
+				continue;
+			}
+			if (frontier == null) {
+				frontier= new int[height * width];
+				visited= new int[height * width];
+			}
+			for (int i= start; i < end; i++) {
+				/* Tile t has been visited by search i iff visited[t] is i+1,
+				 * so visited never has to be cleared between searches. */
+				fields[i]= spreadOne(flowers[i], sources[i], frontier,
+						visited, i + 1);
+			}
+		}
+	}
+
+	/** Return true iff n flowers are dense enough to be spread together by
+	 * the bit-parallel kernel. A search takes at least max(height, width) / 2
+	 * levels to cross a map, and the bit-parallel kernel scans every tile on
+	 * each level, so it pays off only for at least that many flowers. */
+	boolean isDense(int n) {
+		return n >= Math.max(height, width);
+	}
+
+	/** Return the aroma field of flower at tile index source, computed by a
+	 * breadth-first search. frontier and visited are scratch space with a
+	 * slot per tile, and the tiles this search visits are marked in visited
+	 * with mark. The search is grown one level of steps at a time, so tiles at
+	 * the maximum number of steps are reached but not grown. */
+	private AromaField spreadOne(Flower flower, int source, int[] frontier,
+			int[] visited, int mark) {
+		AromaField field= new AromaField(flower, source);
+		// Tiles in [head, tail) are on the frontier.
+		int head= 0;
+		int tail= 0;
+		// The largest number of steps that can be taken while an aroma is
+		// still detectable
+		int maxSteps= maxSteps(flower);
+
+		field.reach(source, 0);
+		visited[source]= mark;
+		frontier[tail++]= source;
+
+		for (int steps= 0; head < tail && steps < maxSteps; steps++) {
+			int levelEnd= tail;
+			for (; head < levelEnd; head++) {
+				for (int d= 0; d < Adjacency.DEGREE; d++) {
+					int neighbor= adjacency.neighbor(frontier[head], d);
+					if (visited[neighbor] != mark && flyable[neighbor]) {
+						visited[neighbor]= mark;
+						frontier[tail++]= neighbor;
+						field.reach(neighbor, steps + 1);
+					}
+				}
+			}
+		}
+
+		field.trim();
+		return field;
+	}
+
+	/** Return the number of steps from tile index source to every tile that
+	 * the aroma of flower, at source, reaches, or -1 at the tiles it does not
+	 * reach. The steps are those of spreadOne(...), found by the same search. */
+	int[] distances(Flower flower, int source) {
+		int distances[]= new int[height * width];
+		Arrays.fill(distances, -1);
+		int frontier[]= new int[height * width];
+		int head= 0;
+		int tail= 0;
+		int maxSteps= maxSteps(flower);
+
+		distances[source]= 0;
+		frontier[tail++]= source;
+
+		for (int steps= 0; head < tail && steps < maxSteps; steps++) {
+			int levelEnd= tail;
+			for (; head < levelEnd; head++) {
+				for (int d= 0; d < Adjacency.DEGREE; d++) {
+					int neighbor= adjacency.neighbor(frontier[head], d);
+					if (distances[neighbor] < 0 && flyable[neighbor]) {
+						distances[neighbor]= steps + 1;
+						frontier[tail++]= neighbor;
+					}
+				}
+			}
+		}
+		return distances;
+	}
+
+	/** Search from tile index tile, which can be flown to, for the tiles at
+	 * most maxSteps steps away, through tiles that can be flown to. The
+	 * tiles next to them that cannot be flown to are reached too, since the
+	 * aroma of a flower on one of them spreads from it. Each tile t reached
+	 * is marked in visited with mark, and its steps from tile are put in
+	 * steps[t]. Since every step can be taken both ways, those are the steps
+	 * distances(...) finds from each tile reached to tile, if the aroma of a
+	 * flower there reaches it. frontier is scratch space with a slot per
+	 * tile. */
+	void searchFrom(int tile, int maxSteps, int[] frontier, int[] visited,
+			int[] steps, int mark) {
+		int head= 0;
+		int tail= 0;
+
+		visited[tile]= mark;
+		steps[tile]= 0;
+		frontier[tail++]= tile;
+
+		for (int s= 0; head < tail && s < maxSteps; s++) {
+			int levelEnd= tail;
+			for (; head < levelEnd; head++) {
+				for (int d= 0; d < Adjacency.DEGREE; d++) {
+					int neighbor= adjacency.neighbor(frontier[head], d);
+					if (visited[neighbor] != mark) {
+						visited[neighbor]= mark;
+						steps[neighbor]= s + 1;
+						if (flyable[neighbor]) {
+							frontier[tail++]= neighbor;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/** Return true iff tile index tile can be flown to. */
+	boolean isFlyable(int tile) {
+		return flyable[tile];
+	}
+
+	/** Return the height of the map (in rows). */
+	int height() {
+		return height;
+	}
+
+	/** Return the width of the map (in columns). */
+	int width() {
+		return width;
+	}
+
+	/** Return the largest number of steps the aroma of flower spreads. */
+	int maxSteps(Flower flower) {
+		return Aroma.getMaxSteps(flower.aromaIntensity, threshold);
+	}
+
+	/** Return the fewest steps that can separate tile indices from and to,
+	 * whatever lies between them. No aroma reaches a tile in fewer steps. */
+	int minSteps(int from, int to) {
+		int dRow= Math.abs(from / width - to / width);
+		int dCol= Math.abs(from % width - to % width);
+		return Math.max(Math.min(dRow, height - dRow),
+				Math.min(dCol, width - dCol));
+	}
+
+	/** Spread flowers[lo..hi-1] into fields[lo..hi-1] with a single
+	 * bit-parallel breadth-first search. Bit b of a word belongs to flower
+	 * lo + b. Precondition: hi - lo <= BATCH_SIZE. */
+	private void spreadBits(Flower[] flowers, int[] sources, AromaField[] fields,
+			int lo, int hi) {
+		int size= height * width;
+		// The flowers whose aromas have reached each tile
+		long visited[]= new long[size];
+		// The flowers whose aromas reached each tile on the previous level
+		long frontier[]= new long[size];
+		// The flowers whose aromas reach each tile on the current level
+		long next[]= new long[size];
+		// The flowers whose searches may still grow
+		long active= 0;
+		// The maximum number of steps of each flower
+		int maxSteps[]= new int[hi - lo];
+
+		for (int i= lo; i < hi; i++) {
+			long bit= 1L << (i - lo);
+			fields[i]= new AromaField(flowers[i], sources[i]);
+			fields[i].reach(sources[i], 0);
+			visited[sources[i]] |= bit;
+			frontier[sources[i]] |= bit;
+			maxSteps[i - lo]= maxSteps(flowers[i]);
+			if (maxSteps[i - lo] > 0) {
+				active |= bit;
+			}
+		}
+
+		/* Each iteration moves every active search one step further. Tiles
+		 * that cannot be flown to never hold any bits. */
+		for (int steps= 1; active != 0; steps++) {
+			boolean grew= false;
+			for (int tile= 0; tile < size; tile++) {
+				if (!flyable[tile]) {
+					continue;
+				}
+
+				long reached= 0;
+				for (int d= 0; d < Adjacency.DEGREE; d++) {
+					reached |= frontier[adjacency.neighbor(tile, d)];
+				}
+				long fresh= reached & active & ~visited[tile];
+				next[tile]= fresh;
+				if (fresh == 0) {
+					continue;
+				}
+
+				grew= true;
+				visited[tile] |= fresh;
+				while (fresh != 0) {
+					int b= Long.numberOfTrailingZeros(fresh);
+					fields[lo + b].reach(tile, steps);
+					fresh &= fresh - 1;
+				}
+			}
+
+			if (!grew) {
+				break;
+			}
+
+			long swap[]= frontier;
+			frontier= next;
+			next= swap;
+			for (int b= 0; b < hi - lo; b++) {
+				if (maxSteps[b] <= steps) {
+					active &= ~(1L << b);
+				}
+			}
+		}
+
+		for (int i= lo; i < hi; i++) {
+			fields[i].trim();
+		}
+	}
+
+	/** An instance spreads a range of flowers, splitting it into batches that
+	 * are spread in parallel. */
+	@SuppressWarnings("serial")
+	private class SpreadTask extends RecursiveAction {
+		private final Flower[] flowers;
+		private final int[] sources;
+		private final AromaField[] fields;
+		private final int lo;
+		private final int hi;
+
+		/** Constructor: a task that spreads flowers[lo..hi-1] into
+		 * fields[lo..hi-1]. */
+		SpreadTask(Flower[] flowers, int[] sources, AromaField[] fields,
+				int lo, int hi) {
+			this.flowers= flowers;
+			this.sources= sources;
+			this.fields= fields;
+			this.lo= lo;
+			this.hi= hi;
+		}
+
+		/** Spread the range, or split it in two if it is more than one batch
+		 * or more than one thread's share of plain searches. */
+		protected @Override void compute() {
+			int n= hi - lo;
+			boolean split= n > BATCH_SIZE ||
+					(n > MIN_PARALLEL_BATCH && !isDense(n));
+			if (!split) {
+				spread(flowers, sources, fields, lo, hi);
+				return;
+			}
+
+			/* Split on a batch boundary when possible so that dense ranges
+			 * stay in full words. */
+			int mid= (n > BATCH_SIZE) ?
+					lo + Math.max(1, n / (2 * BATCH_SIZE)) * BATCH_SIZE :
+					lo + n / 2;
+			invokeAll(new SpreadTask(flowers, sources, fields, lo, mid),
+					new SpreadTask(flowers, sources, fields, mid, hi));
+		}
+	}
+}
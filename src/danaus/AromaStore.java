@@ -0,0 +1,424 @@
+package danaus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** An instance holds every aroma on a map. Aromas are kept as one field per
+ * spread flower, in the order the flowers were spread, together with the
+ * changes wind makes at each tile. The list of aromas at a tile is derived
+ * from them on demand, so a map holds a few primitive arrays instead of one
+ * Aroma object for every flower at every tile it reaches.
+ * <br>
+ * Each tile has a sparse index of the aromas that reach it. An entry packs
+ * the number of the field, in the order the fields were added, into its high
+ * 32 bits and the steps from the field's flower into its low 32 bits, so a
+ * tile's entries are sorted by field and read back in spread order. Once a
+ * field is indexed, the index is the only record of the tiles it reaches:
+ * the field releases its own, and is rebuilt from the index when it is
+ * written out. Each batch of fields added grows the index of a tile by
+ * exactly the entries it adds, so the index holds no unused slots.
+ * <br>
+ * A lazy store does not search from its flowers as they are added. Instead,
+ * the index of a tile is filled in the first time the tile is read, from
+ * the flowers an AromaCache finds near enough to reach it, and extended with
+ * the fields added since whenever it is read again. The aromas read are the
+ * same either way.
+ * <br>
+ * Flowers can be added and removed at any time. Adding a flower only
+ * indexes its own field, and removing one only retracts the fields of that
+ * flower, so the work done is proportional to the flowers involved rather
+ * than to the flowers on the map.
+ */
+class AromaStore {
+	/** The width of the map (in columns). */
+	final int width;
+	/** The height of the map (in rows). */
+	final int height;
+
+	/** The aroma fields, in the order they were spread. The field of a
+	 * flower that has been removed is null, so that field numbers never
+	 * change. */
+	private final List<AromaField> fields;
+	/** The numbers of the fields of each flower in this store, keyed by
+	 * flower id. A flower spread several times has several fields. */
+	private final HashMap<Long, List<Integer>> flowerFields;
+
+	/** entries[i][0..counts[i]-1] are the index entries of tile i, or
+	 * entries[i] is null if no aroma has reached tile i. */
+	private final long[][] entries;
+	/** @see danaus.AromaStore#entries */
+	private final int[] counts;
+	/** lookups[i] finds the aromas of tile i by flower id, or is null if it
+	 * has not been made since the index of tile i last changed. */
+	private final AromaIndex[] lookups;
+	/** The cache the index is filled from, or null if this store is eager. */
+	private final AromaCache cache;
+	/** indexed[i] is the number of fields the index of tile i is up to date
+	 * with, or null if this store is eager. */
+	private final int[] indexed;
+
+	/** The wind transfers at each tile, in the order wind is spread, or null
+	 * if wind has not been spread. A null entry signifies a tile at which wind
+	 * never changes aroma. */
+	private int[][] windDeltas;
+	/** The number of times the aromas in this store have changed. Filling in
+	 * the index of a lazy store does not change them. */
+	private long version;
+
+	/** Constructor: an empty eager store for a map with height rows and
+	 * width columns. */
+	AromaStore(int height, int width) {
+		this(height, width, null);
+	}
+
+	/** Constructor: an empty store for a map with height rows and width
+	 * columns. If cache is not null, the store is lazy and fills its index
+	 * from cache. */
+	AromaStore(int height, int width, AromaCache cache) {
+		this.height= height;
+		this.width= width;
+		this.cache= cache;
+		fields= new ArrayList<AromaField>();
+		flowerFields= new HashMap<Long, List<Integer>>();
+		entries= new long[height * width][];
+		counts= new int[height * width];
+		lookups= new AromaIndex[height * width];
+		indexed= (cache == null) ? null : new int[height * width];
+	}
+
+	/** Return true iff this store is lazy. Fields added to a lazy store need
+	 * not reach any tile, since the tiles they reach are looked up when
+	 * they are read. */
+	boolean isLazy() {
+		return cache != null;
+	}
+
+	/** Return the index of location loc into the tiles of this store. */
+	int index(Location loc) {
+		return loc.row * width + loc.col;
+	}
+
+	/** Add the fields of added to this store, in order, and, if it is eager,
+	 * to the index of every tile they reach, releasing the tiles the fields
+	 * hold. Their aromas are listed after all the aromas already in this
+	 * store. */
+	synchronized void add(AromaField... added) {
+		int first= fields.size();
+		for (AromaField f : added) {
+			List<Integer> numbers= flowerFields.get(f.flower.getFlowerId());
+			if (numbers == null) {
+				numbers= new ArrayList<Integer>(1);
+				flowerFields.put(f.flower.getFlowerId(), numbers);
+			}
+			numbers.add(fields.size());
+			fields.add(f);
+		}
+		version++;
+		if (isLazy()) {
+			for (int k= 0; k < added.length; k++) {
+				cache.add(added[k], first + k);
+			}
+			return;
+		}
+
+		// Grow the index of each tile reached once, to fit its new entries
+		int gained[]= new int[counts.length];
+		for (AromaField f : added) {
+			for (int i= 0; i < f.size(); i++) {
+				gained[f.tile(i)]++;
+			}
+		}
+		for (int tile= 0; tile < gained.length; tile++) {
+			if (gained[tile] > 0) {
+				entries[tile]= (entries[tile] == null) ? new long[gained[tile]] :
+						Arrays.copyOf(entries[tile], counts[tile] + gained[tile]);
+				lookups[tile]= null;
+			}
+		}
+
+		for (int k= 0; k < added.length; k++) {
+			AromaField f= added[k];
+			long field= first + k;
+			for (int s= 0; s < f.depth(); s++) {
+				int end= f.levelStart(s + 1);
+				for (int i= f.levelStart(s); i < end; i++) {
+					int tile= f.tile(i);
+					entries[tile][counts[tile]++]= (field << 32) | s;
+				}
+			}
+			f.release();
+		}
+	}
+
+
+	/** Remove every field of flower from this store and from the index of
+	 * every tile it reaches. The fields of the other flowers keep their
+	 * places. Return true iff flower had at least one field. */
+	synchronized boolean remove(Flower flower) {
+		List<Integer> numbers= flowerFields.remove(flower.getFlowerId());
+		if (numbers == null) {
+			return false;
+		}
+
+		version++;
+		for (int field : numbers) {
+			AromaField f= fields.set(field, null);
+			if (isLazy()) {
+				/* The field is only in the index of the tiles it reaches that
+				 * were read since it was added. */
+				cache.remove(f, field);
+				for (int tile : square(f.source, cache.maxSteps(f))) {
+					if (indexed[tile] > field) {
+						removeEntry(tile, field);
+					}
+				}
+			}
+			else {
+				for (int tile : square(f.source, f.depth() - 1)) {
+					removeEntry(tile, field);
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Remove the entry of field number field, if any, from the index of tile
+	 * index tile. */
+	private void removeEntry(int tile, int field) {
+		int i= findEntry(tile, field);
+		if (i < 0) {
+			return;
+		}
+
+		long tileEntries[]= entries[tile];
+		System.arraycopy(tileEntries, i + 1, tileEntries, i,
+				counts[tile] - i - 1);
+		counts[tile]--;
+		lookups[tile]= null;
+	}
+
+	/** Return the position of the entry of field number field in the index
+	 * of tile index tile, or -1 if it has none. */
+	private int findEntry(int tile, int field) {
+		long tileEntries[]= entries[tile];
+		// The entries of tile are sorted by field, so binary search for it.
+		int lo= 0;
+		int hi= counts[tile];
+		while (lo < hi) {
+			int mid= (lo + hi) >>> 1;
+			if ((int) (tileEntries[mid] >>> 32) < field) {
+				lo= mid + 1;
+			}
+			else {
+				hi= mid;
+			}
+		}
+		if (lo == counts[tile] || (int) (tileEntries[lo] >>> 32) != field) {
+			return -1;
+		}
+		return lo;
+	}
+
+	/** Return the tile indices at most radius rows and radius columns from
+	 * tile index source, around the edges of the map, each once. No aroma
+	 * reaches farther in radius steps. */
+	private int[] square(int source, int radius) {
+		int rows= (radius >= height / 2) ? height : 2 * radius + 1;
+		int cols= (radius >= width / 2) ? width : 2 * radius + 1;
+		int top= (rows == height) ? 0 : source / width - radius + height;
+		int left= (cols == width) ? 0 : source % width - radius + width;
+		int tiles[]= new int[rows * cols];
+		for (int r= 0; r < rows; r++) {
+			for (int c= 0; c < cols; c++) {
+				tiles[r * cols + c]= ((top + r) % height) * width +
+						(left + c) % width;
+			}
+		}
+		return tiles;
+	}
+
+	/** Return a new list of the fields in this store, in the order they
+	 * were added, leaving out the fields of removed flowers. The fields of an
+	 * eager store are rebuilt from the index, with the tiles they reach. */
+	synchronized List<AromaField> fields() {
+		List<AromaField> list= new ArrayList<AromaField>(fields.size());
+		for (int field= 0; field < fields.size(); field++) {
+			if (fields.get(field) != null) {
+				list.add(isLazy() ? fields.get(field) : rebuild(field));
+			}
+		}
+		return list;
+	}
+
+	/** Return a copy of field number field, which is indexed, with the tiles
+	 * it reaches in order of their steps, and in tile order within a step. */
+	private AromaField rebuild(int field) {
+		AromaField f= fields.get(field);
+		long reached[]= new long[f.size()];
+		int n= 0;
+		for (int tile : square(f.source, f.depth() - 1)) {
+			int i= findEntry(tile, field);
+			if (i >= 0) {
+				reached[n++]= ((long) (int) entries[tile][i] << 32) | tile;
+			}
+		}
+		Arrays.sort(reached, 0, n);
+
+		AromaField copy= new AromaField(f.flower, f.source);
+		copy.windPasses= f.windPasses;
+		for (int i= 0; i < n; i++) {
+			copy.reach((int) reached[i], (int) (reached[i] >>> 32));
+		}
+		copy.trim();
+		return copy;
+	}
+
+	/** Return true iff windDeltas have been set. */
+	boolean hasWindDeltas() {
+		return windDeltas != null;
+	}
+
+	/** Set the wind transfers at each tile to deltas. deltas[i] lists, in the
+	 * order they happen, the amounts that wind adds to the aromas at tile i. */
+	synchronized void setWindDeltas(int[][] deltas) {
+		windDeltas= deltas;
+		version++;
+	}
+
+	/** Return the number of times the aromas in this store have changed, so
+	 * that a reader can tell whether they have changed since it last read
+	 * them. */
+	synchronized long version() {
+		return version;
+	}
+
+	/** Spread wind once over the aromas of every flower in flowers. Only the
+	 * fields of those flowers are touched, and a flower listed more than
+	 * once is still spread over once. */
+	synchronized void spreadWind(Collection<Flower> flowers) {
+		HashSet<Long> ids= new HashSet<Long>();
+		for (Flower flower : flowers) {
+			ids.add(flower.getFlowerId());
+		}
+		version++;
+		for (long id : ids) {
+			List<Integer> numbers= flowerFields.get(id);
+			if (numbers == null) {
+				continue;
+			}
+			for (int field : numbers) {
+				fields.get(field).windPasses++;
+			}
+		}
+	}
+
+	/** Return the intensity of field f at tile index tile, which is steps
+	 * steps from f's flower. */
+	private double intensity(AromaField f, int tile, int steps) {
+		double intensity= Math.max(0,
+				Aroma.calculateIntensity(f.flower.aromaIntensity, steps));
+		int[] deltas= (windDeltas == null) ? null : windDeltas[tile];
+		for (int pass= 0; pass < f.windPasses; pass++) {
+			if (deltas != null) {
+				for (int delta : deltas) {
+					intensity += delta;
+				}
+			}
+			intensity= Math.max(0, intensity);
+		}
+		return intensity;
+	}
+
+	/** If this store is lazy, bring the index of tile index tile up to date
+	 * with every field in this store. */
+	private void updateIndex(int tile) {
+		if (!isLazy()) {
+			return;
+		}
+		if (indexed[tile] == fields.size()) {
+			return;
+		}
+		long gained[]= cache.entries(tile, indexed[tile], fields);
+		indexed[tile]= fields.size();
+		if (gained.length == 0) {
+			return;
+		}
+		if (entries[tile] == null) {
+			entries[tile]= gained;
+		}
+		else {
+			entries[tile]= Arrays.copyOf(entries[tile], counts[tile] + gained.length);
+			System.arraycopy(gained, 0, entries[tile], counts[tile], gained.length);
+		}
+		counts[tile] += gained.length;
+		lookups[tile]= null;
+	}
+
+	/** Return the i-th aroma at tile index tile. */
+	private Aroma aroma(int tile, int i) {
+		long entry= entries[tile][i];
+		AromaField f= fields.get((int) (entry >>> 32));
+		return new Aroma(intensity(f, tile, (int) entry), f.flower);
+	}
+
+	/** Return a new list of the aromas at location loc. */
+	synchronized List<Aroma> aromasAt(Location loc) {
+		int tile= index(loc);
+		updateIndex(tile);
+		List<Aroma> aromas= new ArrayList<Aroma>(counts[tile]);
+		for (int i= 0; i < counts[tile]; i++) {
+			aromas.add(aroma(tile, i));
+		}
+		return aromas;
+	}
+
+	/** Return an index that finds the aromas at location loc, in the order
+	 * of aromasAt(loc), by flower id. */
+	synchronized AromaIndex lookupAt(Location loc) {
+		int tile= index(loc);
+		updateIndex(tile);
+		if (lookups[tile] == null) {
+			long ids[]= new long[counts[tile]];
+			for (int i= 0; i < ids.length; i++) {
+				int field= (int) (entries[tile][i] >>> 32);
+				ids[i]= fields.get(field).flower.getFlowerId();
+			}
+			lookups[tile]= AromaIndex.of(ids, ids.length);
+		}
+		return lookups[tile];
+	}
+
+	/** Return the last aroma at location loc of the flower with id flowerId,
+	 * or null if that flower's aroma does not reach loc. */
+	synchronized Aroma aromaAt(Location loc, long flowerId) {
+		int i= lookupAt(loc).find(flowerId);
+		return (i < 0) ? null : aroma(index(loc), i);
+	}
+
+	/** Return the number of aromas at location loc. */
+	synchronized int countAt(Location loc) {
+		int tile= index(loc);
+		updateIndex(tile);
+		return counts[tile];
+	}
+
+	/** Return the intensity of the i-th aroma at location loc, in the order
+	 * of aromasAt(loc). Precondition: 0 <= i < countAt(loc). */
+	synchronized double intensityAt(Location loc, int i) {
+		int tile= index(loc);
+		updateIndex(tile);
+		long entry= entries[tile][i];
+		return intensity(fields.get((int) (entry >>> 32)), tile, (int) entry);
+	}
+
+	/** Return true iff at least one aroma reaches location loc. */
+	synchronized boolean hasAromasAt(Location loc) {
+		int tile= index(loc);
+		updateIndex(tile);
+		return counts[tile] != 0;
+	}
+}
@@ -0,0 +1,208 @@
+package danaus;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
+
+/** An instance is a batch of headless simulations, run concurrently in one
+ * JVM by a pool of worker threads. Each simulation is a job with its own
+ * simulation context, so it has its own seed, map file, and butterfly
+ * class, and its own simulator, park, and map; jobs share nothing but the
+ * settings of Common, which do not change while the batch runs.
+ * <br>
+ * The result of each job is printed as soon as the job finishes, as one
+ * tab-separated line:
+ * <pre>
+ *   job  map  class  seed  result  turns  tiles  score  found  learning  running
+ * </pre>
+ * where result is WIN, LOSE, LEARNED, or ERROR, the map is "random" for a
+ * random map, and the seed is the one the map was made with, even if it was
+ * random. LEARNED is the result of every job in A3 mode, which learns the
+ * map but never runs it, so it neither wins nor loses. A job that throws
+ * prints ERROR and the exception in place of its statistics, and does not
+ * stop the others.
+ * @see danaus.SimulationContext
+ */
+class Batch {
+	/** The results of a job. */
+	private enum Result {
+		WIN, LOSE, LEARNED, ERROR
+	}
+
+	/** The jobs of the batch, in order. */
+	private final List<SimulationContext> jobs;
+	/** The number of worker threads that run the jobs. */
+	private final int workers;
+
+	/** Constructor: a batch running jobs with workers worker threads.
+	 * Precondition: workers >= 1. */
+	Batch(List<SimulationContext> jobs, int workers) {
+		Debugger.NULL_CHECK(jobs, "null jobs in Batch");
+		this.jobs= jobs;
+		this.workers= workers;
+	}
+
+	/** Return the batch given on the command line: a job for every butterfly
+	 * class, every map file, and every seed of Common, in that order. A batch
+	 * with no map files simulates random maps, and a batch with no seeds uses
+	 * Common.SEED, which may be null for a random seed. If Common.TRACE_FILENAME
+	 * is given, each job records its flights to a trace file of its own.
+	 * @see danaus.FlightRecorder#jobFilename(String, int) */
+	static Batch fromCommandLine() {
+		List<String> maps= new ArrayList<String>(Common.MAP_FILENAMES);
+		if (maps.isEmpty()) {
+			maps.add(null);
+		}
+		List<Integer> seeds= new ArrayList<Integer>(Common.BATCH_SEEDS);
+		if (seeds.isEmpty()) {
+			seeds.add(Common.SEED);
+		}
+
+		List<SimulationContext> jobs= new ArrayList<SimulationContext>();
+		for (String className : Common.CLASS_NAMES) {
+			for (String map : maps) {
+				for (Integer seed : seeds) {
+					String trace= (Common.TRACE_FILENAME == null) ? null :
+						FlightRecorder.jobFilename(Common.TRACE_FILENAME, jobs.size());
+					jobs.add(new SimulationContext(seed, map, className, trace));
+				}
+			}
+		}
+		return new Batch(jobs, Math.max(1, Common.BATCH_WORKERS));
+	}
+
+	/** Run every job of the batch, printing the result of each to out as it
+	 * finishes, and then a summary of the number of jobs with each result.
+	 * Return the number of jobs that threw.
+	 * Exit if a butterfly class cannot be loaded, before running any job. */
+	int run(PrintStream out) {
+		for (SimulationContext job : jobs) {
+			checkClass(job.className);
+		}
+
+		long start= System.nanoTime();
+		out.println("job\tmap\tclass\tseed\tresult\tturns\ttiles\tscore\t" +
+				"found\tlearning\trunning");
+		out.flush();
+
+		ExecutorService pool= Executors.newFixedThreadPool(workers);
+		// counts[r.ordinal()] is the number of jobs with result r
+		int counts[]= new int[Result.values().length];
+		try {
+			CompletionService<Outcome> completion=
+					new ExecutorCompletionService<Outcome>(pool);
+			java.util.Map<Future<Outcome>, Integer> indices=
+					new HashMap<Future<Outcome>, Integer>();
+			for (int i= 0; i < jobs.size(); i++) {
+				final SimulationContext job= jobs.get(i);
+				Future<Outcome> future= completion.submit(new Callable<Outcome>() {
+					public @Override Outcome call()
+							throws XMLStreamException, IOException {
+						return simulate(job);
+					}
+				});
+				indices.put(future, i);
+			}
+
+			for (int n= 0; n < jobs.size(); n++) {
+				Future<Outcome> future= completion.take();
+				int i= indices.get(future);
+				Outcome outcome;
+				try {
+					outcome= future.get();
+				}
+				catch (ExecutionException e) {
+					Integer seed= jobs.get(i).seed;
+					outcome= new Outcome((seed == null) ? "-" : String.valueOf(seed),
+							Result.ERROR, String.valueOf(e.getCause()));
+				}
+				counts[outcome.result.ordinal()]++;
+				out.println(i + "\t" + describe(jobs.get(i)) + "\t" + outcome);
+				out.flush();
+			}
+		}
+		catch (InterruptedException e) {
+			Debugger.ERROR("batch interrupted");
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		out.println(String.format("%d runs: %d won, %d lost, %d learned, " +
+				"%d errors in %.3f s with %d workers", jobs.size(),
+				counts[Result.WIN.ordinal()], counts[Result.LOSE.ordinal()],
+				counts[Result.LEARNED.ordinal()], counts[Result.ERROR.ordinal()],
+				(System.nanoTime() - start) / 1000000000.0, workers));
+		out.flush();
+		return counts[Result.ERROR.ordinal()];
+	}
+
+	/** Simulate job, and return its outcome. */
+	private static Outcome simulate(SimulationContext job)
+			throws XMLStreamException, IOException {
+		Simulator simulator= new Simulator(job);
+		simulator.simulate();
+		Park park= simulator.park;
+		Result result= Common.A3 ? Result.LEARNED :
+				park.isVictorious() ? Result.WIN : Result.LOSE;
+		return new Outcome(String.valueOf(park.map.seed), result,
+				String.format("%d\t%d\t%.1f\t%d/%d\t%.6f\t%.6f",
+				park.state.step, park.state.numTiles, park.learningScore,
+				park.state.scorecard.collections(),
+				park.state.scorecard.required(),
+				park.learningTime / 1000000000.0,
+				park.runningTime / 1000000000.0));
+	}
+
+	/** Return the map and butterfly class of job, tab-separated. */
+	private static String describe(SimulationContext job) {
+		return ((job.mapFilename == null) ? "random" : job.mapFilename) +
+				"\t" + job.className;
+	}
+
+	/** An instance is the outcome of one job: the seed of its map, its
+	 * result, and its statistics, or the exception it threw, tab-separated. */
+	private static class Outcome {
+		final String seed;
+		final Result result;
+		final String statistics;
+
+		/** Constructor: the outcome of a job on seed seed with result
+		 * result and statistics statistics. */
+		Outcome(String seed, Result result, String statistics) {
+			this.seed= seed;
+			this.result= result;
+			this.statistics= statistics;
+		}
+
+		/** Return the seed, result, and statistics of this outcome,
+		 * tab-separated. */
+		public @Override String toString() {
+			return seed + "\t" + result + "\t" + statistics;
+		}
+	}
+
+	/** Exit, with an error, if class className cannot be loaded. Otherwise
+	 * every job of it would exit when it made its butterfly. */
+	private static void checkClass(String className) {
+		try {
+			Class.forName(className);
+		}
+		catch (ClassNotFoundException e) {
+			Debugger.ERROR(className + " could not be found!");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package danaus;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/** An instance is an open binary map file, a compact alternative to an XML
+ * map file that describes a map tile by tile. A binary map file is read by
+ * mapping it into memory, in parts of at most MAX_MAPPED bytes, so the tiles
+ * of a map are read where they lie in the file rather than copied and
+ * parsed, and a map of any size can be read.
+ * <br>
+ * A binary map file holds, in order, big-endian:
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    height, width
+ *   int    flags: HAS_BUTTERFLY, HAS_AROMAS
+ *   int    the butterfly's starting row and column, or -1 and -1
+ *   double the aroma threshold the aroma fields were spread with, or 0
+ *   int    the length of the settings
+ *   byte[] the settings, padded to a multiple of 4 bytes
+ *   byte[] the type of each tile, padded to a multiple of 4 bytes
+ *   int[]  the light of each tile
+ *   int[]  the wind of each tile, packed as in a TileStore
+ *   long   the length of the flowers
+ *   byte[] the flowers
+ *   byte[] the aroma fields, to the end of the file, if HAS_AROMAS
+ * </pre>
+ * Tiles are listed by tile index, row * width + col. The settings, flowers,
+ * and aroma fields are written and read by the map.
+ * @see danaus.Map#writeBinary(String, boolean)
+ * @see danaus.TileStore
+ */
+class BinaryMap implements Closeable {
+	/** The first four bytes of every binary map file: "DMAP". */
+	static final int MAGIC= 0x444D4150;
+	/** The version of the format. */
+	static final int VERSION= 1;
+	/** The extension of binary map files. */
+	static final String EXTENSION= ".dmap";
+	/** The most bytes of a file that are mapped at once. */
+	static final int MAX_MAPPED= 1 << 28;
+
+	/** The flag set iff the file gives the butterfly's starting position. */
+	static final int HAS_BUTTERFLY= 1;
+	/** The flag set iff the file holds the aroma fields of its flowers. */
+	static final int HAS_AROMAS= 2;
+
+	/** The number of bytes before the settings. */
+	private static final int HEADER_BYTES= 40;
+
+	/** The height of the map (in rows). */
+	final int height;
+	/** The width of the map (in columns). */
+	final int width;
+	/** The flags of the file. */
+	final int flags;
+	/** The butterfly's starting row and column, if HAS_BUTTERFLY is set. */
+	final int butterflyRow;
+	final int butterflyCol;
+	/** The aroma threshold the aroma fields were spread with, if HAS_AROMAS
+	 * is set. */
+	final double aromaThreshold;
+
+	/** The open file. */
+	private final FileChannel channel;
+	/** The offsets of the parts of the file, and the length of the
+	 * settings. */
+	private final int settingsLength;
+	private final long typesOffset;
+	private final long lightsOffset;
+	private final long windsOffset;
+	private final long flowersOffset;
+	private final long flowersLength;
+
+	/** Constructor: the binary map file open in channel. Throw an
+	 * IOException if it is not a binary map file of this version. */
+	private BinaryMap(FileChannel channel) throws IOException {
+		this.channel= channel;
+		ByteBuffer header= map(0, HEADER_BYTES);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("not a binary map file of version " + VERSION);
+		}
+		height= header.getInt();
+		width= header.getInt();
+		flags= header.getInt();
+		butterflyRow= header.getInt();
+		butterflyCol= header.getInt();
+		aromaThreshold= header.getDouble();
+		settingsLength= header.getInt();
+		if (height < 0 || width < 0 ||
+				(long) height * width > Common.MAX_TILES || settingsLength < 0) {
+			throw new IOException("bad binary map file header");
+		}
+
+		long tiles= (long) height * width;
+		typesOffset= pad(HEADER_BYTES + settingsLength);
+		lightsOffset= typesOffset + pad(tiles);
+		windsOffset= lightsOffset + 4 * tiles;
+		long flowersLengthOffset= windsOffset + 4 * tiles;
+		if (flowersLengthOffset + 8 > channel.size()) {
+			throw new IOException("truncated binary map file");
+		}
+		flowersLength= map(flowersLengthOffset, 8).getLong();
+		flowersOffset= flowersLengthOffset + 8;
+		if (flowersLength < 0 || flowersOffset + flowersLength > channel.size()) {
+			throw new IOException("truncated binary map file");
+		}
+	}
+
+	/** Return true iff file filename is a binary map file: iff it begins
+	 * with MAGIC. */
+	static boolean isBinary(String filename) throws IOException {
+		FileChannel channel= FileChannel.open(new File(filename).toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer magic= ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) >= 0) {
+				// Read until the magic is full or the file ends
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/** Open binary map file filename. Throw an IOException if it is not a
+	 * binary map file of this version. */
+	static BinaryMap open(String filename) throws IOException {
+		FileChannel channel= FileChannel.open(new File(filename).toPath(),
+				StandardOpenOption.READ);
+		try {
+			return new BinaryMap(channel);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Return true iff flag is set. */
+	boolean has(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/** Return the most rows whose tiles are mapped at once. */
+	int bandRows() {
+		return Math.max(1, MAX_MAPPED / Math.max(1, 4 * width));
+	}
+
+	/** Return the types of the tiles of rows row..row+rows-1, as the
+	 * ordinals of their TileTypes. Precondition: rows <= bandRows(). */
+	ByteBuffer types(int row, int rows) throws IOException {
+		return map(typesOffset + (long) row * width, rows * width);
+	}
+
+	/** Return the lights of the tiles of rows row..row+rows-1.
+	 * Precondition: rows <= bandRows(). */
+	IntBuffer lights(int row, int rows) throws IOException {
+		return map(lightsOffset + 4L * row * width, 4 * rows * width).asIntBuffer();
+	}
+
+	/** Return the winds of the tiles of rows row..row+rows-1, packed by
+	 * TileStore.pack(Wind). Precondition: rows <= bandRows(). */
+	IntBuffer winds(int row, int rows) throws IOException {
+		return map(windsOffset + 4L * row * width, 4 * rows * width).asIntBuffer();
+	}
+
+	/** Return a stream of the settings. */
+	DataInputStream settings() {
+		return new DataInputStream(
+				new MappedInputStream(HEADER_BYTES, settingsLength));
+	}
+
+	/** Return a stream of the flowers. */
+	DataInputStream flowers() {
+		return new DataInputStream(
+				new MappedInputStream(flowersOffset, flowersLength));
+	}
+
+	/** Return a stream of the aroma fields, or null if there are none. */
+	DataInputStream aromas() throws IOException {
+		if (!has(HAS_AROMAS)) {
+			return null;
+		}
+		long offset= flowersOffset + flowersLength;
+		return new DataInputStream(
+				new MappedInputStream(offset, channel.size() - offset));
+	}
+
+	/** Close the file. */
+	public @Override void close() throws IOException {
+		channel.close();
+	}
+
+	/** Create binary map file filename, and write to it all but the aroma
+	 * fields of a map with height rows and width columns, the given flags,
+	 * butterfly starting position, and aroma threshold, settings, tiles, and
+	 * flowers. Return a stream to which to write the aroma fields, if any,
+	 * and which must be closed. */
+	static DataOutputStream create(String filename, int height, int width,
+			int flags, int butterflyRow, int butterflyCol,
+			double aromaThreshold, byte[] settings, TileStore tiles,
+			byte[] flowers) throws IOException {
+		DataOutputStream out= new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(new File(filename).toPath()), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(height);
+			out.writeInt(width);
+			out.writeInt(flags);
+			out.writeInt(butterflyRow);
+			out.writeInt(butterflyCol);
+			out.writeDouble(aromaThreshold);
+			out.writeInt(settings.length);
+			out.write(settings);
+			padTo(out, HEADER_BYTES + settings.length);
+
+			int numTiles= height * width;
+			for (int i= 0; i < numTiles; i++) {
+				out.writeByte(tiles.hasTile(i) ? tiles.type(i).ordinal() : -1);
+			}
+			padTo(out, numTiles);
+			for (int i= 0; i < numTiles; i++) {
+				out.writeInt(tiles.light(i));
+			}
+			for (int i= 0; i < numTiles; i++) {
+				out.writeInt(tiles.packedWind(i));
+			}
+
+			out.writeLong(flowers.length);
+			out.write(flowers);
+			return out;
+		}
+		catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/** Return n rounded up to a multiple of 4. */
+	private static long pad(long n) {
+		return (n + 3) & ~3L;
+	}
+
+	/** Write the zeros that pad n bytes to a multiple of 4 to out. */
+	private static void padTo(DataOutputStream out, long n) throws IOException {
+		for (long i= n; i < pad(n); i++) {
+			out.writeByte(0);
+		}
+	}
+
+	/** Return bytes offset..offset+length-1 of the file, mapped read-only.
+	 * Precondition: length <= MAX_MAPPED. */
+	private ByteBuffer map(long offset, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/** An instance is a stream of a part of the file, which maps at most
+	 * MAX_MAPPED bytes of it at a time. */
+	private class MappedInputStream extends InputStream {
+		/** The offset of the next byte to map. */
+		private long offset;
+		/** The number of bytes after offset left to map. */
+		private long remaining;
+		/** The mapped bytes not yet read, or null if none have been mapped. */
+		private ByteBuffer window;
+
+		/** Constructor: a stream of bytes offset..offset+length-1. */
+		MappedInputStream(long offset, long length) {
+			this.offset= offset;
+			this.remaining= length;
+		}
+
+		/** Return the next byte, or -1 at the end of the stream. */
+		public @Override int read() throws IOException {
+			return hasNext() ? (window.get() & 0xFF) : -1;
+		}
+
+		/** Read up to len bytes into b[off..], and return the number read, or
+		 * -1 at the end of the stream. */
+		public @Override int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!hasNext()) {
+				return -1;
+			}
+			int n= Math.min(len, window.remaining());
+			window.get(b, off, n);
+			return n;
+		}
+
+		/** Return true iff a byte is left, mapping the next part of the
+		 * file if the current one has been read. */
+		private boolean hasNext() throws IOException {
+			if (window != null && window.hasRemaining()) {
+				return true;
+			}
+			if (remaining == 0) {
+				return false;
+			}
+			int length= (int) Math.min(remaining, MAX_MAPPED);
+			window= map(offset, length);
+			offset += length;
+			remaining -= length;
+			return true;
+		}
+	}
+}
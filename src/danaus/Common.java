@@ -44,9 +44,16 @@ public class Common {
 	
     /** Tunable constants to help construct the minimum aroma intensity. */
 	static int MAXIMUM_STEPS= Integer.MAX_VALUE;
-	/** The smallest an aroma can be to appear in a tile's list of aromas. */
+	/** The smallest an aroma can be to appear in a tile's list of aromas,
+	 * unless a map sets its own aroma threshold. This default is so small
+	 * that aromas are spread across the whole map. */
 	public static final double MIN_AROMA_INTENSITY= 
 	        Common.AROMA_INTENSITY / (Math.pow(MAXIMUM_STEPS, 2));
+	/** The most memory (in bytes) a map keeps in distance fields when its
+	 * aromas are evaluated lazily. A tile reached by more flowers than fit
+	 * is searched from instead.
+	 * @see danaus.AromaCache */
+	static final long AROMA_CACHE_BYTES= 64L << 20;
 
 	/** The power it costs for a butterfly to get state. */
 	static final int REFRESH_STATE_POWER_COST= 5;
@@ -92,12 +99,68 @@ public class Common {
 	
     /** Use a GUI iff HEADLESS is true. */
 	public static boolean HEADLESS;
+	/** True iff the simulation waits for the GUI to animate each move,
+	 * parsed from the command line. Otherwise the GUI shows the simulation
+	 * as it can keep up with it.
+	 * @see danaus.GUIListener */
+	public static boolean LOCKSTEP;
 	/** The seed parsed from the command line. */
 	public static Integer SEED;
 	/** The name of the map file parsed from the command line */
 	public static String MAP_FILENAME;
+	/** Every map file parsed from the command line, in order. A batch
+	 * simulates each of them; otherwise only the last is used.
+	 * @see danaus.Batch */
+	public static List<String> MAP_FILENAMES= new ArrayList<String>();
+	/** True iff a batch of simulations is run, parsed from the command line. */
+	public static boolean BATCH;
+	/** The seeds of a batch parsed from the command line, in order. */
+	public static List<Integer> BATCH_SEEDS= new ArrayList<Integer>();
+	/** The number of worker threads of a batch parsed from the command
+	 * line. */
+	public static int BATCH_WORKERS= Runtime.getRuntime().availableProcessors();
 	/** If true, a butterfly has infinite energy. */
 	public static boolean INFINITE_ENERGY;
+	/** If true, the aromas of a map's flowers are spread in parallel. */
+	public static boolean PARALLEL_AROMAS;
+	/** If true, random maps are generated in chunks, in parallel. */
+	public static boolean CHUNKED_MAPS;
+	/** If true, the aromas at a tile are only found when the tile is first
+	 * read, rather than when flowers are spread. */
+	public static boolean LAZY_AROMAS;
+	/** The aroma threshold parsed from the command line, or null if none
+	 * was given. It overrides the threshold of a map file. */
+	public static Double AROMA_THRESHOLD;
+	/** The height and width of a random map parsed from the command line, or
+	 * null if none was given. They override the size of a map file. */
+	public static Integer MAP_HEIGHT;
+	public static Integer MAP_WIDTH;
+	/** The fractions of land, forest, and cliff tiles, and the density of
+	 * flowers, of a random map parsed from the command line, or null if none
+	 * was given. They override the terrain of a map file. */
+	public static Double MAP_LAND_FRACTION;
+	public static Double MAP_FOREST_FRACTION;
+	public static Double MAP_CLIFF_FRACTION;
+	public static Double MAP_FLOWER_DENSITY;
+	/** The directory of the map cache parsed from the command line, or null
+	 * if maps are not cached.
+	 * @see danaus.MapCache */
+	public static String MAP_CACHE_DIR;
+	/** The binary map file parsed from the command line to convert the map
+	 * to, or null if the map is simulated rather than converted.
+	 * @see danaus.BinaryMap */
+	public static String CONVERT_FILENAME;
+	/** True iff a converted map keeps its aroma fields, parsed from the
+	 * command line. */
+	public static boolean CONVERT_AROMAS= false;
+	/** The trace file parsed from the command line to record the butterfly's
+	 * flights to, or null if they are not recorded.
+	 * @see danaus.FlightRecorder */
+	public static String TRACE_FILENAME;
+	/** The trace file parsed from the command line to replay, or null if a
+	 * butterfly is simulated rather than replayed.
+	 * @see danaus.FlightReplay */
+	public static String REPLAY_FILENAME;
 	/** The names of the classes parsed from the command line. */
 	public static List<String> CLASS_NAMES= new ArrayList<String>();
 	
@@ -139,6 +202,11 @@ public class Common {
 	static final int MIN_WIDTH= 20;
 	/** The upper bound on a randomly generated map width. */
 	static final int MAX_WIDTH= 40;
+	/** The ideal height and width of a chunk of a map generated in chunks.
+	 * @see danaus.Map#initRandomTiles() */
+	static final int CHUNK_SIZE= 64;
+	/** The largest number of tiles a map may have. */
+	static final int MAX_TILES= 1 << 26;
 	/** The desired fraction of map tiles that are not water (i.e. Land, Forest,
 	 * or Cliff.). The actual fraction of non-water tiles is not guaranteed to
 	 * equal LAND_FRACTION, but is guaranteed to be a close approximation. */
@@ -165,17 +233,12 @@ public class Common {
 	 * is not guaranteed to match CLIFF_FRACTION. Usually, CLIFF_FRACTION is
 	 * larger than the true fraction of cliffs. */ 
 	static final double CLIFF_FRACTION= 0.1;
-	/** The average length of a cliff range. */
-	static int AVERAGE_CLIFF_LENGTH;
-	/** The fraction of AVERAGE_CLIFF_LENGTH that the length of a cliff range
-	 * varies. For example, a DELTA_CLIFF_LENGTH of 0 signifies that all cliff
-	 * ranges should ideally be the same length. In practice, mountain ranges
-	 * may be shorter than DELTA_CLIFF_LENGTH. */
-	static double DELTA_CLIFF_LENGTH;
-	/** The maximum length of a cliff range. This maximum is guaranteed. */
-	static int MIN_CLIFF_LENGTH;
-	/** The ideal minimum length a cliff range. */
-	static int MAX_CLIFF_LENGTH;
+	/** The fraction of the average length of a cliff range that the length of
+	 * a cliff range varies. For example, a DELTA_CLIFF_LENGTH of 0 signifies
+	 * that all cliff ranges should ideally be the same length. In practice,
+	 * mountain ranges may be shorter than DELTA_CLIFF_LENGTH.
+	 * @see danaus.Map#growCliff(Position, Direction, boolean) */
+	static final double DELTA_CLIFF_LENGTH= 0.25;
 	/** Out of (1000-CLIFF_SEED_PROBABILITY), the probability that a land tile
 	 * will be seeded as a forest. For example, a forest probability of
 	 * 10 + CLIFF_PROBABILITY means that (10/1000) land tiles will be seeded as
@@ -189,18 +252,11 @@ public class Common {
 	/** Out of 1000, the probability that a forest's neighbor will become a 
 	 * tree during forest growth. @see danaus.Map#initRandomTiles(). */
 	static int FOREST_GROW_PROBABILITY= 625; // 5/8
-	/** The maximum number of forests. Once the width and height of a map are 
-	 * calculated, this will be equal to width * height * LAND_FRACTION *
-	 * FOREST_FRACTION. */
-	static int MAX_FORESTS;
 	/** The total number of flower images available. */
 	static final int NUMBER_FLOWERS= 100;
 	/** The list of all available flower image number suffixes. flower images
 	 * are saved in the format "flower_<x>.png" where <x> is a number.*/
 	static final Integer[] FLOWER_NUMBERS;
-	/** Out of 1000, the probability that a land tile will be seeded with a
-	 * flower. */
-	static int FLOWER_SEED_PROBABILITY;
 	
 	static {
 		/* Flower files range from flower_1 to flower_100 */
@@ -0,0 +1,253 @@
+package danaus;
+
+import java.util.Arrays;
+
+/** An instance tracks which tiles of a map can be flown to, and answers
+ * whether turning one of them into an obstacle would cut the others apart.
+ * A butterfly can fly from a tile to any of its eight neighbors, so tiles are
+ * connected through any of them.
+ * <br>
+ * Each tile keeps an 8-bit mask of its neighbors that are obstacles: bit d is
+ * set iff the neighbor in the direction with ordinal d is an obstacle. Most
+ * questions are answered from the mask with a precomputed table of all 256
+ * masks. A table cannot tell whether two neighbors of a tile are connected
+ * the long way round, so when it is unsure the map itself is searched.
+ * <br>
+ * On a map less than MIN_TABLE_SIZE tiles high or wide, the neighbors of a
+ * tile's neighbors wrap around onto one another, so the tables do not
+ * describe it and the map is always searched.
+ * @see danaus.Map#growCliffs(LinkedList)
+ */
+class Connectivity {
+	/** The smallest height and width of a map for which the tables hold. */
+	static final int MIN_TABLE_SIZE= 5;
+
+	/** LOCAL[mask] is true iff, when the neighbors of a tile in the
+	 * directions of mask are obstacles and the others are not, the others
+	 * are connected to one another without the tile. Blocking such a tile
+	 * can never disconnect a map. */
+	private static final boolean[] LOCAL= new boolean[Adjacency.ALL + 1];
+	/** NEAR[d] is the mask of the directions e such that the neighbor in
+	 * direction e of the neighbor in direction d of a tile is the tile
+	 * itself or one of its neighbors. */
+	private static final int[] NEAR= new int[Adjacency.DEGREE];
+
+	static {
+		Direction directions[]= Common.DIRECTIONS;
+		for (int mask= 0; mask <= Adjacency.ALL; mask++) {
+			// Union the neighbors that are not obstacles and touch
+			int parent[]= new int[Adjacency.DEGREE];
+			for (int d= 0; d < Adjacency.DEGREE; d++) {
+				parent[d]= d;
+			}
+			int components= 0;
+			for (int d= 0; d < Adjacency.DEGREE; d++) {
+				if ((mask & (1 << d)) != 0) {
+					continue;
+				}
+				components++;
+				for (int e= 0; e < d; e++) {
+					if ((mask & (1 << e)) == 0 &&
+							touch(directions[d], directions[e]) &&
+							find(parent, d) != find(parent, e)) {
+						parent[find(parent, d)]= find(parent, e);
+						components--;
+					}
+				}
+			}
+			LOCAL[mask]= components <= 1;
+		}
+
+		for (Direction d : directions) {
+			for (Direction e : directions) {
+				if (Math.abs(d.dRow + e.dRow) <= 1 &&
+						Math.abs(d.dCol + e.dCol) <= 1) {
+					NEAR[d.ordinal()] |= 1 << e.ordinal();
+				}
+			}
+		}
+	}
+
+	/** The neighbors of every tile of the map. */
+	private final Adjacency adjacency;
+	/** True at each tile index that can be flown to. */
+	private final boolean[] flyable;
+	/** The mask of the neighbors of each tile index that are obstacles. */
+	private final byte[] obstacles;
+	/** True iff the map is large enough for the tables to hold. */
+	private final boolean tabled;
+
+	/** The tiles of a search that are yet to be expanded. */
+	private final int[] queue;
+	/** marks[t] == mark iff tile index t has been reached by the current
+	 * search. */
+	private final int[] marks;
+	/** The mark of the current search. */
+	private int mark;
+
+	/** Constructor: an instance over a map with neighbors adjacency in which
+	 * the tiles at which flyable is true can be flown to. flyable is used,
+	 * and changed, in place. */
+	Connectivity(Adjacency adjacency, boolean[] flyable) {
+		this.adjacency= adjacency;
+		this.flyable= flyable;
+		tabled= adjacency.height >= MIN_TABLE_SIZE &&
+				adjacency.width >= MIN_TABLE_SIZE;
+		obstacles= new byte[flyable.length];
+		for (int t= 0; t < flyable.length; t++) {
+			obstacles[t]= (byte) computeObstacles(t);
+		}
+		queue= new int[flyable.length];
+		marks= new int[flyable.length];
+	}
+
+	/** Return the mask of the neighbors of tile index tile that are
+	 * obstacles. A neighbor that is the tile itself is not counted. */
+	int obstacles(int tile) {
+		return obstacles[tile] & Adjacency.ALL;
+	}
+
+	/** Make tile index tile an obstacle. */
+	void block(int tile) {
+		flyable[tile]= false;
+		for (int d= 0; d < Adjacency.DEGREE; d++) {
+			int neighbor= adjacency.neighbor(tile, d);
+			obstacles[neighbor]= (byte) computeObstacles(neighbor);
+		}
+	}
+
+	/** Return true iff every neighbor that is an obstacle of the neighbor of
+	 * tile index source in the direction with ordinal d, other than source,
+	 * is also a neighbor of source. A tile with this property hugs source,
+	 * so blocking it extends the obstacle at source rather than reaching
+	 * out to another obstacle. */
+	boolean hugs(int source, int d) {
+		int tile= adjacency.neighbor(source, d);
+		int mask= obstacles(tile);
+		if (tabled) {
+			return (mask & ~NEAR[d]) == 0;
+		}
+
+		for (int e= 0; e < Adjacency.DEGREE; e++) {
+			int obstacle= adjacency.neighbor(tile, e);
+			if ((mask & (1 << e)) != 0 && obstacle != source &&
+					!isNeighbor(source, obstacle)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Return true iff making tile index tile an obstacle is known not to
+	 * disconnect its neighbors from one another from its neighbors alone,
+	 * without searching the map. Only the mask of tile is read. */
+	boolean isLocal(int tile) {
+		return tabled && LOCAL[obstacles(tile)];
+	}
+
+	/** Return true iff making tile index tile an obstacle would disconnect
+	 * two of its neighbors that can be flown to from one another. */
+	boolean isCut(int tile) {
+		if (isLocal(tile)) {
+			return false;
+		}
+
+		// The distinct neighbors that can be flown to
+		int targets[]= new int[Adjacency.DEGREE];
+		int numTargets= 0;
+		for (int d= 0; d < Adjacency.DEGREE; d++) {
+			int neighbor= adjacency.neighbor(tile, d);
+			if (neighbor != tile && flyable[neighbor] &&
+					indexOf(targets, numTargets, neighbor) < 0) {
+				targets[numTargets++]= neighbor;
+			}
+		}
+		if (numTargets <= 1) {
+			return false;
+		}
+
+		/* Search from one neighbor, around tile, until the others are all
+		 * reached. Usually they are reached after a few steps. */
+		nextMark();
+		marks[tile]= mark;
+		marks[targets[0]]= mark;
+		int remaining= numTargets - 1;
+		int head= 0;
+		int tail= 0;
+		queue[tail++]= targets[0];
+		while (head < tail) {
+			int t= queue[head++];
+			for (int d= 0; d < Adjacency.DEGREE; d++) {
+				int neighbor= adjacency.neighbor(t, d);
+				if (!flyable[neighbor] || marks[neighbor] == mark) {
+					continue;
+				}
+				marks[neighbor]= mark;
+				queue[tail++]= neighbor;
+				if (indexOf(targets, numTargets, neighbor) >= 0 &&
+						--remaining == 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Return the mask of the neighbors of tile index tile that are
+	 * obstacles, from flyable. */
+	private int computeObstacles(int tile) {
+		int mask= 0;
+		for (int d= 0; d < Adjacency.DEGREE; d++) {
+			int neighbor= adjacency.neighbor(tile, d);
+			if (neighbor != tile && !flyable[neighbor]) {
+				mask |= 1 << d;
+			}
+		}
+		return mask;
+	}
+
+	/** Return true iff tile index t is a neighbor of tile index source other
+	 * than source itself. */
+	private boolean isNeighbor(int source, int t) {
+		for (int d= 0; d < Adjacency.DEGREE; d++) {
+			if (adjacency.neighbor(source, d) == t && t != source) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Start a new search, clearing the marks when they run out. */
+	private void nextMark() {
+		if (mark == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			mark= 0;
+		}
+		mark++;
+	}
+
+	/** Return the position of t in b[0..n-1], or -1 if it is not there. */
+	private static int indexOf(int[] b, int n, int t) {
+		for (int i= 0; i < n; i++) {
+			if (b[i] == t) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Return true iff a tile's neighbors in directions d and e are
+	 * neighbors of one another. */
+	private static boolean touch(Direction d, Direction e) {
+		return Math.max(Math.abs(d.dRow - e.dRow),
+				Math.abs(d.dCol - e.dCol)) == 1;
+	}
+
+	/** Return the root of d in the union-find forest parent. */
+	private static int find(int[] parent, int d) {
+		while (parent[d] != d) {
+			d= parent[d];
+		}
+		return d;
+	}
+}
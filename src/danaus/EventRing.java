@@ -0,0 +1,91 @@
+package danaus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** An instance is a lock-free ring buffer of butterfly moves, written by a
+ * single producer, the simulation thread, and read by a single consumer, the
+ * GUI's event dispatch thread. Neither ever waits for the other: a move
+ * offered while the ring is full is dropped, and the ring remembers that
+ * moves were dropped so that the consumer can catch up from the map itself.
+ * <br>
+ * Each slot holds a move as FIELDS ints: its slow down, the ordinal of its
+ * direction plus one (0 for none), and the row and column it moved to. The
+ * producer writes a slot before it publishes the slot by advancing tail, and
+ * the consumer reads a slot before it frees the slot by advancing head, so
+ * every slot is written and read by one thread at a time.
+ * @see danaus.GUIListener
+ */
+class EventRing {
+	/** The number of ints of a move. */
+	static final int FIELDS= 4;
+	/** The offsets of the fields of a move. */
+	static final int SLOW_DOWN= 0;
+	static final int DIRECTION= 1;
+	static final int TO_ROW= 2;
+	static final int TO_COL= 3;
+
+	/** The moves: slot i is slots[FIELDS*i..FIELDS*i+FIELDS-1]. */
+	private final int[] slots;
+	/** The number of slots, a power of two, less one. */
+	private final int mask;
+	/** The number of moves ever read. Written only by the consumer. */
+	private final AtomicLong head= new AtomicLong();
+	/** The number of moves ever written. Written only by the producer. */
+	private final AtomicLong tail= new AtomicLong();
+	/** True iff a move has been dropped since the consumer last asked. */
+	private final AtomicBoolean dropped= new AtomicBoolean();
+
+	/** Constructor: an empty ring with room for at least capacity moves.
+	 * Precondition: 1 <= capacity <= 2^26. */
+	EventRing(int capacity) {
+		int slotCount= Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		mask= slotCount - 1;
+		slots= new int[FIELDS * slotCount];
+	}
+
+	/** Add a move with slow down slowDown, direction d (which may be null),
+	 * to (toRow, toCol). Return false, dropping the move, if the ring is
+	 * full. Called only by the producer. */
+	boolean offer(int slowDown, Direction d, int toRow, int toCol) {
+		long t= tail.get();
+		if (t - head.get() > mask) {
+			dropped.set(true);
+			return false;
+		}
+
+		int slot= FIELDS * (int) (t & mask);
+		slots[slot + SLOW_DOWN]= slowDown;
+		slots[slot + DIRECTION]= (d == null) ? 0 : d.ordinal() + 1;
+		slots[slot + TO_ROW]= toRow;
+		slots[slot + TO_COL]= toCol;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/** Move the moves written so far, oldest first, into moves, FIELDS ints
+	 * each, as many as fit, and return how many were moved. Called only by
+	 * the consumer. */
+	int drain(int[] moves) {
+		long h= head.get();
+		int n= (int) Math.min(tail.get() - h, moves.length / FIELDS);
+		for (int i= 0; i < n; i++) {
+			int slot= FIELDS * (int) ((h + i) & mask);
+			System.arraycopy(slots, slot, moves, FIELDS * i, FIELDS);
+		}
+		head.lazySet(h + n);
+		return n;
+	}
+
+	/** Return true iff a move has been dropped since this was last called,
+	 * and forget that it has. Called only by the consumer. */
+	boolean takeDropped() {
+		return dropped.getAndSet(false);
+	}
+
+	/** Return the direction of a move whose DIRECTION field is field, or
+	 * null if it has none. */
+	static Direction direction(int field) {
+		return (field == 0) ? null : Common.DIRECTIONS[field - 1];
+	}
+}
@@ -0,0 +1,187 @@
+package danaus;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** An instance records the flights of a simulation to a trace file, as the
+ * butterfly makes them. The map tells its simulator's recorder of every call
+ * the butterfly makes to it before making it, so a call that throws is
+ * recorded too. Recording never stops the simulation: if the trace file
+ * cannot be written, the error is reported once and recording stops.
+ * @see danaus.FlightTrace
+ * @see danaus.Simulator#recorder
+ */
+class FlightRecorder {
+	/** The trace file. */
+	private final String filename;
+	/** The stream to the trace file, or null if it is closed. */
+	private DataOutputStream out;
+	/** The number of refreshes not yet written. */
+	private int refreshes;
+	/** The id of the last flower collected, or 0 if none has been. */
+	private long lastCollected;
+
+	/** Constructor: a recorder of the flights of simulator, whose simulation
+	 * has not begun, to trace file filename. Throw an IOException if it
+	 * cannot be written. */
+	private FlightRecorder(String filename, Simulator simulator)
+			throws IOException {
+		this.filename= filename;
+		out= new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(new File(filename).toPath()), 1 << 16));
+		try {
+			FlightTrace.writeHeader(out, simulator);
+		}
+		catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/** Return a recorder of the flights of simulator, whose simulation has
+	 * not begun, to trace file filename, or null if it cannot be written. */
+	static FlightRecorder open(String filename, Simulator simulator) {
+		try {
+			return new FlightRecorder(filename, simulator);
+		}
+		catch (IOException e) {
+			Debugger.ERROR("cannot record flight trace " + filename + ": " + e);
+			return null;
+		}
+	}
+
+	/** Return the trace file of job number job of a batch recording to trace
+	 * file filename: filename with the job number before its extension. */
+	static String jobFilename(String filename, int job) {
+		int dot= filename.lastIndexOf('.');
+		if (dot <= filename.lastIndexOf(File.separatorChar) + 1) {
+			return filename + "-" + job;
+		}
+		return filename.substring(0, dot) + "-" + job + filename.substring(dot);
+	}
+
+	/** Record a flight in direction d at speed s. */
+	void fly(Direction d, Speed s) {
+		int speed= (s == null) ? FlightTrace.NO_SPEED : s.ordinal();
+		write(FlightTrace.FLY + 8 * speed + d.ordinal());
+	}
+
+	/** Record a landing. */
+	void land() {
+		write(FlightTrace.LAND);
+	}
+
+	/** Record a refresh of the butterfly's state. Refreshes in a row are
+	 * written as one record. */
+	void refresh() {
+		if (out == null) {
+			return;
+		}
+		refreshes++;
+		if (refreshes == FlightTrace.MAX_REFRESHES) {
+			writeRefreshes();
+		}
+	}
+
+	/** Record the collection of flower, which may be null. */
+	void collect(Flower flower) {
+		if (flower == null) {
+			write(FlightTrace.COLLECT_NULL);
+			return;
+		}
+		if (write(FlightTrace.COLLECT)) {
+			try {
+				FlightTrace.writeVarLong(out, flower.getFlowerId() - lastCollected);
+				lastCollected= flower.getFlowerId();
+			}
+			catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	/** Record that the simulation began running, with learning score
+	 * learningScore and park state state, whose required flowers have been
+	 * chosen. */
+	void running(double learningScore, ParkState state) {
+		if (!write(FlightTrace.RUNNING)) {
+			return;
+		}
+		try {
+			out.writeDouble(learningScore);
+			out.writeLong(state.hash());
+			FlightTrace.writeVarLong(out, state.requiredFlowers.size());
+			long last= 0;
+			for (Flower flower : state.requiredFlowers) {
+				FlightTrace.writeVarLong(out, flower.getFlowerId() - last);
+				last= flower.getFlowerId();
+			}
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/** Record that the simulation ended, with park state state and the
+	 * butterfly at location, and close the trace file. */
+	void close(ParkState state, Location location) {
+		if (!write(FlightTrace.END)) {
+			return;
+		}
+		try {
+			out.writeLong(state.hash());
+			out.writeInt(location.row);
+			out.writeInt(location.col);
+			out.close();
+			out= null;
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/** Write opcode op, after any refreshes not yet written, and return true,
+	 * or return false if the trace file is closed. */
+	private boolean write(int op) {
+		if (out != null && refreshes > 0) {
+			writeRefreshes();
+		}
+		if (out == null) {
+			return false;
+		}
+		try {
+			out.writeByte(op);
+			return true;
+		}
+		catch (IOException e) {
+			fail(e);
+			return false;
+		}
+	}
+
+	/** Write the refreshes not yet written as one record. */
+	private void writeRefreshes() {
+		try {
+			out.writeByte(FlightTrace.REFRESH + refreshes - 1);
+			refreshes= 0;
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/** Report e, and stop recording. */
+	private void fail(IOException e) {
+		Debugger.ERROR("cannot record flight trace " + filename + ": " + e);
+		try {
+			out.close();
+		}
+		catch (IOException closing) {
+			// The error has been reported
+		}
+		out= null;
+	}
+}
@@ -0,0 +1,322 @@
+package danaus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/** An instance replays a flight trace on the map it was recorded on, making
+ * the butterfly's calls to the map again, in order, without the butterfly.
+ * The park, and the GUI if there is one, see the calls just as they saw them
+ * when they were recorded, so they end in the same state, which the hashes
+ * of the trace check.
+ * <br>
+ * With a GUI, a replay runs in a thread of its own, which plays the records
+ * at a rate that can be changed while it plays, and which can be told to
+ * seek to any record. Seeking forward replays the records in between as fast
+ * as it can; seeking backward begins again on a new park.
+ * @see danaus.FlightTrace
+ * @see danaus.GUIReplay
+ */
+class FlightReplay implements Runnable {
+	/** The number of records played a second when a replay begins. */
+	static final int INIT_RATE= 10;
+	/** The most records played a second. */
+	static final int MAX_RATE= 1000000;
+	/** The longest a replay that has fallen behind its rate hurries to catch
+	 * up, in nanoseconds. */
+	private static final long MAX_LAG= 100000000L;
+
+	/** The trace replayed. */
+	private final FlightTrace trace;
+	/** The simulator whose park the trace is replayed on. */
+	final Simulator simulator;
+	/** The number of records replayed. */
+	private volatile int position;
+	/** The id of the last flower collected, or 0 if none has been. */
+	private long lastCollected;
+	/** True iff the park has been checked against a hash of the trace and
+	 * did not match it. */
+	private volatile boolean diverged;
+	/** True iff the trace has been replayed to its end and the park matched
+	 * every hash of the trace. */
+	private volatile boolean verified;
+
+	/** True iff the replay thread plays records. */
+	private boolean playing;
+	/** The record the replay thread is to seek to, or -1 if none. */
+	private int seekTarget= -1;
+	/** The number of records the replay thread plays a second. */
+	private int rate= INIT_RATE;
+
+	/** Constructor: a replay of trace on a new simulator of its map, made
+	 * in the context the trace was recorded in. Throw an
+	 * XMLStreamException or IOException if there is a problem with the map,
+	 * or if it is not the map the trace was recorded on. */
+	FlightReplay(FlightTrace trace) throws XMLStreamException, IOException {
+		Debugger.NULL_CHECK(trace, "null trace in FlightReplay");
+		this.trace= trace;
+		simulator= new Simulator(trace.context);
+
+		Map map= simulator.park.map;
+		Location start= map.butterfly.location;
+		if (map.getHeight() != trace.height || map.getWidth() != trace.width ||
+				start.row != trace.startRow || start.col != trace.startCol) {
+			throw new IOException("the flight trace was not recorded on " +
+					trace.context);
+		}
+	}
+
+	/** Return the number of records of the trace. */
+	int length() {
+		return trace.length();
+	}
+
+	/** Return the number of records replayed. */
+	int position() {
+		return position;
+	}
+
+	/** Return true iff the trace has been replayed to its end, and the park
+	 * matched every hash of the trace. */
+	boolean isVerified() {
+		return verified;
+	}
+
+	/** Return true iff the park has not matched a hash of the trace. */
+	boolean hasDiverged() {
+		return diverged;
+	}
+
+	/** Replay every record not yet replayed, and return true iff the trace
+	 * was verified. */
+	boolean replayAll() {
+		while (position < length()) {
+			step();
+		}
+		if (!verified && !diverged) {
+			Debugger.WARNING("the flight trace has no end, so it was not verified");
+		}
+		return verified;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Control
+	////////////////////////////////////////////////////////////////////////////
+
+	/** Play the records from the current one on. */
+	synchronized void play() {
+		playing= true;
+		notifyAll();
+	}
+
+	/** Stop playing records. */
+	synchronized void pause() {
+		playing= false;
+	}
+
+	/** Return true iff records are being played. */
+	synchronized boolean isPlaying() {
+		return playing;
+	}
+
+	/** Play rate records a second, but at least 1 and at most MAX_RATE. */
+	synchronized void setRate(int rate) {
+		this.rate= Math.max(1, Math.min(rate, MAX_RATE));
+		notifyAll();
+	}
+
+	/** Seek to record target, between 0 and length(): replay the records
+	 * before it, and no others. The replay thread seeks as soon as it can;
+	 * if told to seek again before it does, it seeks only to the last. */
+	synchronized void seek(int target) {
+		seekTarget= Math.max(0, Math.min(target, length()));
+		notifyAll();
+	}
+
+	/** Replay the trace as the replay is told to, until interrupted. */
+	public @Override void run() {
+		long due= System.nanoTime();
+		try {
+			while (true) {
+				int target;
+				long period;
+				synchronized (this) {
+					while (seekTarget < 0 && (!playing || position == length())) {
+						wait();
+						due= System.nanoTime();
+					}
+					target= seekTarget;
+					seekTarget= -1;
+					period= 1000000000L / rate;
+				}
+
+				if (target >= 0) {
+					seekTo(target);
+					due= System.nanoTime();
+					continue;
+				}
+
+				step();
+				due += period;
+				long now= System.nanoTime();
+				if (due - now > 0) {
+					Thread.sleep((due - now) / 1000000, (int) ((due - now) % 1000000));
+				}
+				else if (now - due > MAX_LAG) {
+					due= now;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Replay the records before record target, and no others. */
+	private void seekTo(int target) {
+		if (target < position) {
+			rewind();
+		}
+		while (position < target) {
+			step();
+		}
+		simulator.listener.reset(simulator.park.map.tiles);
+	}
+
+	/** Replace the park with a new park on the same map, on which no record
+	 * has been replayed. */
+	private void rewind() {
+		try {
+			simulator.reset();
+		}
+		catch (XMLStreamException | IOException e) {
+			/* The map was read once, so it can only fail to be read again if
+			 * its file has changed. */
+			Debugger.ERROR("cannot read the map again: " + e);
+			System.exit(1);
+		}
+		position= 0;
+		lastCollected= 0;
+		diverged= false;
+		verified= false;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Records
+	////////////////////////////////////////////////////////////////////////////
+
+	/** Replay the next record.
+	 * Precondition: position < length(). */
+	private void step() {
+		ByteBuffer record= trace.record(position);
+		int op= record.get() & 0xFF;
+		Map map= simulator.park.map;
+		try {
+			if (op < FlightTrace.LAND) {
+				int speed= (op - FlightTrace.FLY) / 8;
+				map.fly(Common.DIRECTIONS[op % 8],
+						(speed == FlightTrace.NO_SPEED) ? null : Speed.values()[speed]);
+			}
+			else if (op >= FlightTrace.REFRESH) {
+				for (int n= op - FlightTrace.REFRESH; n >= 0; n--) {
+					map.refreshState();
+				}
+			}
+			else if (op == FlightTrace.LAND) {
+				map.land();
+			}
+			else if (op == FlightTrace.COLLECT_NULL) {
+				map.collect(null);
+			}
+			else if (op == FlightTrace.COLLECT) {
+				lastCollected += FlightTrace.readVarLong(record);
+				map.collect(flowerHere(lastCollected));
+			}
+			else if (op == FlightTrace.RUNNING) {
+				beginRunning(record);
+			}
+			else if (op == FlightTrace.END) {
+				end(record);
+			}
+		}
+		catch (RuntimeException e) {
+			/* The map threw this at the butterfly when the trace was
+			 * recorded, too, as it flew into a cliff or collected too soon. */
+			Debugger.DEBUG("replayed " + e);
+		}
+		position++;
+	}
+
+	/** Return the flower with id id on the butterfly's tile, or null if
+	 * there is none. Collecting null has the same effect as collecting a
+	 * flower that is not on the butterfly's tile. */
+	private Flower flowerHere(long id) {
+		Map map= simulator.park.map;
+		Location location= map.butterfly.location;
+		for (Flower flower : map.tiles[location.row][location.col].tileState.flowers) {
+			if (flower.getFlowerId() == id) {
+				return flower;
+			}
+		}
+		return null;
+	}
+
+	/** Replay RUNNING record record, positioned after its opcode: begin
+	 * running, with the recorded required flowers. */
+	private void beginRunning(ByteBuffer record) {
+		Park park= simulator.park;
+		park.learningScore= record.getDouble();
+		long hash= record.getLong();
+		park.beginRunning();
+
+		java.util.Map<Long, Flower> flowers= new HashMap<Long, Flower>();
+		for (Flower flower : park.map.learningFlowers) {
+			flowers.put(flower.getFlowerId(), flower);
+		}
+		for (Flower flower : park.map.runningFlowers) {
+			flowers.put(flower.getFlowerId(), flower);
+		}
+		List<Flower> required= new ArrayList<Flower>();
+		long id= 0;
+		for (long n= FlightTrace.readVarLong(record); n > 0; n--) {
+			id += FlightTrace.readVarLong(record);
+			Flower flower= flowers.get(id);
+			if (flower != null) {
+				required.add(flower);
+			}
+		}
+		park.state.require(required);
+		check(hash, "began running");
+	}
+
+	/** Replay END record record, positioned after its opcode: check that the
+	 * park ended as it did when the trace was recorded. */
+	private void end(ByteBuffer record) {
+		long hash= record.getLong();
+		int row= record.getInt();
+		int col= record.getInt();
+		check(hash, "ended");
+		Location location= simulator.park.map.butterfly.location;
+		if (location.row != row || location.col != col) {
+			Debugger.ERROR("the replay ended at " + location +
+					" rather than at (" + row + ", " + col + ")");
+			diverged= true;
+		}
+		verified= !diverged;
+	}
+
+	/** Check that the park state's hash is hash, which it was when the
+	 * simulation recorded the record replayed, which it did as it did. */
+	private void check(long hash, String did) {
+		if (simulator.park.state.hash() != hash) {
+			Debugger.ERROR("the replay does not match the flight trace: the " +
+					"park state differs where the simulation " + did +
+					", at record " + position);
+			diverged= true;
+		}
+	}
+}
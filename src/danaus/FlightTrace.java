@@ -0,0 +1,268 @@
+package danaus;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/** An instance is a flight trace read from a file: a record of every call a
+ * butterfly made to its map, which can be replayed on the same map without
+ * the butterfly. A trace does not hold the map, only how to make it again:
+ * its seed, its map file, and the settings of its simulation's context that
+ * shape it, so a trace of a map file can only be replayed where the map file
+ * can be read. The trace is replayed in a context with those settings, and
+ * Common is left as it is.
+ * <br>
+ * A trace file holds, in order, big-endian:
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    the seed of the map
+ *   UTF    the map file, or "" for a random map
+ *   UTF    the class of the butterfly
+ *   UTF    the context's aromaThreshold, mapHeight, mapWidth, landFraction,
+ *          forestFraction, cliffFraction, and flowerDensity, each as
+ *          String.valueOf(...) gives it
+ *   bool   the context's chunkedMaps, lazyAromas, and infiniteEnergy
+ *   int    height, width
+ *   int    the butterfly's starting row and column
+ *   byte[] the records, to the end of the file
+ * </pre>
+ * Each record begins with an opcode byte:
+ * <pre>
+ *   FLY + speed * 8 + direction  fly; the speed is NO_SPEED if it was null
+ *   LAND                         land
+ *   REFRESH + n - 1              refresh the butterfly's state n times
+ *   COLLECT, varlong             collect the flower whose id is the id of the
+ *                                last flower collected plus the varlong
+ *   COLLECT_NULL                 collect null
+ *   RUNNING, double, long,       begin running, with the learning score and
+ *     varlong n, n varlongs      the park state's hash, and the ids of the n
+ *                                required flowers, each less the last
+ *   END, long, int, int          end, with the park state's hash and the
+ *                                butterfly's row and column
+ * </pre>
+ * A varlong is a signed long, zigzag-encoded, 7 bits to a byte, least
+ * significant first. Where the butterfly is, and what each call did to the
+ * park, is left out: replaying the calls on the map works it out again, and
+ * the hashes check that it worked it out the same.
+ * @see danaus.FlightRecorder
+ * @see danaus.FlightReplay
+ * @see danaus.ParkState#hash()
+ */
+class FlightTrace {
+	/** The first four bytes of every trace file: "DTRC". */
+	static final int MAGIC= 0x44545243;
+	/** The version of the format. */
+	static final int VERSION= 1;
+	/** The extension of trace files. */
+	static final String EXTENSION= ".trace";
+
+	/** The opcodes of the records. */
+	static final int FLY= 0x00;
+	static final int LAND= 0x20;
+	static final int COLLECT= 0x21;
+	static final int COLLECT_NULL= 0x22;
+	static final int RUNNING= 0x23;
+	static final int END= 0x24;
+	static final int REFRESH= 0x40;
+	/** The most refreshes in one REFRESH record. */
+	static final int MAX_REFRESHES= 64;
+	/** The speed of a FLY record flying at a null speed. */
+	static final int NO_SPEED= 3;
+
+	/** The simulation the trace was recorded from, with the settings its map
+	 * was made with. It records nothing. */
+	final SimulationContext context;
+	/** The height and width of the map. */
+	final int height;
+	final int width;
+	/** The butterfly's starting row and column. */
+	final int startRow;
+	final int startCol;
+
+	/** The records. */
+	private final byte[] records;
+	/** The offset in records of each record, in order. */
+	private final int[] offsets;
+
+	/** Constructor: the trace read from in, whose records are the rest of
+	 * bytes. Throw an IOException if it is not a trace of this version. */
+	private FlightTrace(DataInputStream in, byte[] bytes) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("not a flight trace of version " + VERSION);
+		}
+		int seed= in.readInt();
+		String mapFilename= in.readUTF();
+		String className= in.readUTF();
+		// The arguments are evaluated in order, as the header is written
+		context= new SimulationContext(seed,
+				mapFilename.isEmpty() ? null : mapFilename, className, null,
+				parseDouble(in.readUTF()), parseInteger(in.readUTF()),
+				parseInteger(in.readUTF()), parseDouble(in.readUTF()),
+				parseDouble(in.readUTF()), parseDouble(in.readUTF()),
+				parseDouble(in.readUTF()), in.readBoolean(), in.readBoolean(),
+				in.readBoolean());
+		height= in.readInt();
+		width= in.readInt();
+		startRow= in.readInt();
+		startCol= in.readInt();
+
+		records= Arrays.copyOfRange(bytes, bytes.length - in.available(),
+				bytes.length);
+		offsets= index(records);
+	}
+
+	/** Read trace file filename. Throw an IOException if it is not a trace
+	 * file of this version. */
+	static FlightTrace read(String filename) throws IOException {
+		byte[] bytes= Files.readAllBytes(new File(filename).toPath());
+		try {
+			return new FlightTrace(
+					new DataInputStream(new ByteArrayInputStream(bytes)), bytes);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("bad flight trace header: " + e.getMessage());
+		}
+	}
+
+	/** Write to out all but the records of a trace of simulator's
+	 * simulation, which has not begun. */
+	static void writeHeader(DataOutput out, Simulator simulator)
+			throws IOException {
+		Map map= simulator.park.map;
+		SimulationContext context= simulator.context;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(map.seed);
+		out.writeUTF((context.mapFilename == null) ? "" : context.mapFilename);
+		out.writeUTF(context.className);
+		out.writeUTF(String.valueOf(context.aromaThreshold));
+		out.writeUTF(String.valueOf(context.mapHeight));
+		out.writeUTF(String.valueOf(context.mapWidth));
+		out.writeUTF(String.valueOf(context.landFraction));
+		out.writeUTF(String.valueOf(context.forestFraction));
+		out.writeUTF(String.valueOf(context.cliffFraction));
+		out.writeUTF(String.valueOf(context.flowerDensity));
+		out.writeBoolean(context.chunkedMaps);
+		out.writeBoolean(context.lazyAromas);
+		out.writeBoolean(context.infiniteEnergy);
+		out.writeInt(map.getHeight());
+		out.writeInt(map.getWidth());
+		out.writeInt(map.butterfly.location.row);
+		out.writeInt(map.butterfly.location.col);
+	}
+
+	/** Return the number of records. */
+	int length() {
+		return offsets.length;
+	}
+
+	/** Return record i, positioned at its opcode.
+	 * Precondition: 0 <= i < length(). */
+	ByteBuffer record(int i) {
+		ByteBuffer record= ByteBuffer.wrap(records);
+		record.position(offsets[i]);
+		return record;
+	}
+
+	/** Return the offsets of the records of records, in order. A record cut
+	 * short, as the last record of a simulation that was killed may be, is
+	 * left out. Throw an IOException if a record is not a record. */
+	private static int[] index(byte[] records) throws IOException {
+		int[] offsets= new int[16];
+		int n= 0;
+		ByteBuffer buffer= ByteBuffer.wrap(records);
+		try {
+			while (buffer.hasRemaining()) {
+				int offset= buffer.position();
+				skip(buffer);
+				if (n == offsets.length) {
+					offsets= Arrays.copyOf(offsets, 2 * n);
+				}
+				offsets[n++]= offset;
+			}
+		}
+		catch (BufferUnderflowException e) {
+			Debugger.WARNING("ignoring the last record of a flight trace, " +
+					"which was cut short");
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+
+	/** Move buffer past the record at its position. Throw an IOException if
+	 * it is not a record, or a BufferUnderflowException if it is cut short. */
+	private static void skip(ByteBuffer buffer) throws IOException {
+		int op= buffer.get() & 0xFF;
+		if (op < LAND || op >= REFRESH) {
+			return;
+		}
+		switch (op) {
+			case LAND:
+			case COLLECT_NULL:
+				return;
+			case COLLECT:
+				readVarLong(buffer);
+				return;
+			case RUNNING:
+				skip(buffer, 16);
+				for (long n= readVarLong(buffer); n > 0; n--) {
+					readVarLong(buffer);
+				}
+				return;
+			case END:
+				skip(buffer, 16);
+				return;
+			default:
+				throw new IOException("bad flight trace record " + op +
+						" at " + (buffer.position() - 1));
+		}
+	}
+
+	/** Move buffer n bytes forward. Throw a BufferUnderflowException if
+	 * fewer are left. */
+	private static void skip(ByteBuffer buffer, int n) {
+		if (buffer.remaining() < n) {
+			throw new BufferUnderflowException();
+		}
+		buffer.position(buffer.position() + n);
+	}
+
+	/** Write v to out as a varlong. */
+	static void writeVarLong(DataOutput out, long v) throws IOException {
+		long zigzag= (v << 1) ^ (v >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			out.writeByte((int) (zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	/** Read a varlong from in. Throw a BufferUnderflowException if it is
+	 * cut short. */
+	static long readVarLong(ByteBuffer in) {
+		long zigzag= 0;
+		for (int shift= 0; ; shift += 7) {
+			int b= in.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+	}
+
+	/** Return the Double s gives, or null if s is "null". */
+	private static Double parseDouble(String s) {
+		return s.equals("null") ? null : Double.valueOf(s);
+	}
+
+	/** Return the Integer s gives, or null if s is "null". */
+	private static Integer parseInteger(String s) {
+		return s.equals("null") ? null : Integer.valueOf(s);
+	}
+}
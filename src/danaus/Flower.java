@@ -1,11 +1,18 @@
 package danaus;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /** An instance represents a flower. */
 public class Flower extends Entity {
     /** A unique index is assigned to every flower to differentiate flowers 
      * with the same name at the same tile. Integers 0..UNIQUE_FLOWER_ID-1 have
-     * already been assigned to flowers. */
-    private static long UNIQUE_FLOWER_ID;
+     * already been assigned to flowers that were not given an id. Maps give
+     * their flowers ids of their own; see Map.newFlower(...). */
+    private static final AtomicLong UNIQUE_FLOWER_ID= new AtomicLong();
+    
+    /** The directory of flower images, which begins the name of every
+     * flower. */
+    static final String IMAGE_DIRECTORY= "res/flowers/";
     
     /** The aroma of the flower at the location of the flower. (The aroma is 
      * then spread throughout a map.) <br>
@@ -20,9 +27,16 @@ public class Flower extends Entity {
      * 
      * ai is not used. It should be removed in future revisions. */
     Flower(String name, Location loc, double ai) {
-        super("res/flowers/" + name, loc);
+        this(name, loc, ai, UNIQUE_FLOWER_ID.getAndIncrement());
+    }
+    
+    /** Constructor: an instance named name at location loc with aroma
+     * intensity ai and flower id id. Ids must be unique among the flowers 
+     * of a map. */
+    Flower(String name, Location loc, double ai, long id) {
+        super(IMAGE_DIRECTORY + name, loc);
         aromaIntensity= Common.AROMA_INTENSITY;
-        flowerId= UNIQUE_FLOWER_ID++;
+        flowerId= id;
     }
     
     /** Return a string representation of the object.  */
@@ -0,0 +1,89 @@
+package danaus;
+
+/** An instance is a list of distinct tile indices that supports adding a
+ * tile to the end, removing any tile, and getting the k-th tile, each in
+ * O(log n) time, where an ArrayList takes O(n) time to remove a tile.
+ * <br>
+ * Tiles keep the order in which they were added, exactly as they would in
+ * an ArrayList, so a random generator choosing the k-th tile of a frontier
+ * makes the same choices with either. Each tile is given the next slot when
+ * it is added, and a Fenwick tree counts the slots that are still in use,
+ * so the k-th tile is found by descending the tree.
+ * @see danaus.Map#initRandomTiles()
+ */
+class Frontier {
+	/** tiles[s] is the tile added in slot s. */
+	private final int[] tiles;
+	/** slots[t] is one more than the slot of tile index t, or 0 if t is not
+	 * in this frontier. */
+	private final int[] slots;
+	/** A Fenwick tree over the slots, indexed from 1: tree[i] is the number
+	 * of slots in use among slots i - (i & -i) .. i-1. */
+	private final int[] tree;
+	/** The number of slots given out. */
+	private int added;
+	/** The number of tiles in this frontier. */
+	private int size;
+
+	/** Constructor: an empty frontier of the tile indices 0..numTiles-1, to
+	 * which at most capacity tiles can ever be added. */
+	Frontier(int numTiles, int capacity) {
+		tiles= new int[capacity];
+		slots= new int[numTiles];
+		tree= new int[capacity + 1];
+	}
+
+	/** Return the number of tiles in this frontier. */
+	int size() {
+		return size;
+	}
+
+	/** Return true iff this frontier has no tiles. */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Add tile index tile to the end of this frontier.
+	 * Precondition: tile is not in this frontier, and fewer than capacity
+	 * tiles have been added. */
+	void add(int tile) {
+		tiles[added]= tile;
+		slots[tile]= ++added;
+		update(added, 1);
+		size++;
+	}
+
+	/** Remove tile index tile from this frontier. Return true iff it was in
+	 * this frontier. */
+	boolean remove(int tile) {
+		if (slots[tile] == 0) {
+			return false;
+		}
+		update(slots[tile], -1);
+		slots[tile]= 0;
+		size--;
+		return true;
+	}
+
+	/** Return the k-th tile of this frontier, in the order they were added.
+	 * Precondition: 0 <= k < size(). */
+	int get(int k) {
+		// Find the last slot before which at most k slots are in use
+		int slot= 0;
+		for (int step= Integer.highestOneBit(tree.length - 1); step > 0;
+				step >>= 1) {
+			if (slot + step < tree.length && tree[slot + step] <= k) {
+				slot += step;
+				k -= tree[slot];
+			}
+		}
+		return tiles[slot];
+	}
+
+	/** Add delta to the count of slot index i - 1. */
+	private void update(int i, int delta) {
+		for (; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+}
@@ -33,11 +33,14 @@ public class GUI extends JFrame implements ChangeListener {
     /* The northern panel is not stored because it is never referenced. */
 
     Simulator simulator;
+    /** The listener that shows the simulation's events on this GUI. */
+    final GUIListener listener;
 
     /**  Constructor: a GUI for s */
     public GUI(Simulator s) {
         mainPanel = new JPanel(new BorderLayout(thickness, thickness));
         this.simulator = s;
+        this.listener = new GUIListener(this);
 
         /* The center of the GUI must be initialized before the menu or northern
          * panel of the GUI, since those two components reference the center 
@@ -246,11 +249,56 @@ public class GUI extends JFrame implements ChangeListener {
         mapPanel.move(s, d, toRow, toCol);
     }
 
-    /** Inform the simulator that the move is complete. 
+    /** Inform the simulator that the move is complete, if it is waiting for
+     * moves to be animated.
      * 
-     * @see danaus.Simulator#update(int, Direction, int, int, int, int) */
+     * @see danaus.GUIListener#moved(int, Direction, int, int, int, int) */
     public void wakeupSimulator() {
-        simulator.GUIMoving.release();
+        if (Common.LOCKSTEP) {
+            simulator.GUIMoving.release();
+        }
+    }
+
+    /** Animate a move with speed s and in direction d to (toRow, toCol),
+     * without the simulator waiting for it. */
+    void animate(int s, Direction d, int toRow, int toCol) {
+        mapPanel.move(s, d, toRow, toCol);
+    }
+
+    /** @see danaus.GUIMap#visit(int, int) */
+    void visit(int row, int col) {
+        mapPanel.visit(row, col);
+    }
+
+    /** @see danaus.GUIMap#revisit(Tile[][]) */
+    void revisit(Tile[][] tiles) {
+        mapPanel.revisit(tiles);
+    }
+
+    /** Show tiles, the tiles of a new park on the same map, in place of the
+     * tiles shown, and the background of the park's phase.
+     * @see danaus.GUIMap#reset(Tile[][]) */
+    void reset(Tile[][] tiles) {
+        mapPanel.reset(tiles);
+        Color phaseColor = (simulator.park.phase == SimulationPhase.RUNNING) ?
+                new Color(238, 232, 213) : Common.BACKGROUND_COLOR;
+        northPanel.setBackground(phaseColor);
+        statePanel.setBackground(phaseColor);
+        tileInfoPanel.setBackground(phaseColor);
+    }
+
+    /** Place on the south of the GUI the controls of replay, which replays a
+     * flight trace on the simulator's park. */
+    void addReplay(FlightReplay replay) {
+        mainPanel.add(new GUIReplay(replay), BorderLayout.SOUTH);
+        pack();
+        setMinimumSize(getSize());
+    }
+
+    /** Show the simulation's events since the last frame. Triggered by the
+     * main painting loop. */
+    void drainEvents() {
+        listener.drain();
     }
 
     /** Update the tile information box to be at point position. This is
@@ -0,0 +1,171 @@
+package danaus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+/** An instance is the listener of a simulation with a GUI. The simulation
+ * does not wait for the GUI: its moves are put in a ring buffer, and the
+ * GUI's event dispatch thread drains the buffer at display rate. Events that
+ * arrive between two frames are coalesced: every tile moved to is marked
+ * visited, but the butterfly is only animated to where it moved last, and
+ * the statistics are only shown as they are at the frame.
+ * <br>
+ * If Common.LOCKSTEP is true, the simulation instead waits for the GUI to
+ * animate each move before it makes the next, as a handshake on the
+ * simulator's GUIMoving semaphore.
+ * @see danaus.EventRing
+ */
+class GUIListener implements SimulationListener {
+	/** The number of moves the buffer holds. Moves made while it is full are
+	 * dropped, and the GUI catches up from the map. */
+	static final int CAPACITY= 1 << 12;
+
+	/** The GUI that shows the simulation. */
+	private final GUI gui;
+	/** The moves not yet shown. */
+	private final EventRing moves;
+	/** True iff the state of the park changed since it was last shown. */
+	private final AtomicBoolean stateChanged;
+	/** The tiles of the park that replaced the one shown, or null if it has
+	 * not been replaced since it was last shown. */
+	private final AtomicReference<Tile[][]> resetTiles;
+	/** The moves drained in a frame. Used only by the event dispatch
+	 * thread. */
+	private final int[] drained;
+
+	/** Constructor: a listener showing events on gui. */
+	GUIListener(GUI gui) {
+		this.gui= gui;
+		moves= new EventRing(CAPACITY);
+		stateChanged= new AtomicBoolean();
+		resetTiles= new AtomicReference<Tile[][]>();
+		drained= new int[EventRing.FIELDS * CAPACITY];
+	}
+
+	public @Override void moved(int slowDown, Direction heading,
+			int fromRow, int fromCol, int toRow, int toCol) {
+		if (Common.LOCKSTEP) {
+			movedLockstep(slowDown, heading, toRow, toCol);
+			return;
+		}
+		moves.offer(slowDown, heading, toRow, toCol);
+	}
+
+	public @Override void updated() {
+		if (Common.LOCKSTEP) {
+			updatedLockstep();
+			return;
+		}
+		stateChanged.set(true);
+	}
+
+	public @Override void retiled(final Tile[][] tiles) {
+		if (Common.LOCKSTEP) {
+			gui.retile(tiles);
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public @Override void run() {
+				gui.retile(tiles);
+			}
+		});
+	}
+
+	public @Override void reset(Tile[][] tiles) {
+		if (Common.LOCKSTEP) {
+			gui.reset(tiles);
+			return;
+		}
+		resetTiles.set(tiles);
+	}
+
+	/** Show the moves and state changes since the last frame. Called by the
+	 * event dispatch thread once a frame. */
+	void drain() {
+		if (Common.LOCKSTEP) {
+			return;
+		}
+
+		Tile[][] tiles= resetTiles.getAndSet(null);
+		if (tiles != null) {
+			/* The moves were made on a park that is gone, so forget them, and
+			 * catch up from the new park. */
+			gui.reset(tiles);
+			moves.drain(drained);
+			moves.takeDropped();
+			dropped();
+			return;
+		}
+
+		int n= moves.drain(drained);
+		boolean changed= stateChanged.getAndSet(false) || n > 0;
+		for (int i= 0; i < n - 1; i++) {
+			gui.visit(drained[EventRing.FIELDS * i + EventRing.TO_ROW],
+					drained[EventRing.FIELDS * i + EventRing.TO_COL]);
+		}
+
+		if (moves.takeDropped()) {
+			dropped();
+			return;
+		}
+		if (n > 0) {
+			int last= EventRing.FIELDS * (n - 1);
+			gui.animate(drained[last + EventRing.SLOW_DOWN],
+					EventRing.direction(drained[last + EventRing.DIRECTION]),
+					drained[last + EventRing.TO_ROW],
+					drained[last + EventRing.TO_COL]);
+		}
+
+		if (changed) {
+			gui.updateState(gui.simulator.park.state,
+					gui.simulator.park.map.butterfly);
+		}
+	}
+
+	/** Show the park as it is, rather than as the moves made on it since the
+	 * last frame, which were lost. */
+	private void dropped() {
+		Park park= gui.simulator.park;
+		AbstractButterfly butterfly= park.map.butterfly;
+		gui.revisit(park.map.tiles);
+		gui.animate(0, null, butterfly.location.row, butterfly.location.col);
+		gui.updateState(park.state, butterfly);
+	}
+
+	/** Show a move with slow down slowDown in direction heading to (toRow,
+	 * toCol), and wait for the GUI to animate it. The wait is timed as
+	 * PhaseTimer.Phase.GUI_WAIT. */
+	private synchronized void movedLockstep(int slowDown, Direction heading,
+			int toRow, int toCol) {
+		Simulator simulator= gui.simulator;
+		PhaseTimer timer= simulator.park.timer;
+		PhaseTimer.Phase previous= timer.enter(PhaseTimer.Phase.GUI_WAIT);
+		try {
+			simulator.GUIMoving.release();
+			gui.updateState(simulator.park.state, simulator.park.map.butterfly);
+			gui.move(slowDown, heading, toRow, toCol);
+			Common.acquire_or_exit(simulator.GUIMoving);
+		}
+		finally {
+			timer.leave(previous);
+		}
+	}
+
+	/** Show the state of the park, and wait for the GUI to finish any move.
+	 * The wait is timed as PhaseTimer.Phase.GUI_WAIT. */
+	private synchronized void updatedLockstep() {
+		Simulator simulator= gui.simulator;
+		PhaseTimer timer= simulator.park.timer;
+		PhaseTimer.Phase previous= timer.enter(PhaseTimer.Phase.GUI_WAIT);
+		try {
+			simulator.GUIMoving.release();
+			gui.updateState(simulator.park.state, simulator.park.map.butterfly);
+			Common.acquire_or_exit(simulator.GUIMoving);
+		}
+		finally {
+			timer.leave(previous);
+		}
+	}
+}
@@ -267,12 +267,38 @@ MouseWheelListener, ActionListener {
 
     /** Begin the move process for a butterfly.*/
     public void move(int s, Direction d, int toRow, int toCol) {
-        if (!tiles[toRow][toCol].visited) {
-            GUITile tile = tiles[toRow][toCol];
+        visit(toRow, toCol);
+        butterfly.move(s, d, toRow, toCol, sideLength);
+    }
+
+    /** Mark the tile at (row, col) visited, darkening it. */
+    public void visit(int row, int col) {
+        if (!tiles[row][col].visited) {
+            GUITile tile = tiles[row][col];
             tile.visited = true;
             Common.change_brightness(tile.cachedImage, 0.8f);
         }
-        butterfly.move(s, d, toRow, toCol, sideLength);
+    }
+
+    /** Show tiles in place of the tiles shown, none of them visited. tiles
+     * are the tiles of a new park on the same map. */
+    public void reset(Tile[][] tiles) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                this.tiles[row][col] = new GUITile(tiles[row][col], row, col);
+            }
+        }
+    }
+
+    /** Mark visited every tile of tiles that has been entered. */
+    public void revisit(Tile[][] tiles) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (tiles[row][col].turnEntered != -1) {
+                    visit(row, col);
+                }
+            }
+        }
     }
 
     /** Return the current width of the map, in pixels.
@@ -370,6 +396,7 @@ MouseWheelListener, ActionListener {
     /** This method is invoked by the gui's timer. It controls the main FPS of
      * the GUI. */
     public @Override void actionPerformed(ActionEvent e) {
+        gui.drainEvents();
         repaint();
     }
 }
@@ -0,0 +1,114 @@
+package danaus;
+
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+import javax.swing.event.*;
+
+/** An instance represents the controls of a replay, on the south of the GUI:
+ * a button that plays and pauses the replay, a spinner that sets how many
+ * records it plays a second, a slider that seeks and scrubs through its
+ * records, and a label that shows where it is and whether it was verified. */
+@SuppressWarnings("serial")
+public class GUIReplay extends JPanel implements ActionListener, ChangeListener {
+    /** The delay, in milliseconds, between updates of the controls. */
+    private static int UPDATE_DELAY = 100;
+
+    /** The replay controlled. */
+    private final FlightReplay replay;
+    /** The button that plays and pauses the replay. */
+    private JButton playButton;
+    /** The spinner that sets the records played a second. */
+    private JSpinner rateSpinner;
+    /** The slider that seeks through the records. */
+    private JSlider positionSlider;
+    /** The label that shows the position and state of the replay. */
+    private JLabel positionLabel;
+    /** True iff the slider is being moved to follow the replay, rather than
+     * by the user. */
+    private boolean following;
+
+    /** Constructor: the controls of replay. */
+    GUIReplay(FlightReplay replay) {
+        super(new BorderLayout(4, 4));
+        this.replay = replay;
+        setBackground(Common.BACKGROUND_COLOR);
+        setBorder(BorderFactory.createTitledBorder("Replay"));
+
+        playButton = new JButton("Play");
+        playButton.addActionListener(this);
+
+        rateSpinner = new JSpinner(new SpinnerNumberModel(
+                FlightReplay.INIT_RATE, 1, FlightReplay.MAX_RATE, 10));
+        rateSpinner.setToolTipText("The records replayed a second.");
+        rateSpinner.addChangeListener(this);
+
+        positionSlider = new JSlider(JSlider.HORIZONTAL, 0, replay.length(), 0);
+        positionSlider.setToolTipText("Drag to seek through the records.");
+        positionSlider.setOpaque(false);
+        positionSlider.addChangeListener(this);
+
+        positionLabel = new JLabel();
+
+        JPanel west = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        west.setOpaque(false);
+        west.add(playButton);
+        west.add(rateSpinner);
+        add(west, BorderLayout.WEST);
+        add(positionSlider, BorderLayout.CENTER);
+        add(positionLabel, BorderLayout.EAST);
+        update();
+
+        /* Follow the replay as it plays. */
+        new Timer(UPDATE_DELAY, new ActionListener() {
+            public @Override void actionPerformed(ActionEvent e) {
+                update();
+            }
+        }).start();
+    }
+
+    /** Triggered by the play button. Play the replay if it is paused, and
+     * pause it if it is playing. */
+    public @Override void actionPerformed(ActionEvent e) {
+        if (replay.isPlaying()) {
+            replay.pause();
+        }
+        else {
+            replay.play();
+        }
+        update();
+    }
+
+    /** Triggered by the spinner or the slider. Set the replay's rate, or
+     * seek to the record the user moved the slider to. */
+    public @Override void stateChanged(ChangeEvent e) {
+        if (e.getSource() == rateSpinner) {
+            replay.setRate((int) rateSpinner.getValue());
+        }
+        else if (e.getSource() == positionSlider && !following) {
+            replay.seek(positionSlider.getValue());
+        }
+    }
+
+    /** Show where the replay is, unless the user is moving the slider. */
+    private void update() {
+        playButton.setText(replay.isPlaying() ? "Pause" : "Play");
+        if (positionSlider.getValueIsAdjusting()) {
+            return;
+        }
+
+        int position = replay.position();
+        following = true;
+        positionSlider.setValue(position);
+        following = false;
+
+        String state = "";
+        if (replay.hasDiverged()) {
+            state = " (does not match)";
+        }
+        else if (replay.isVerified()) {
+            state = " (verified)";
+        }
+        positionLabel.setText(position + "/" + replay.length() + state);
+    }
+}
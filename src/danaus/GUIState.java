@@ -91,15 +91,13 @@ public class GUIState extends JPanel {
 	
 	/** Update the simulation's statistics in state, using butterfly bfly. */
 	public void updateState(ParkState state, AbstractButterfly bfly) {
-		String reqFlowerNum = state.requiredFlowers == null ?
-				"0" : String.valueOf(state.requiredFlowers.size());
-		
 		turn.setText(String.valueOf(state.step));
 		slowTurns.setText(String.valueOf(state.slowSteps));
 		location.setText(bfly.location.toString());
 		power.setText(String.valueOf(bfly.getPower().getPower()));
 		exploredTiles.setText(String.valueOf("" + state.exploredTiles + "/" + state.numTiles));
-		foundFlowers.setText("" + state.foundFlowers.size() + "/" + reqFlowerNum);
+		foundFlowers.setText("" + state.scorecard.collections() + "/" +
+				state.scorecard.required());
 		powerSpent.setText(String.valueOf(state.powerSpent));
 		powerConsumed.setText(String.valueOf(state.powerConsumed));
 		cliffCollisions.setText(String.valueOf(state.cliffCollisions));
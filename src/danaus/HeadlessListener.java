@@ -0,0 +1,18 @@
+package danaus;
+
+/** An instance is the listener of a simulation without a GUI. It ignores
+ * every event, so the simulation never waits to be shown. */
+class HeadlessListener implements SimulationListener {
+	public @Override void moved(int slowDown, Direction heading, 
+			int fromRow, int fromCol, int toRow, int toCol) {
+	}
+
+	public @Override void updated() {
+	}
+
+	public @Override void retiled(Tile[][] tiles) {
+	}
+
+	public @Override void reset(Tile[][] tiles) {
+	}
+}
@@ -1,14 +1,19 @@
 package danaus;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import org.xml.sax.SAXException;   
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;  	   
-import javax.xml.parsers.*; 	   
-import java.util.Scanner;   	   
-import java.util.regex.Matcher;    
-import java.util.regex.Pattern;    
-import org.w3c.dom.*;			   
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import javax.xml.stream.XMLStreamException;
 
 /** An instance represents a map: a two-dimensional array of tiles
  * along with some basic information and settings. A Map can be generated
@@ -39,6 +44,26 @@ class Map {
     List<Flower> learningFlowers;
     /** All the flowers added to the map during runtime. */
     List<Flower> runningFlowers;
+    
+    /** The aromas of every flower on the map. */
+    private AromaStore aromaStore;
+    /** The spreader that computes the aroma fields of the map's flowers. */
+    private AromaSpreader aromaSpreader;
+    /** The neighbors of every tile, or null if they have not been computed
+     * for the map's current size. */
+    private Adjacency adjacency;
+    /** The type, light, and wind of every tile, as primitive arrays, or null
+     * if the map has not been given a size yet. */
+    private TileStore tileStore;
+    /** The id of the next flower created for the map. Ids are allocated per
+     * map, in the order flowers are created, so the flowers of a map have
+     * the same ids for the same seed or map file whatever else has run. */
+    private long nextFlowerId;
+    /** The fingerprints of the true tile states, indexed by tile index, or
+     * null if they have not been computed. */
+    private long[] fingerprints;
+    /** The version of the aroma store when fingerprints were computed. */
+    private long fingerprintsVersion;
 	
 	////////////////////////////////////////////////////////////////////////////
 	// Map Settings
@@ -71,6 +96,34 @@ class Map {
 	/** The expected number of additional flowers generated on a map during
 	 * runtime. */
 	private int expected_running_flowers;
+	/** The fraction of the land tiles of a random map that are seeded with a
+	 * flower during learning, or a negative number if the number of flowers
+	 * is given by expected_learning_flowers instead. */
+	private double flower_density;
+	
+	/** The user defined inclusive bounds of a random map's height. */
+	private int min_height;
+	private int max_height;
+	/** The user defined inclusive bounds of a random map's width. */
+	private int min_width;
+	private int max_width;
+	/** The user defined fraction of a random map's tiles that are not water.
+	 * @see danaus.Common#LAND_FRACTION */
+	private double land_fraction;
+	/** The user defined fraction of a random map's land that is forest.
+	 * @see danaus.Common#FOREST_FRACTION */
+	private double forest_fraction;
+	/** The user defined fraction of a random map's tiles that are cliffs.
+	 * @see danaus.Common#CLIFF_FRACTION */
+	private double cliff_fraction;
+	
+	/** The ideal minimum length of a cliff range. */
+	private int min_cliff_length;
+	/** The maximum length of a cliff range. This maximum is guaranteed. */
+	private int max_cliff_length;
+	/** Out of 1000, the probability that a land tile will be seeded with a
+	 * flower. */
+	private int flower_seed_probability;
 	
 
     /** True if aromas should be randomized. */
@@ -81,23 +134,24 @@ class Map {
     private double min_aroma_intensity;
     /** The user defined maximum aroma value. */
     private double max_aroma_intensity;
+    /** The smallest aroma intensity that can be detected. Aromas are not
+     * spread to tiles at which they fall below it. */
+    private double aroma_threshold;
 
-    /** Convenient indices into an XML cell generated from a map file.
-     * <br>
-     * If a map is generated from a map file, each tile is parsed from an XML
-     * cell. The cell contains different fields, each with a different index. 
-     * These indices can be used to extract the desired features from the XML
-     * cell. For example. cell[TYPE_INDEX] accesses the type of the cell while
-     * cell[AROMA_INDEX] accesses the aromas of the cell. */
-    private static final int TYPE_INDEX   = 0;
-    private static final int LIGHT_INDEX  = 1;
-    private static final int WIND_INDEX   = 2;
-    private static final int FLOWER_INDEX = 3;
-    private static final int AROMA_INDEX  = 4;
+    /** Conditions used by the neighbor queries of map generation, made once
+     * rather than on every query. */
+    private static final TileCondition NULLS = new TileConditions.Nulls();
+    private static final TileCondition OBSTACLES = new TileConditions.Obstacles();
+    private static final TileCondition LANDS = new TileConditions.Lands();
+    private static final int EAST_OR_WEST = 
+    		Adjacency.mask(new DirectionConditions.EastOrWest());
+    private static final int NORTH_OR_SOUTH = 
+    		Adjacency.mask(new DirectionConditions.NorthOrSouth());
+    private static final int CROSS = 
+    		Adjacency.mask(new DirectionConditions.Cross());
+    private static final int CORNERS = 
+    		Adjacency.mask(new DirectionConditions.Corners());
 
-    /** The actual number of forest tiles on the map. */
-	private int numForests;
-	
 	/** The seed used by rand. This seed can be printed and reused to replicate
      * random maps. */
     public int seed; 
@@ -118,42 +172,81 @@ class Map {
 		Debugger.DEBUG("Constructing randomly generated map...");
 		
 		this.park= park;
-		initInitialSettings();
-		initRandom();
-		initNormalize();
-		updateParkStateFly();
+		PhaseTimer.Phase previous = park.timer.enter(
+				PhaseTimer.Phase.GENERATION);
+		try {
+			initInitialSettings();
+			MapCache cache= MapCache.entry(context());
+			if (!initCached(cache)) {
+				long numTiles= park.state.numTiles;
+				initCommandLineSettings();
+				initRandom();
+				initNormalize();
+				saveCached(cache, park.state.numTiles - numTiles);
+			}
+			updateParkStateFly();
+		}
+		finally {
+			park.timer.leave(previous);
+		}
 		Debugger.DEBUG("Randomly generated map constructed.");
 	}
 	
 	/** Constructor: a map instance in <em>park</em> constructed from a map file
-     * <em>filename</em>.
+     * <em>filename</em>, which is either an XML map file or a binary map file.
 	 * 
 	 * Precondition: The filename is not null.
 	 *  
      * @param filename The filename of the map file from which the map is
      * constructed.  
-	 * @throws ParserConfigurationException 
+	 * @throws XMLStreamException 
 	 * @throws IOException 
-	 * @throws SAXException 
 	 */
 	Map(Park park, String filename) 
-            throws ParserConfigurationException, SAXException, IOException {
+            throws XMLStreamException, IOException {
 		Debugger.DEBUG("Parsing XML file...");
 		
 		this.park= park;
-		
-        DocumentBuilderFactory factory= DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder= factory.newDocumentBuilder();
-		Document document= builder.parse(filename);
-		Element map= document.getDocumentElement();
-		map.normalize();
-		
-		initInitialSettings();		
-		initSettings(map);
-		initTiles(map);
-		initRandom();
-		initNormalize();
-		updateParkStateFly();
+		PhaseTimer.Phase previous = park.timer.enter(
+				PhaseTimer.Phase.GENERATION);
+		try {
+			initInitialSettings();
+			MapCache cache= MapCache.entry(context(), filename);
+			if (!initCached(cache)) {
+				long numTiles= park.state.numTiles;
+				if (BinaryMap.isBinary(filename)) {
+					PhaseTimer.Phase generation = park.timer.enter(
+							PhaseTimer.Phase.PARSE);
+					try {
+						initBinary(filename);
+					}
+					finally {
+						park.timer.leave(generation);
+					}
+				}
+				else {
+					PhaseTimer.Phase generation = park.timer.enter(
+							PhaseTimer.Phase.PARSE);
+					MapFile map;
+					try {
+						map= MapFile.read(filename);
+					}
+					finally {
+						park.timer.leave(generation);
+					}
+					initSettings(map);
+					initCommandLineSettings();
+					initTiles(map);
+					initRandom();
+					initNormalize();
+				}
+				saveCached(cache, park.state.numTiles - numTiles);
+			}
+			updateParkStateFly();
+		}
+		finally {
+			park.timer.leave(previous);
+		}
 
 		Debugger.DEBUG("Map generated.");
 	}
@@ -165,8 +258,8 @@ class Map {
 	private void initInitialSettings() {
 		Debugger.DEBUG("Initializing Initial Settings...");
 		
-		if (null != Common.SEED) {
-			seed= Common.SEED;
+		if (null != context().seed) {
+			seed= context().seed;
 		}
 		else {
 			seed= new Randomer().nextInt();
@@ -182,18 +275,28 @@ class Map {
 		max_light     = 0;
 	
 		randomWind   = true;
-		default_wind = new Wind(0, Direction.N);
+		default_wind = Wind.valueOf(0, Direction.N);
 		min_wind     = 0;
 		max_wind     = 0;
 		
 		randomFlowers    = true;
 		expected_learning_flowers = 50;
 		expected_running_flowers = 10;
+		flower_density = -1;
+		
+		min_height      = Common.MIN_HEIGHT;
+		max_height      = Common.MAX_HEIGHT;
+		min_width       = Common.MIN_WIDTH;
+		max_width       = Common.MAX_WIDTH;
+		land_fraction   = Common.LAND_FRACTION;
+		forest_fraction = Common.FOREST_FRACTION;
+		cliff_fraction  = Common.CLIFF_FRACTION;
 		
 		randomAromaIntensity    = true;
 		default_aroma_intensity = Common.AROMA_INTENSITY;
 		min_aroma_intensity     = Common.AROMA_INTENSITY;
 		max_aroma_intensity     = Common.AROMA_INTENSITY;
+		aroma_threshold         = Common.MIN_AROMA_INTENSITY;
 		
 		learningFlowerPositions = new ArrayList<Position>();
 		runningFlowerPositions = new ArrayList<Position>();
@@ -201,62 +304,127 @@ class Map {
 		runningFlowers = new ArrayList<Flower>();
 	}
 	
-	/** Parse the main map XML element from a map file and initializes a map's
-	 * settings. Each individual setting (e.g. wind, light) is parsed and passed
-	 * to a helper initialization method. If at any point during the
-	 * initialization, bad user data is detected, default values are used; the
-	 * initialization should not throw any errors.
+	/** Initialize a map's settings from the settings elements of a map file.
+	 * Each individual setting (e.g. wind, light) is passed to a helper
+	 * initialization method. If at any point during the initialization, bad
+	 * user data is detected, default values are used; the initialization
+	 * should not throw any errors.
 	 * 
-	 * @param map Map XML element parsed from a map file.
+	 * @param map The contents of a map file.
 	 */
-	private void initSettings(Element map) {
+	private void initSettings(MapFile map) {
 		Debugger.DEBUG("Initializing Settings...");
 		Debugger.NULL_CHECK(map, "null map in initSettings()!");
 		
-		// Parse out individual setting elements
-		NodeList skinElements    = map.getElementsByTagName("skin");
-		NodeList lightElements   = map.getElementsByTagName("light");
-		NodeList windElements    = map.getElementsByTagName("wind");
-		NodeList flowersElements = map.getElementsByTagName("flowers");
-		NodeList aromaElements   = map.getElementsByTagName("aroma");
-		
 		// Initialize each setting
-		initSkinSettings(skinElements);
-		initLightSettings(lightElements);
-		initWindSettings(windElements);
-		initFlowersSettings(flowersElements);
-		initAromaSettings(aromaElements);
+		initSkinSettings(map);
+		initLightSettings(map);
+		initWindSettings(map);
+		initFlowersSettings(map);
+		initAromaSettings(map);
+		initTerrainSettings(map);
+	}
+	
+	/** Override map settings with the settings given on the command line,
+	 * as the map's simulation context holds them. Command line settings take
+	 * precedence over both the defaults and the settings of a map file. */
+	private void initCommandLineSettings() {
+		SimulationContext context= context();
+		if (null != context.aromaThreshold) {
+			aroma_threshold= context.aromaThreshold;
+		}
+		if (null != context.mapHeight) {
+			min_height= max_height= context.mapHeight;
+		}
+		if (null != context.mapWidth) {
+			min_width= max_width= context.mapWidth;
+		}
+		if (null != context.landFraction) {
+			land_fraction= context.landFraction;
+		}
+		if (null != context.forestFraction) {
+			forest_fraction= context.forestFraction;
+		}
+		if (null != context.cliffFraction) {
+			cliff_fraction= context.cliffFraction;
+		}
+		if (null != context.flowerDensity) {
+			flower_density= context.flowerDensity;
+		}
+		validateTerrainSettings();
+	}
+	
+	/** Replace any terrain setting that cannot generate a map with its
+	 * default, with a warning. A map's height and width must be at least 1,
+	 * each minimum must be at most its maximum, and the largest map must have
+	 * at most Common.MAX_TILES tiles. Every fraction must lie in 0..1, and
+	 * some of a map must be land. */
+	private void validateTerrainSettings() {
+		if (min_height < 1 || min_height > max_height) {
+			Debugger.WARNING("invalid map height " + min_height + ".." + 
+					max_height + "!");
+			min_height= Common.MIN_HEIGHT;
+			max_height= Common.MAX_HEIGHT;
+		}
+		if (min_width < 1 || min_width > max_width) {
+			Debugger.WARNING("invalid map width " + min_width + ".." + 
+					max_width + "!");
+			min_width= Common.MIN_WIDTH;
+			max_width= Common.MAX_WIDTH;
+		}
+		if ((long) max_height * max_width > Common.MAX_TILES) {
+			Debugger.WARNING("map of " + max_height + "x" + max_width + 
+					" has more than " + Common.MAX_TILES + " tiles!");
+			min_height= Common.MIN_HEIGHT;
+			max_height= Common.MAX_HEIGHT;
+			min_width= Common.MIN_WIDTH;
+			max_width= Common.MAX_WIDTH;
+		}
+		if (!(land_fraction > 0 && land_fraction <= 1)) {
+			Debugger.WARNING("invalid land fraction " + land_fraction + "!");
+			land_fraction= Common.LAND_FRACTION;
+		}
+		if (!(forest_fraction >= 0 && forest_fraction <= 1)) {
+			Debugger.WARNING("invalid forest fraction " + forest_fraction + "!");
+			forest_fraction= Common.FOREST_FRACTION;
+		}
+		if (!(cliff_fraction >= 0 && cliff_fraction <= 1)) {
+			Debugger.WARNING("invalid cliff fraction " + cliff_fraction + "!");
+			cliff_fraction= Common.CLIFF_FRACTION;
+		}
+		if (flower_density > 1) {
+			Debugger.WARNING("invalid flower density " + flower_density + "!");
+			flower_density= -1;
+		}
 	}
 	
-	/** Initialize skin settings parsed from a map XML element.
+	/** Initialize skin settings parsed from a map file's skin element.
 	 * 
-	 * @param skinElements A nodelist of skin elements. Should contain either
-	 * none or one element.
+	 * @param map The contents of a map file. Only its first skin element is
+	 * used.
 	 */
-	private void initSkinSettings(NodeList skinElements) {
+	private void initSkinSettings(MapFile map) {
 		Debugger.DEBUG("Initializing Skin Settings...");
 	
-		if (skinElements == null || skinElements.getLength() == 0) {
+		if (!map.hasSettings("skin")) {
 			return;
 		}
 		
-		skin= skinElements.item(0).getTextContent().trim();
+		skin= map.text("skin").trim();
 	}
 	
-	/** @see danaus.Map#initSkinSettings(NodeList) */
-	private void initLightSettings(NodeList lightElements) {
+	/** @see danaus.Map#initSkinSettings(MapFile) */
+	private void initLightSettings(MapFile map) {
 		Debugger.DEBUG("Initializing Light Settings...");
 
-		if (lightElements == null || lightElements.getLength() == 0) {
+		if (!map.hasSettings("light")) {
 			return;
 		}
 		
-		Element light = (Element) lightElements.item(0);
-		
-		String random = Common.get_text_by_tag_name(light, "random");
-		String def    = Common.get_text_by_tag_name(light, "default");
-		String min    = Common.get_text_by_tag_name(light, "min");
-		String max    = Common.get_text_by_tag_name(light, "max");
+		String random = map.text("light", "random");
+		String def    = map.text("light", "default");
+		String min    = map.text("light", "min");
+		String max    = map.text("light", "max");
 		
 		randomLight= Common.isNotNo(random);
 		default_light= Common.intValueOf(def, default_light, "invalid def light!");
@@ -264,20 +432,18 @@ class Map {
 		max_light= Common.intValueOf(max, max_light, "invalid maximum light!");
 	}
 	
-	/** @see danaus.Map#initSkinSettings(NodeList) */
-	private void initWindSettings(NodeList windElements) {
+	/** @see danaus.Map#initSkinSettings(MapFile) */
+	private void initWindSettings(MapFile map) {
 		Debugger.DEBUG("Initializing Wind Settings...");
 		
-		if (windElements == null || windElements.getLength() == 0) {
+		if (!map.hasSettings("wind")) {
 			return;
 		}
 		
-		Element wind  = (Element) windElements.item(0);
-		
-		String random = Common.get_text_by_tag_name(wind, "random");
-		String def    = Common.get_text_by_tag_name(wind, "default");
-		String min    = Common.get_text_by_tag_name(wind, "min");
-		String max    = Common.get_text_by_tag_name(wind, "max");
+		String random = map.text("wind", "random");
+		String def    = map.text("wind", "default");
+		String min    = map.text("wind", "min");
+		String max    = map.text("wind", "max");
 		
 		randomWind= Common.isNotNo(random);
 		default_wind= Common.windValueOf(def, default_wind, "invalid def wind!");
@@ -285,43 +451,83 @@ class Map {
 		max_wind= Common.intValueOf(max, max_wind, "invalid maximum wind!");
 	}
 	
-	/** @see danaus.Map#initSkinSettings(NodeList) */
-	private void initFlowersSettings(NodeList flowersElements) {
+	/** @see danaus.Map#initSkinSettings(MapFile) */
+	private void initFlowersSettings(MapFile map) {
 		Debugger.DEBUG("Initializing Flowers Settings...");
 
-		if (flowersElements == null || flowersElements.getLength() == 0) {
+		if (!map.hasSettings("flowers")) {
 			return;
 		}
 		
-		Element flowers= (Element) flowersElements.item(0);
-		
-		String random   = Common.get_text_by_tag_name(flowers, "random");
+		String random   = map.text("flowers", "random");
 		String expected_learning= 
-            Common.get_text_by_tag_name(flowers, "expected_learning");
+            map.text("flowers", "expected_learning");
 		String expected_running= 
-            Common.get_text_by_tag_name(flowers, "expected_running");
+            map.text("flowers", "expected_running");
+		String density  = map.text("flowers", "density");
 		
 		randomFlowers= Common.isNotNo(random);
 		expected_learning_flowers= Common.intValueOf(expected_learning, 
 				expected_learning_flowers, "invalid expected flowers!");
 		expected_running_flowers= Common.intValueOf(expected_running, 
 				expected_running_flowers, "invalid expected flowers!");
+		flower_density= Common.doubleValueOf(density, flower_density,
+				"invalid flower density!");
 	}
 	
-	/** @see danaus.Map#initSkinSettings(NodeList) */
-	private void initAromaSettings(NodeList aromaElements) {
-		Debugger.DEBUG("Initializing Aroma Settings...");
+	/** Initialize the terrain settings of a random map parsed from a map XML
+	 * element. A height or width sets both the minimum and maximum; a minimum
+	 * or maximum given as well overrides it.
+	 * 
+	 * @see danaus.Map#initSkinSettings(MapFile) */
+	private void initTerrainSettings(MapFile map) {
+		Debugger.DEBUG("Initializing Terrain Settings...");
 		
-		if (aromaElements == null || aromaElements.getLength() == 0) {
+		if (!map.hasSettings("terrain")) {
 			return;
 		}
 		
-		Element aroma = (Element) aromaElements.item(0);
+		String h      = map.text("terrain", "height");
+		String w      = map.text("terrain", "width");
+		String min_h  = map.text("terrain", "min_height");
+		String max_h  = map.text("terrain", "max_height");
+		String min_w  = map.text("terrain", "min_width");
+		String max_w  = map.text("terrain", "max_width");
+		String land   = map.text("terrain", "land");
+		String forest = map.text("terrain", "forest");
+		String cliff  = map.text("terrain", "cliff");
+		
+		if (h != null) {
+			min_height= max_height= Common.intValueOf(h, min_height, "invalid height!");
+		}
+		if (w != null) {
+			min_width= max_width= Common.intValueOf(w, min_width, "invalid width!");
+		}
+		min_height= Common.intValueOf(min_h, min_height, "invalid minimum height!");
+		max_height= Common.intValueOf(max_h, max_height, "invalid maximum height!");
+		min_width= Common.intValueOf(min_w, min_width, "invalid minimum width!");
+		max_width= Common.intValueOf(max_w, max_width, "invalid maximum width!");
+		land_fraction= Common.doubleValueOf(land, land_fraction, 
+				"invalid land fraction!");
+		forest_fraction= Common.doubleValueOf(forest, forest_fraction, 
+				"invalid forest fraction!");
+		cliff_fraction= Common.doubleValueOf(cliff, cliff_fraction, 
+				"invalid cliff fraction!");
+	}
+	
+	/** @see danaus.Map#initSkinSettings(MapFile) */
+	private void initAromaSettings(MapFile map) {
+		Debugger.DEBUG("Initializing Aroma Settings...");
+		
+		if (!map.hasSettings("aroma")) {
+			return;
+		}
 		
-		String random = Common.get_text_by_tag_name(aroma, "random");
-		String def    = Common.get_text_by_tag_name(aroma, "default");
-		String min    = Common.get_text_by_tag_name(aroma, "min");
-		String max    = Common.get_text_by_tag_name(aroma, "max");
+		String random = map.text("aroma", "random");
+		String def    = map.text("aroma", "default");
+		String min    = map.text("aroma", "min");
+		String max    = map.text("aroma", "max");
+		String threshold = map.text("aroma", "threshold");
 		
 		randomAromaIntensity = Common.isNotNo(random);
 		default_aroma_intensity = 
@@ -330,95 +536,65 @@ class Map {
             Common.doubleValueOf(min, min_aroma_intensity,"invalid min aroma!");
 		max_aroma_intensity = 
             Common.doubleValueOf(max, max_aroma_intensity,"invalid max aroma!");
+		aroma_threshold = Common.doubleValueOf(threshold, aroma_threshold,
+				"invalid aroma threshold!");
 	}
 	
-	/**Extract and formats the text content of a map file, then passes it on to
-	 * be parsed. The main text element of the map file contains all the 
-	 * information about the tiles in the map.
+	/** Initialize the map's tiles from the tiles of a map file, if it has
+	 * any. The tiles of a map file are the text of its main element.
 	 * 
-	 * @param map Map XML element.
+	 * @param map The contents of a map file.
 	 */
-	private void initTiles(Element map) {
+	private void initTiles(MapFile map) {
 		Debugger.DEBUG("Initializing Tiles...");
 		Debugger.NULL_CHECK(map, "null map in initTiles!");
 		
-		/* Extracting the text we're interested in can be tricky. Simply 
-		 * requesting the text content of the root element returns the text of
-		 * the entire XML file. Instead, we must iterate through the children
-		 * elements and extract only the text of text elements. */
-		String text= "";
-		NodeList children= map.getChildNodes();
-		
-		for (int i= 0; i < children.getLength(); i++) {
-			Node child= children.item(i);
-			if (child.getNodeType() == Node.TEXT_NODE) {
-				text += child.getTextContent().trim(); 
-			}
-		}
-		
 		/* Map files without text create randomly generated maps. We leave the
 		 * tiles array null; it will be randomly generated later. */
-		if (!text.isEmpty()) {
-			parseTiles(text);
+		if (map.hasTiles()) {
+			parseTiles(map);
 		}
 	}
 	
-	/** Parse the text of a map XML element and initializes map tiles. The text
-	 * is parsed into cells. The cell is then broken up into fields and each
-	 * field is passed to its corresponding parse function. Then, everything
-	 * is put together and a tile is created.
+	/** Initialize map tiles from the tiles of a map file. The fields of each
+	 * tile were parsed as the file was read; each is passed to its
+	 * corresponding parse function, which fills in what the tile left out.
+	 * Then, everything is put together and a tile is created. The map is as
+	 * wide as its widest row; all non-specified tiles are turned to water.
 	 * 
-	 * @param mapText The text of a map XML element.
+	 * @param map The contents of a map file.
 	 */
-	private void parseTiles(String mapText) {
+	private void parseTiles(MapFile map) {
 		Debugger.DEBUG("Initializing Tiles from text...");
-		Debugger.NULL_CHECK(mapText, "null mapText in parseTiles!");
+		Debugger.NULL_CHECK(map, "null map in parseTiles!");
 	
 		/* The information to be parsed from a single tile. */
 		int light;
 		Wind wind;
-		List<Double> aromaIntensities;
 		List<Flower> flowers;
 		TileState tileState;
 	
-		/* The map's text must first be parsed to find the width and height of
-		 * the map so that the proper sized array can be allocated. */
-		tiles = allocateTiles(mapText);
-		Common.FLOWER_SEED_PROBABILITY = (int) ((1000.0 * expected_learning_flowers) / 
-				(height * width));
-		
-		/* Parse the text with a combination of Scanners and regular
-		 * expressions. Scanners are used to extract rows and regular 
-		 * expressions are used to extract tiles. The row and column of each
-		 * tile is tracked so that it can be accurately inserted into the tiles
-		 * array. The Scanners are initialized with a semicolon delimiter: the 
-		 * row delimiter in a map file. The regular expression matches any text
-		 * beginning with a tile token followed by anything that's not a tile
-		 * token or whitespace. */
-		Scanner mapScanner = new Scanner(mapText);    
-		mapScanner.useDelimiter("\\s*;\\s*");
-		String tokens = String.valueOf(Common.LAND_TOKEN) + Common.WATER_TOKEN + Common.FOREST_TOKEN + Common.CLIFF_TOKEN;
-		Pattern tilePattern = Pattern.compile("[" + tokens + "][^\\s," + tokens + "]*");
-
+		height = map.height();
+		width  = map.width();
+		tiles = new Tile[height][width];
+		if (flower_density >= 0) {
+			flower_seed_probability = (int) (1000.0 * flower_density);
+		}
+		else {
+			flower_seed_probability = (int) ((1000.0 * expected_learning_flowers) / 
+					(height * width));
+		}
+		
 		/* Iterate through the rows of the map */
-		for (int row = 0; mapScanner.hasNext(); row++) {
-			String rowText = mapScanner.next();
-			Matcher tileMatcher = tilePattern.matcher(rowText);
-			
+		for (int row = 0; row < height; row++) {
 			/* Iterate through the tiles of a row. */
-			for (int col= 0; tileMatcher.find(); col++) {
-				/* group() extracts the previously found text: a tile. Tile
-				 * fields are separated by '.' characters. */
-				String tileText = tileMatcher.group();
-				String fields[] = tileText.split("\\s*\\.\\s*");
-						
-				light = parseLight(fields);
-				wind  = parseWind(fields);
-				aromaIntensities = parseAromaIntensities(fields);
-				flowers   = parseFlowers(fields, row, col, aromaIntensities, 
-						Common.FLOWER_SEED_PROBABILITY);
+			for (int col= 0; col < map.length(row); col++) {
+				int t = map.tile(row, col);
+				light = parseLight(map, t);
+				wind  = parseWind(map, t);
+				flowers   = parseFlowers(map, t, row, col, flower_seed_probability);
 				tileState = new TileState(new Position(row, col).toLocation(), light, wind, flowers);
-				tiles[row][col] = parseTile(fields, tileState);
+				set(new Position(row, col), parseTile(map, t, tileState));
 				if (tiles[row][col].flyable) {
 					park.state.numTiles++;
 				}
@@ -426,150 +602,50 @@ class Map {
 		}
 
 		nullToWater();
-		mapScanner.close();
-	}
-
-	/** Parse the text from a map file and allocates a two dimensional array
-	 * of tiles with the correct width and height. The map must be scanned in 
-	 * full to find the number of rows and the width of the widest row. The
-	 * width of the widest row determines the width of the board. All non-
-	 * specified tiles are turned to water.
-	 * 
-	 * @param mapText The text from a map file.
-	 * @return A tile array with correct dimensions.
-	 */
-	private Tile[][] allocateTiles(String mapText) {
-		Debugger.DEBUG("Allocating Tiles...");
-		Debugger.NULL_CHECK(mapText, "null mapText in allocateTiles!");
-		
-		/* mapScanner scans a map text and outputs rows using the row delimiter:
-		 * ';'. */
-		Scanner mapScanner = new Scanner(mapText);
-		mapScanner.useDelimiter("\\s*;\\s*");
-		height = 0;
-		width  = 0; 
-		
-		/* Each iteration of the loop is another row in the map, so we increment
-		 * the height. The number of columns in each row is the number of 
-		 * unique cells, or tokens. */
-		while (mapScanner.hasNext()) {
-			height++;
-			
-			String row = mapScanner.next();
-			int landCount   = Common.numberOfOccurrences(row, Common.LAND_TOKEN);
-			int waterCount  = Common.numberOfOccurrences(row, Common.WATER_TOKEN);
-			int forestCount = Common.numberOfOccurrences(row, Common.FOREST_TOKEN);
-			int cliffCount  = Common.numberOfOccurrences(row, Common.CLIFF_TOKEN);
-			int count = landCount + waterCount + forestCount + cliffCount;
-			width = Math.max(width, count);
-		}
-		
-		mapScanner.close();
-		return new Tile[height][width];
 	}
 	
-	/** Parse the light field from a tile's fields. If the field is not present,
-	 * the value returned is either unspecified, if a random value is to be
-	 * generated later, or the default value. 
+	/** Return the light of tile t of a map file. If the tile gives no valid
+	 * light, the value returned is either unspecified, if a random value is
+	 * to be generated later, or the default value. 
 	 * 
-	 * @param fields The fields of a map tile.
+	 * @param map The contents of a map file.
+	 * @param t The number of a tile of map.
 	 * @return The light of a map tile.
 	 * @see danaus.Map#initTiles
 	 */
-	private int parseLight(String fields[]) {
-		Debugger.NULL_CHECK(fields, "null fields in parseLight()!");
-	
-		/* If the light index is larger than the size of fields, a light value
-		 * was not specified. */
-		if (LIGHT_INDEX > fields.length - 1) {
-			return getLight();
-		}
-		
-		Integer light = getLight();
-		light = Common.intValueOf(fields[LIGHT_INDEX].trim(), light, 
-				"invalid light entry in parseLight!");
-		return light;
+	private int parseLight(MapFile map, int t) {
+		return map.hasLight(t) ? map.light(t) : getLight();
 	}
 	
-	/** Parse the wind field from a tile's fields. If the field is not present,
-	 * the value returned is either unspecified, if a random value is to be
-	 * generated later, or the default value. 
+	/** Return the wind of tile t of a map file. If the tile gives no valid
+	 * wind, the value returned is either unspecified, if a random value is
+	 * to be generated later, or the default value. 
 	 * 
-	 * @param fields The fields of a map tile.
+	 * @param map The contents of a map file.
+	 * @param t The number of a tile of map.
 	 * @return The wind of a map tile.
 	 * @see danaus.Map#initTiles
 	 */
-	private Wind parseWind(String fields[]) {		
-		Debugger.NULL_CHECK(fields, "null fields in parseWind()");
-
-		/* If the wind index is larger than the size of fields, a wind value
-		 * was not specified.*/
-		if (WIND_INDEX > fields.length - 1) {
-			return getWind();
-		}
-		
-		/* Parse the wind and catch any exceptions. */
-		Wind wind = getWind();
-		wind = Common.windValueOf(fields[WIND_INDEX], wind, "invalid wind entry in parseWind!");
-		return wind;
-	}
-	
-	/** Parse the aromas field from a tile's fields. If the field is not present,
-	 * the value returned is unspecified.
-	 * 
-	 * @param fields A fields array.
-	 * @return Aromas
-	 * @see danaus.Map#initTiles
-	 */
-	private List<Double> parseAromaIntensities(String fields[]) {		
-		Debugger.NULL_CHECK(fields, "null fields in parseAromaIntensities()");
-		
-		/* If the aromas index is larger than the size of fields, an aromas
-		 * value was not specified. Unlike the other parse methods, a default
-		 * value cannot be returned. We don't know the number of aromas
-		 * to generated. Instead, we return UNSPECIFIED_AROMAS and have
-		 * another method determine what to do. */
-		if (AROMA_INDEX > fields.length - 1) {
-			return null;
-		}
-		
-		// untreated aroma string (e.g. 20-20-21)
-		String aromasString = fields[AROMA_INDEX];
-		// list of individual aroma strings
-		String aromasStrings[] = aromasString.split("\\s*-\\s*");
-		// list of actual aroma intensities
-		List<Double> aromasDoubles = new ArrayList<Double>();
-		
-		// attempt to parse each aroma
-		for (String aroma : aromasStrings) {
-			try {
-				Double aromaIntensity = Math.max(0, Double.parseDouble(aroma));
-				aromasDoubles.add(aromaIntensity);
-			}
-			catch (NumberFormatException e) {}
-		}
-		
-		return aromasDoubles;
+	private Wind parseWind(MapFile map, int t) {
+		return map.hasWind(t) ? map.wind(t) : getWind();
 	}
 	
-	/** Parse the flowers field from a tile's fields. If the field is not 
-	 * present, the value returned is unspecified. The values in the flowers
-	 * field are the suffixes of the flowers' names. They are prepended with
-	 * the word "flower_".
+	/** Return the flowers of tile t of a map file. If the tile does not give
+	 * its flowers, a random flower may be generated. The flowers given are
+	 * named by the suffixes of the flowers' names, prepended with the word
+	 * "flower_", and each is matched with the aroma intensity given in the
+	 * same place, if any.
 	 * 
-	 * @param fields A fields array. 
+	 * @param map The contents of a map file.
+	 * @param t The number of a tile of map.
 	 * @param row The row of the flower.
 	 * @param column The column of the flower.
-	 * @param aromaIntensities A list of associated aroma intensities. 
 	 * @return Flowers
 	 * @see danaus.Map#initTiles
 	 */
-	private List<Flower> parseFlowers(String fields[], int row, int column, 
-			List<Double> aromaIntensities, int probability) {		
-		Debugger.NULL_CHECK(fields, "null fields in parseFlowers!");
-		
-
-		if (FLOWER_INDEX > fields.length - 1) {
+	private List<Flower> parseFlowers(MapFile map, int t, int row, int column, 
+			int probability) {
+		if (!map.hasFlowers(t)) {
 			if (randomFlowers && rand.nextBoolean(probability)) {
 				List<Flower> flowers = new ArrayList<Flower>();
 				Position flowerPos = new Position(row, column);
@@ -580,85 +656,645 @@ class Map {
 			return new ArrayList<Flower>();
 		}
 		
-		/* If a flowers field does exist, attempt to match each with it's
-		 * corresponding aroma. */
-		// raw flower string (e.g. 1-2-34)
-		String flowersString = fields[FLOWER_INDEX];
-		String flowersStrings[] = flowersString.split("\\s*-\\s*");
-		List<Flower> flowers = new ArrayList<Flower>();
+		List<Flower> flowers = new ArrayList<Flower>(map.flowerCount(t));
 		Position position = new Position(row, column);
 		
-		/* Iterate through each suffix and construct a flower. */
-		int i = 0;
-		for (String nameSuffix : flowersStrings) {
-			String name = "flower_" + nameSuffix;
+		/* Construct each flower. If an aroma is specified in the aromas
+		 * field, use it. Otherwise, choose a random or default value. */
+		for (int i = 0; i < map.flowerCount(t); i++) {
 			double intensity;
-			
-			/* If an aroma is specified in the aromas field, use it. Otherwise,
-			 * choose a random or default value. */
-			if (aromaIntensities == null || i > aromaIntensities.size() - 1) {
-				intensity = getAromaIntensity();
+			if (i < map.aromaCount(t)) {
+				intensity = map.aroma(t, i);
 			}
 			else {
-				intensity = aromaIntensities.get(i);
+				intensity = getAromaIntensity();
 			}
 			
-			Flower flower = new Flower(name, position.toLocation(), intensity);
+			Flower flower = newFlower(map.flowerName(t, i), 
+					position.toLocation(), intensity);
 			flowers.add(flower);
-			i++;
 		}
 		
 		return flowers;
 	}
 	 
-	/** Create a tile instance from the fields parsed from a map file.
+	/** Create a tile instance from tile t of a map file.
 	 * 
-	 * @param fields A fields array. 
+	 * @param map The contents of a map file.
+	 * @param t The number of a tile of map.
 	 * @param tileState The tile's state
 	 * @return A tile
 	 * @see danaus.Map#initTiles
 	 */
-	private Tile parseTile(String[] fields, TileState tileState) {		
-		Debugger.NULL_CHECK(fields, "null fields in parseTile!");
-		/* Tile type is mandatory, unlike other fields. */
-		if (TYPE_INDEX > fields.length - 1) {
-			Debugger.ERROR("no type field in fields");
-			throw new IllegalArgumentException();
-		}
-		
-		String type = fields[TYPE_INDEX].trim();
-
-		/* A butterfly may be specified within the tile's type. An index that
-		 * is not -1 signifies that a butterfly was specified. */
-		if (type.indexOf(Common.BUTTERFLY_TOKEN) != -1) {
+	private Tile parseTile(MapFile map, int t, TileState tileState) {		
+		/* The butterfly may be specified within the tile's type. */
+		if (map.hasButterfly(t)) {
 			butterflyStart = new Position(tileState.location);
-			type = type.replace(Common.BUTTERFLY_TOKEN, "");
 		}
 		
-		/* Dispatch on the tile's type and construct the tile. */
+		/* Dispatch on the tile's type and construct the tile. A type that is
+		 * not a tile token was warned of as the file was read. */
+		TileType type = map.type(t);
+		if (type == null) {
+			return new Land(skin, tileState);
+		}
 		switch (type) {
-			case Common.LAND_TOKEN:
+			case LAND:
 				learningFlowers.addAll(tileState.flowers);
 				for (Flower f : tileState.flowers) {
 					learningFlowerPositions.add(new Position(f.location));
 				}
 				return new Land(skin, tileState);
-			case Common.WATER_TOKEN:
+			case WATER:
 				tileState.flowers = new ArrayList<Flower>();
 				return new Water(skin, tileState);
-			case Common.FOREST_TOKEN:
+			case FOREST:
 				learningFlowers.addAll(tileState.flowers);
 				for (Flower f : tileState.flowers) {
 					learningFlowerPositions.add(new Position(f.location));
 				}
 				return new Forest(skin, tileState);
-			case Common.CLIFF_TOKEN:
+			default:
 				tileState.flowers = new ArrayList<Flower>();
 				return new Cliff(skin, tileState);
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// Caching
+	////////////////////////////////////////////////////////////////////////////
+	
+	/** Initialize the map from the map cached in entry cache, in place of
+	 * parsing and generating it, and initialize its butterfly. Return false,
+	 * leaving the map as initInitialSettings() left it, if cache is null or
+	 * holds no usable map.
+	 * @see danaus.MapCache */
+	private boolean initCached(MapCache cache) {
+		if (cache == null) {
+			return false;
+		}
+		
+		PhaseTimer.Phase previous = park.timer.enter(PhaseTimer.Phase.CACHE);
+		try {
+			byte map[] = cache.read();
+			if (map == null) {
+				return false;
+			}
+			
+			Debugger.DEBUG("Reading map from " + cache.file + "...");
+			try {
+				readCache(new DataInputStream(new ByteArrayInputStream(map)));
+			}
+			catch (IOException | RuntimeException e) {
+				Debugger.WARNING("ignoring unreadable map cache entry " + 
+						cache.file + ": " + e);
+				tiles = null;
+				butterflyStart = null;
+				tileStore = null;
+				aromaStore = null;
+				aromaSpreader = null;
+				nextFlowerId = 0;
+				initInitialSettings();
+				return false;
+			}
+			initButterfly();
+			return true;
+		}
+		finally {
+			park.timer.leave(previous);
+		}
+	}
+	
+	/** Cache this fully initialized map in entry cache, if it is not null.
+	 * numTiles is the number of flyable tiles the map added to its park's
+	 * state. */
+	private void saveCached(MapCache cache, long numTiles) {
+		if (cache == null) {
+			return;
+		}
+		
+		Debugger.DEBUG("Writing map to " + cache.file + "...");
+		PhaseTimer.Phase previous = park.timer.enter(PhaseTimer.Phase.CACHE);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeCache(out, numTiles);
+			out.flush();
+			cache.write(bytes.toByteArray());
+		}
+		catch (IOException e) {
+			Debugger.WARNING("cannot cache map in " + cache.file + ": " + e);
+		}
+		finally {
+			park.timer.leave(previous);
+		}
+	}
+	
+	/** Write this fully initialized map to out: its settings, its tiles and
+	 * their flowers, the state of its randomizer, and its aroma fields.
+	 * Everything else about the map is derived from these when it is read.
+	 * numTiles is the number of flyable tiles the map added to its park's
+	 * state.
+	 * @see danaus.Map#readCache(DataInputStream) */
+	private void writeCache(DataOutputStream out, long numTiles) 
+			throws IOException {
+		writeSettings(out);
+		
+		/* Tiles */
+		out.writeInt(seed);
+		out.writeInt(height);
+		out.writeInt(width);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				TileState state = tiles[row][col].tileState;
+				out.writeByte(tiles[row][col].getType().ordinal());
+				out.writeInt(state.light);
+				out.writeInt(state.wind.intensity);
+				out.writeByte(state.wind.direction.ordinal());
+				out.writeInt(state.flowers.size());
+				for (Flower flower : state.flowers) {
+					out.writeUTF(flower.getName().substring(
+							Flower.IMAGE_DIRECTORY.length()));
+					out.writeInt(flower.location.col);
+					out.writeInt(flower.location.row);
+					out.writeDouble(flower.aromaIntensity);
+					out.writeLong(flower.getFlowerId());
+				}
+			}
+		}
+		out.writeInt(butterflyStart.row);
+		out.writeInt(butterflyStart.col);
+		
+		/* Flowers */
+		writePositions(out, learningFlowerPositions);
+		writePositions(out, runningFlowerPositions);
+		writeFlowers(out, learningFlowers);
+		writeFlowers(out, runningFlowers);
+		out.writeLong(nextFlowerId);
+		out.writeLong(numTiles);
+		
+		/* The randomizer, which runtime flowers are still drawn from */
+		out.writeLong(rand.getState());
+		
+		/* Aromas */
+		List<AromaField> fields = aromaStore.fields();
+		out.writeInt(fields.size());
+		for (AromaField field : fields) {
+			out.writeLong(field.flower.getFlowerId());
+			field.write(out);
+		}
+		out.writeBoolean(aromaStore.hasWindDeltas());
+	}
+	
+	/** Read the map written to in by writeCache(...), except for its
+	 * butterfly.
+	 * @see danaus.Map#writeCache(DataOutputStream, long) */
+	private void readCache(DataInputStream in) throws IOException {
+		readSettings(in);
+		
+		/* Tiles */
+		seed = in.readInt();
+		height = in.readInt();
+		width = in.readInt();
+		tiles = new Tile[height][width];
+		java.util.Map<Long, Flower> flowers = new HashMap<Long, Flower>();
+		TileType types[] = TileType.values();
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				TileType type = types[in.readByte()];
+				int light = in.readInt();
+				Wind wind = Wind.valueOf(in.readInt(), 
+						Common.DIRECTIONS[in.readByte()]);
+				List<Flower> tileFlowers = new ArrayList<Flower>();
+				for (int n = in.readInt(); n > 0; n--) {
+					String name = in.readUTF();
+					Location loc = new Location(in.readInt(), in.readInt());
+					Flower flower = new Flower(name, loc, in.readDouble(), 
+							in.readLong());
+					tileFlowers.add(flower);
+					flowers.put(flower.getFlowerId(), flower);
+				}
+				
+				Position p = new Position(row, col);
+				set(p, newTile(type, new TileState(p.toLocation(), light, wind, 
+						tileFlowers)));
+			}
+		}
+		butterflyStart = new Position(in.readInt(), in.readInt());
+		
+		/* Flowers */
+		learningFlowerPositions = readPositions(in);
+		runningFlowerPositions = readPositions(in);
+		learningFlowers = readFlowers(in, flowers);
+		runningFlowers = readFlowers(in, flowers);
+		nextFlowerId = in.readLong();
+		long numTiles = in.readLong();
+		
+		/* The randomizer */
+		rand = new Randomer();
+		rand.setState(in.readLong());
+		
+		/* Aromas */
+		initAromaStore();
+		AromaField fields[] = new AromaField[in.readInt()];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = AromaField.read(in, readFlower(in, flowers));
+		}
+		aromaStore.add(fields);
+		if (in.readBoolean()) {
+			aromaStore.setWindDeltas(windDeltas());
+		}
+		
+		park.state.numTiles += numTiles;
+	}
+	
+	/** Write the settings of this map to out.
+	 * @see danaus.Map#readSettings(DataInput) */
+	private void writeSettings(DataOutput out) throws IOException {
+		out.writeUTF(skin);
+		out.writeBoolean(randomLight);
+		out.writeInt(default_light);
+		out.writeInt(min_light);
+		out.writeInt(max_light);
+		out.writeBoolean(randomWind);
+		out.writeInt(default_wind.intensity);
+		out.writeInt(default_wind.direction.ordinal());
+		out.writeInt(min_wind);
+		out.writeInt(max_wind);
+		out.writeBoolean(randomFlowers);
+		out.writeInt(expected_learning_flowers);
+		out.writeInt(expected_running_flowers);
+		out.writeDouble(flower_density);
+		out.writeInt(min_height);
+		out.writeInt(max_height);
+		out.writeInt(min_width);
+		out.writeInt(max_width);
+		out.writeDouble(land_fraction);
+		out.writeDouble(forest_fraction);
+		out.writeDouble(cliff_fraction);
+		out.writeInt(min_cliff_length);
+		out.writeInt(max_cliff_length);
+		out.writeInt(flower_seed_probability);
+		out.writeBoolean(randomAromaIntensity);
+		out.writeDouble(default_aroma_intensity);
+		out.writeDouble(min_aroma_intensity);
+		out.writeDouble(max_aroma_intensity);
+		out.writeDouble(aroma_threshold);
+	}
+	
+	/** Read the settings written to in by writeSettings(...).
+	 * @see danaus.Map#writeSettings(DataOutput) */
+	private void readSettings(DataInput in) throws IOException {
+		skin = in.readUTF();
+		randomLight = in.readBoolean();
+		default_light = in.readInt();
+		min_light = in.readInt();
+		max_light = in.readInt();
+		randomWind = in.readBoolean();
+		default_wind = Wind.valueOf(in.readInt(), 
+				Common.DIRECTIONS[in.readInt()]);
+		min_wind = in.readInt();
+		max_wind = in.readInt();
+		randomFlowers = in.readBoolean();
+		expected_learning_flowers = in.readInt();
+		expected_running_flowers = in.readInt();
+		flower_density = in.readDouble();
+		min_height = in.readInt();
+		max_height = in.readInt();
+		min_width = in.readInt();
+		max_width = in.readInt();
+		land_fraction = in.readDouble();
+		forest_fraction = in.readDouble();
+		cliff_fraction = in.readDouble();
+		min_cliff_length = in.readInt();
+		max_cliff_length = in.readInt();
+		flower_seed_probability = in.readInt();
+		randomAromaIntensity = in.readBoolean();
+		default_aroma_intensity = in.readDouble();
+		min_aroma_intensity = in.readDouble();
+		max_aroma_intensity = in.readDouble();
+		aroma_threshold = in.readDouble();
+	}
+	
+	/** Return a new tile of type type with state state, in the map's skin. */
+	private Tile newTile(TileType type, TileState state) {
+		switch (type) {
+			case LAND:
+				return new Land(skin, state);
+			case FOREST:
+				return new Forest(skin, state);
+			case CLIFF:
+				return new Cliff(skin, state);
 			default:
-				Debugger.WARNING("Invalid tile token in parseTile: " + type);
-				return new Land(skin, tileState);
+				return new Water(skin, state);
+		}
+	}
+	
+	/** Write the tile indices of positions to out. */
+	private void writePositions(DataOutputStream out, List<Position> positions) 
+			throws IOException {
+		out.writeInt(positions.size());
+		for (Position p : positions) {
+			out.writeInt(index(p));
+		}
+	}
+	
+	/** Return the positions written to in by writePositions(...). */
+	private List<Position> readPositions(DataInputStream in) 
+			throws IOException {
+		int n = in.readInt();
+		List<Position> positions = new ArrayList<Position>(n);
+		for (int i = 0; i < n; i++) {
+			positions.add(position(in.readInt()));
+		}
+		return positions;
+	}
+	
+	/** Write the ids of flowers to out. */
+	private void writeFlowers(DataOutputStream out, List<Flower> flowers) 
+			throws IOException {
+		out.writeInt(flowers.size());
+		for (Flower flower : flowers) {
+			out.writeLong(flower.getFlowerId());
+		}
+	}
+	
+	/** Return the flowers, looked up in byId, whose ids were written to in
+	 * by writeFlowers(...). */
+	private List<Flower> readFlowers(DataInputStream in, 
+			java.util.Map<Long, Flower> byId) throws IOException {
+		int n = in.readInt();
+		List<Flower> flowers = new ArrayList<Flower>(n);
+		for (int i = 0; i < n; i++) {
+			flowers.add(readFlower(in, byId));
+		}
+		return flowers;
+	}
+	
+	/** Return the flower, looked up in byId, whose id is read from in. */
+	private Flower readFlower(DataInputStream in, 
+			java.util.Map<Long, Flower> byId) throws IOException {
+		long id = in.readLong();
+		Flower flower = byId.get(id);
+		if (flower == null) {
+			throw new IOException("unknown flower id " + id);
+		}
+		return flower;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// Binary Maps
+	////////////////////////////////////////////////////////////////////////////
+	
+	/** Write this fully initialized map to binary map file filename: its
+	 * settings, its tiles, its flowers, and its butterfly's starting
+	 * position, and, if aromas is true and its aromas are not lazy, its aroma
+	 * fields. A map read from the file has the same tiles and flowers as this
+	 * map, whatever its seed.
+	 * <br>
+	 * The flowers are written as a table, in the order of the tiles they are
+	 * on and then in the order of each tile's flowers:
+	 * <pre>
+	 *   int    the number of flowers
+	 *   for each flower:
+	 *     int    the tile index of its tile
+	 *     UTF    its name, without Flower.IMAGE_DIRECTORY
+	 *     double its aroma intensity
+	 *     long   its id
+	 *   int    the number of learning flowers, then their indices in the table
+	 *   int    the number of learning flower positions, then their tile indices
+	 *   long   the id of the next flower
+	 * </pre>
+	 * The aroma fields are written as their number and then, for each, the
+	 * index of its flower in the table and the field itself.
+	 * @see danaus.BinaryMap */
+	void writeBinary(String filename, boolean aromas) throws IOException {
+		Debugger.DEBUG("Writing map to " + filename + "...");
+		
+		ByteArrayOutputStream settingsBytes = new ByteArrayOutputStream();
+		DataOutputStream settingsOut = new DataOutputStream(settingsBytes);
+		writeSettings(settingsOut);
+		settingsOut.flush();
+		
+		/* Flowers */
+		java.util.Map<Flower, Integer> table = 
+				new IdentityHashMap<Flower, Integer>();
+		ByteArrayOutputStream flowerBytes = new ByteArrayOutputStream();
+		DataOutputStream flowerOut = new DataOutputStream(flowerBytes);
+		int numFlowers = 0;
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				numFlowers += tiles[row][col].tileState.flowers.size();
+			}
+		}
+		flowerOut.writeInt(numFlowers);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				for (Flower flower : tiles[row][col].tileState.flowers) {
+					table.put(flower, table.size());
+					flowerOut.writeInt(row * width + col);
+					flowerOut.writeUTF(imageName(flower));
+					flowerOut.writeDouble(flower.aromaIntensity);
+					flowerOut.writeLong(flower.getFlowerId());
+				}
+			}
+		}
+		flowerOut.writeInt(learningFlowers.size());
+		for (Flower flower : learningFlowers) {
+			flowerOut.writeInt(tableIndex(table, flower));
+		}
+		writePositions(flowerOut, learningFlowerPositions);
+		flowerOut.writeLong(nextFlowerId);
+		flowerOut.flush();
+		
+		aromas = aromas && !aromaStore.isLazy();
+		int flags = BinaryMap.HAS_BUTTERFLY | 
+				(aromas ? BinaryMap.HAS_AROMAS : 0);
+		DataOutputStream out = BinaryMap.create(filename, height, width, flags,
+				butterflyStart.row, butterflyStart.col, 
+				aromas ? aroma_threshold : 0, settingsBytes.toByteArray(), 
+				tileStore(), flowerBytes.toByteArray());
+		try {
+			/* Aromas */
+			if (aromas) {
+				List<AromaField> fields = aromaStore.fields();
+				out.writeInt(fields.size());
+				for (AromaField field : fields) {
+					out.writeInt(tableIndex(table, field.flower));
+					field.write(out);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/** Return the index of flower in table. Throw an IOException if it is
+	 * not in table, as it is on no tile. */
+	private static int tableIndex(java.util.Map<Flower, Integer> table, 
+			Flower flower) throws IOException {
+		Integer index = table.get(flower);
+		if (index == null) {
+			throw new IOException("flower " + flower.getFlowerId() + 
+					" is on no tile");
+		}
+		return index;
+	}
+	
+	/** Return the name of flower's image, without Flower.IMAGE_DIRECTORY, as
+	 * it is given to new Flower(...). */
+	private static String imageName(Flower flower) {
+		return flower.getName().substring(Flower.IMAGE_DIRECTORY.length());
+	}
+	
+	/** Initialize the map from binary map file filename, in place of
+	 * parsing and generating it. Command line settings override the file's
+	 * settings, as they do a map file's, but only the aroma threshold changes
+	 * a map that has already been generated.
+	 * @see danaus.BinaryMap */
+	private void initBinary(String filename) throws IOException {
+		BinaryMap binary = BinaryMap.open(filename);
+		try {
+			initBinarySettings(binary);
+			initCommandLineSettings();
+			Flower table[] = initBinaryTiles(binary);
+			initRandom();
+			initNormalize(binary, table);
+		}
+		finally {
+			binary.close();
+		}
+	}
+	
+	/** Initialize the map's settings from binary map file binary. */
+	private void initBinarySettings(BinaryMap binary) throws IOException {
+		Debugger.DEBUG("Initializing Settings from binary map...");
+		
+		DataInputStream in = binary.settings();
+		readSettings(in);
+		in.close();
+	}
+	
+	/** Initialize the map's tiles, flowers, and butterfly's starting position
+	 * from binary map file binary, reading its tiles a band of rows at a
+	 * time. Return the table of its flowers.
+	 * @see danaus.Map#writeBinary(String, boolean) */
+	private Flower[] initBinaryTiles(BinaryMap binary) throws IOException {
+		Debugger.DEBUG("Initializing Tiles from binary map...");
+		
+		height = binary.height;
+		width = binary.width;
+		tiles = new Tile[height][width];
+		
+		DataInputStream in = binary.flowers();
+		try {
+			Flower table[] = new Flower[in.readInt()];
+			int flower = 0;
+			int flowerTile = (table.length == 0) ? -1 : in.readInt();
+			
+			TileType types[] = TileType.values();
+			int band = binary.bandRows();
+			for (int top = 0; top < height; top += band) {
+				int rows = Math.min(band, height - top);
+				ByteBuffer bandTypes = binary.types(top, rows);
+				IntBuffer bandLights = binary.lights(top, rows);
+				IntBuffer bandWinds = binary.winds(top, rows);
+				for (int row = top; row < top + rows; row++) {
+					for (int col = 0; col < width; col++) {
+						int type = bandTypes.get();
+						if (type < 0 || type >= types.length) {
+							throw new IOException("bad tile type " + type);
+						}
+						
+						/* The flowers of the table on this tile */
+						int tile = row * width + col;
+						Location loc = new Position(row, col).toLocation();
+						List<Flower> tileFlowers = new ArrayList<Flower>();
+						while (flowerTile == tile) {
+							table[flower] = new Flower(in.readUTF(), loc, 
+									in.readDouble(), in.readLong());
+							tileFlowers.add(table[flower]);
+							flower++;
+							flowerTile = (flower == table.length) ? -1 : 
+									in.readInt();
+						}
+						
+						Position p = new Position(row, col);
+						set(p, newTile(types[type], new TileState(loc, 
+								bandLights.get(), 
+								TileStore.unpack(bandWinds.get()), 
+								tileFlowers)));
+						if (tiles[row][col].flyable) {
+							park.state.numTiles++;
+						}
+					}
+				}
+			}
+			if (flower != table.length) {
+				throw new IOException("flower on bad tile " + flowerTile);
+			}
+			
+			/* Flowers */
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				learningFlowers.add(table[tableIndex(table, in.readInt())]);
+			}
+			learningFlowerPositions = readPositions(in);
+			nextFlowerId = in.readLong();
+			
+			if (binary.has(BinaryMap.HAS_BUTTERFLY)) {
+				butterflyStart = new Position(binary.butterflyRow, 
+						binary.butterflyCol);
+			}
+			return table;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/** Return index, a flower's index in table. Throw an IOException if it
+	 * lies outside table. */
+	private static int tableIndex(Flower table[], int index) 
+			throws IOException {
+		if (index < 0 || index >= table.length) {
+			throw new IOException("unknown flower " + index);
+		}
+		return index;
+	}
+	
+	/** Normalize a map read from binary map file binary, whose flowers are
+	 * table. The aroma fields are read from binary if it has them, they were
+	 * spread with the map's aroma threshold, and aromas are not lazy; they
+	 * are spread otherwise, as by initNormalize().
+	 * @see danaus.Map#initNormalize() */
+	private void initNormalize(BinaryMap binary, Flower table[]) 
+			throws IOException {
+		Debugger.DEBUG("Initializing Aroma, Wind, and Butterfly...");
+		
+		initAromaStore();
+		DataInputStream in = binary.aromas();
+		if (in != null && !aromaStore.isLazy() && 
+				binary.aromaThreshold == aroma_threshold) {
+			try {
+				AromaField fields[] = new AromaField[in.readInt()];
+				for (int i = 0; i < fields.length; i++) {
+					Flower flower = table[tableIndex(table, in.readInt())];
+					fields[i] = AromaField.read(in, flower);
+				}
+				aromaStore.add(fields);
+			}
+			finally {
+				in.close();
+			}
+			aromaStore.setWindDeltas(windDeltas());
+		}
+		else {
+			spreadAromas(learningFlowerPositions);
+			spreadWind(learningFlowers);
 		}
+		initButterfly();
 	}
 	
 	////////////////////////////////////////////////////////////////////////////
@@ -680,15 +1316,135 @@ class Map {
 	}
 		
 	/** Initialize a random set of tiles.
+	 * <br>
+	 * The map is generated in chunks. Normally the whole map is a single
+	 * chunk, generated with the map's own randomizer. If chunkedMaps of the
+	 * map's simulation context is true, the map is instead split into chunks
+	 * of about Common.CHUNK_SIZE tiles on a side, each with its own randomizer
+	 * seeded from the map's seed and the chunk's number. Each chunk grows its
+	 * own island; the islands are then stitched together by corridors of land
+	 * between the roots of neighboring chunks. Finally, each chunk grows its own forests
+	 * and cliffs. Chunks are generated in parallel, but no chunk reads or
+	 * writes another's tiles while they are, so a seed gives the same map
+	 * whatever the number of threads.
+	 * @see danaus.Map.Chunk
 	 */
 	void initRandomTiles() {
 		Debugger.DEBUG("Initializing Random Tiles...");
 		
 		/* Randomly size the map. */
-		height = rand.nextInt(Common.MIN_HEIGHT, Common.MAX_HEIGHT);
-		width  = rand.nextInt(Common.MIN_WIDTH, Common.MAX_WIDTH);
+		height = rand.nextInt(min_height, max_height);
+		width  = rand.nextInt(min_width, max_width);
 		tiles = new Tile[height][width];
 		
+		int averageCliffLength = (int) (cliff_fraction / (Common.CLIFF_SEED_PROBABILITY / 1000.0));
+		min_cliff_length = (int) (averageCliffLength - (averageCliffLength * Common.DELTA_CLIFF_LENGTH));
+		max_cliff_length = (int) (averageCliffLength + (averageCliffLength * Common.DELTA_CLIFF_LENGTH));
+		
+		if (flower_density >= 0) {
+			flower_seed_probability = (int) (1000.0 * flower_density);
+		}
+		else {
+			int maxLand = (int) ((height * width) * land_fraction);
+			flower_seed_probability = (int) ((1000.0 * expected_learning_flowers) / maxLand);
+		}
+		
+		/* Make the neighbors and the tile store now, as chunks generated in
+		 * parallel only read them. */
+		adjacency();
+		tileStore();
+		
+		Chunk chunks[] = chunks();
+		Debugger.DEBUG("Growing " + chunks.length + " Chunks...");
+		runChunks(chunks, GROW_ISLAND);
+		stitchChunks(chunks);
+		
+		/* Populate the map with appropriate tiles **/
+		Connectivity connectivity = 
+				new Connectivity(adjacency(), tileStore().flyable());
+		for (Chunk chunk : chunks) {
+			chunk.connectivity = connectivity;
+		}
+		runChunks(chunks, FINISH_CHUNK);
+		plantFlowers(chunks);
+		
+		for (Chunk chunk : chunks) {
+			park.state.numTiles += chunk.numTiles;
+		}
+	}
+	
+	/** Return the chunks in which to generate the map: the whole map, unless
+	 * chunkedMaps of the map's simulation context is true.
+	 * @see danaus.Map#initRandomTiles() */
+	private Chunk[] chunks() {
+		if (!context().chunkedMaps) {
+			return new Chunk[] {new Chunk(0, 0, height, width, rand, true)};
+		}
+		
+		/* Split the rows and columns as evenly as possible, so no chunk is
+		 * much smaller than Common.CHUNK_SIZE on a side. */
+		int chunkRows = Math.max(1, height / Common.CHUNK_SIZE);
+		int chunkCols = Math.max(1, width / Common.CHUNK_SIZE);
+		Chunk chunks[] = new Chunk[chunkRows * chunkCols];
+		for (int i = 0; i < chunkRows; i++) {
+			int top = i * height / chunkRows;
+			int bottom = (i + 1) * height / chunkRows;
+			for (int j = 0; j < chunkCols; j++) {
+				int left = j * width / chunkCols;
+				int right = (j + 1) * width / chunkCols;
+				int number = i * chunkCols + j;
+				chunks[number] = new Chunk(top, left, bottom - top, 
+						right - left, new Randomer(chunkSeed(number)), false);
+			}
+		}
+		return chunks;
+	}
+	
+	/** Return the seed of chunk number chunk, mixed from the map's seed and
+	 * the chunk's number so that neighboring chunks are not alike. */
+	private long chunkSeed(int chunk) {
+		long z = seed * 0x9E3779B97F4A7C15L + (chunk + 1) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/** The phases of generation that chunks run on their own.
+	 * @see danaus.Map#runChunk(Chunk, int) */
+	private static final int GROW_ISLAND = 0;
+	private static final int FINISH_CHUNK = 1;
+	
+	/** Run phase on every chunk of chunks, in parallel if there is more than
+	 * one. */
+	private void runChunks(Chunk[] chunks, int phase) {
+		if (chunks.length == 1) {
+			runChunk(chunks[0], phase);
+		}
+		else {
+			ForkJoinPool.commonPool().invoke(
+					new ChunkTask(chunks, phase, 0, chunks.length));
+		}
+	}
+	
+	/** Run phase on chunk. */
+	private void runChunk(Chunk chunk, int phase) {
+		switch (phase) {
+			case GROW_ISLAND:
+				growIsland(chunk);
+				break;
+			case FINISH_CHUNK:
+				nullToWater(chunk);
+				growForests(chunk);
+				growCliffs(chunk);
+				break;
+			default:
+				Debugger.ERROR("Invalid chunk phase: " + phase);
+		}
+	}
+	
+	/** Grow an island of land, forest seeds and cliff seeds from the center of
+	 * chunk, and choose which of its tiles are flowered. */
+	private void growIsland(Chunk chunk) {
 		/* The likelihood of choosing one of EAST or WEST to infect instead of
 		   NORTH or SOUTH. This is adjusted according to the width and height of
 		   the map so that wider maps generate wider islands and narrower maps
@@ -701,32 +1457,20 @@ class Map {
 		   Consider a map that is twice as wide as it is tall, and the math
 		   becomes clear. We multiply by 1000 because this probability will
 		   be passed to nextBoolean(int). */
-		int horizontalProbability = (int) (1000 * (1.0 / (((float)height/width) + 1.0)));
-		int maxLand = (int) ((height * width) * Common.LAND_FRACTION);
-		Common.MAX_FORESTS = (int) (maxLand * Common.FOREST_FRACTION);
-		
-		Common.AVERAGE_CLIFF_LENGTH = (int) (Common.CLIFF_FRACTION / (Common.CLIFF_SEED_PROBABILITY / 1000.0));
-		Common.DELTA_CLIFF_LENGTH = 0.25;
-		Common.MIN_CLIFF_LENGTH = (int) (Common.AVERAGE_CLIFF_LENGTH - (Common.AVERAGE_CLIFF_LENGTH * Common.DELTA_CLIFF_LENGTH));
-		Common.MAX_CLIFF_LENGTH = (int) (Common.AVERAGE_CLIFF_LENGTH + (Common.AVERAGE_CLIFF_LENGTH * Common.DELTA_CLIFF_LENGTH));
-		
-		Common.FLOWER_SEED_PROBABILITY = (int) ((1000.0 * expected_learning_flowers) / maxLand);
-		/* Create lists for cliffs and forests. We keep track of the 
-		 * locations of cliffs and forests so that we don't have to iterate
-		 * through the entire list to find a few locations. Also track the 
-		 * land on a map for flowering. */
-		LinkedList<Position> cliffs = new LinkedList<Position>();
-		LinkedList<Position> forests = new LinkedList<Position>();
+		int horizontalProbability = (int) (1000 * (1.0 / (((float)chunk.height/chunk.width) + 1.0)));
 		/* Threshold the frontiers. We separate tiles into those with few
 		 * spots to grow and those with many spots to grow. The threshold
 		 * sets the number of null neighbors needed to be considered free.
 		 * The lower the threshold, the rounder the map. The higher the 
 		 * threshold, the stringier the map. */
 		final int nullNeighborThreshold = 3;
-		List<Position> freeFrontier    = new ArrayList<Position>();
-		List<Position> crampedFrontier = new ArrayList<Position>();
-		// The tile on the frontier from which another tile will be branched
-		Position frontiersman;
+		/* The frontiers hold the chunk's own indices of tiles. Removing a 
+		 * tile from a frontier takes O(log n) time, and tiles keep their 
+		 * order, so the same tiles are chosen for a seed as with a list. */
+		Frontier freeFrontier    = new Frontier(chunk.size(), chunk.size());
+		Frontier crampedFrontier = new Frontier(chunk.size(), chunk.size());
+		// The tile index on the frontier from which another tile will be branched
+		int frontiersman;
 		// True if the voyager was from the free frontier.
 		boolean fromFreeFrontier;
 		// The number of land tiles
@@ -734,35 +1478,41 @@ class Map {
 		/* Populate the neighbor lists. This is an optimization trick. Two 
 		 * arrays are allocated once. The new Position information, then, 
 		 * doesn't have to allocate any new point instances. */
-		// east and west neighbors
-		Position horizontal[];
-		// north and south neighbors
-		Position vertical[];
+		// the tile indices of the east and west neighbors
+		int horizontal[] = new int[Adjacency.DEGREE];
+		int numHorizontal;
+		// the tile indices of the north and south neighbors
+		int vertical[] = new int[Adjacency.DEGREE];
+		int numVertical;
+		// the tile indices of the null neighbors of a new tile
+		int nulls[] = new int[Adjacency.DEGREE];
 		
 		/* Root the linked lists. */
-		Position root = new Position(height/2, width/2);
-		freeFrontier.add(root);
+		Position root = new Position(chunk.row + chunk.height/2, 
+				chunk.col + chunk.width/2);
+		chunk.root = index(root);
+		freeFrontier.add(chunk.local(chunk.root));
 		set(root, new Land(skin, randomTileState(root.toLocation())));
 		numLand++;
-		park.state.numTiles++;
+		chunk.numTiles++;
 				
-		while (!(freeFrontier.isEmpty() && crampedFrontier.isEmpty()) && numLand < maxLand) {
+		while (!(freeFrontier.isEmpty() && crampedFrontier.isEmpty()) && numLand < chunk.maxLand) {
 			/* Select either from free frontier or the cramped frontier. */
 			if (crampedFrontier.isEmpty() ||
 			   (!freeFrontier.isEmpty() && numLand % 10 + 1 <= Common.FREE_PROBABILITY)) {
-				frontiersman = rand.nextElement(freeFrontier);
+				frontiersman = chunk.global(freeFrontier.get(
+						chunk.rand.nextInt(freeFrontier.size())));
 				fromFreeFrontier = true;
 			}
 			else {
-				frontiersman = rand.nextElement(crampedFrontier);
+				frontiersman = chunk.global(crampedFrontier.get(
+						chunk.rand.nextInt(crampedFrontier.size())));
 				fromFreeFrontier = false;
 			}
 						
 			/* Extract the neighbors. */
-			horizontal = getPositions(frontiersman, new TileConditions.Nulls(), 
-					new DirectionConditions.EastOrWest());
-			vertical = getPositions(frontiersman, new TileConditions.Nulls(), 
-					new DirectionConditions.NorthOrSouth());
+			numHorizontal = getNullNeighbors(chunk, frontiersman, EAST_OR_WEST, horizontal);
+			numVertical = getNullNeighbors(chunk, frontiersman, NORTH_OR_SOUTH, vertical);
 			
 			/* If the voyager doesn't have any null neighbors, remove him 
 			 * from the list and start the process again. This can happen
@@ -771,92 +1521,168 @@ class Map {
 			 * Or, if he has only one neighbor, remove him as well because
 			 * we're about to fill his last neighbor. But this time, don't
 			 * move on yet. */
-			if (horizontal.length + vertical.length <= 1) {
+			if (numHorizontal + numVertical <= 1) {
 				if (fromFreeFrontier) {
-					freeFrontier.remove(frontiersman);
+					freeFrontier.remove(chunk.local(frontiersman));
 				}
 				else {
-					crampedFrontier.remove(frontiersman);
+					crampedFrontier.remove(chunk.local(frontiersman));
 				}
 				
 				// Move on to the next iteration of the loop
-				if (horizontal.length + vertical.length == 0) {
+				if (numHorizontal + numVertical == 0) {
 					continue;
 				}
 			}
 			
 			/* Choose a null tile to infect. */
 			Position infected;
-			if (vertical.length == 0 || (horizontal.length != 0 && 
-					rand.nextBoolean(horizontalProbability))) {
-				infected = new Position(horizontal[rand.nextInt(horizontal.length)]);
+			if (numVertical == 0 || (numHorizontal != 0 && 
+					chunk.rand.nextBoolean(horizontalProbability))) {
+				infected = position(horizontal[chunk.rand.nextInt(numHorizontal)]);
 			}
 			else {
-				infected = new Position(vertical[rand.nextInt(vertical.length)]);
+				infected = position(vertical[chunk.rand.nextInt(numVertical)]);
 			}	
 						
 			/* Choose the type of tile to infect */
-			int type = rand.nextInt(1, 1000);
+			int type = chunk.rand.nextInt(1, 1000);
 
 			if (type <= Common.CLIFF_SEED_PROBABILITY) {
 				if (Common.A3) {
-					int numTopLeft = getPositions(infected, 
-							new TileConditions.Obstacles(), 
-							new DirectionConditions.Corners()).length;
+					int numTopLeft = countNeighbors(index(infected), 
+							OBSTACLES, CORNERS);
 					if (numTopLeft == 0 && infected.col != 0 && infected.col != width - 1) {
 						set(infected, new Cliff(skin, randomTileState(infected.toLocation())));
 					}
 					else {
 						set(infected, new Land(skin, randomTileState(infected.toLocation())));
 					}
-					cliffs.add(infected);
+					chunk.cliffs.add(infected);
 				}
 				else {
 					set(infected, new Cliff(skin, randomTileState(infected.toLocation())));
-					cliffs.add(infected);
+					chunk.cliffs.add(infected);
 				}
 			}
 			else if (type <= Common.FOREST_SEED_PROBABILITY) {
 				set(infected, new Forest(skin, randomTileState(infected.toLocation())));
-				forests.add(infected);
-				park.state.numTiles++;
+				chunk.forests.add(infected);
+				chunk.numTiles++;
 			}
 			else {
 				set(infected, new Land(skin, randomTileState(infected.toLocation())));
-				park.state.numTiles++;
+				chunk.numTiles++;
 			}
 			
-			/* Flower the tile if it's not a cliff*/
-			if (at(infected).flyable && rand.nextBoolean(Common.FLOWER_SEED_PROBABILITY)) {
-				Flower flower = randomFlower(infected);
-				at(infected).tileState.addFlower(flower);
-				learningFlowers.add(flower);
-				learningFlowerPositions.add(infected);
+			/* Flower the tile if it's not a cliff. The flower is only 
+			 * planted once every chunk is done, so that flowers are numbered
+			 * in the same order however the chunks are run. */
+			if (at(infected).flyable && chunk.rand.nextBoolean(flower_seed_probability)) {
+				chunk.plant(randomSeedling(infected, chunk.rand));
 			}
 						
 			/* Add the infected to the frontier */
 			if (at(infected).flyable) {
-				int numNeighbors = getPositions(infected, 
-						new TileConditions.Nulls(), 
-						new DirectionConditions.Cross()).length;
+				int numNeighbors = getNullNeighbors(chunk, index(infected), 
+						CROSS, nulls);
 				// Yoda conditions; google that :)
 				if (nullNeighborThreshold <= numNeighbors) { 
-					freeFrontier.add(infected);
+					freeFrontier.add(chunk.local(index(infected)));
 				}
 				else {
-					crampedFrontier.add(infected);
+					crampedFrontier.add(chunk.local(index(infected)));
 				}
 			}			
 			numLand++;
 			sketch();
-		}	
-				
-		/* Populate the map with appropriate tiles **/
-		nullToWater();
-		growForests(forests);
-		growCliffs(cliffs);
+		}
+	}
+	
+	/** Store in neighbors the tile indices of the null neighbors of tile index
+	 * source in chunk that lie in a direction of the direction mask mask, in
+	 * the order of Common.DIRECTIONS, and return the number of them. Tiles
+	 * outside chunk are never read.
+	 * @see danaus.Map#getNeighbors(int, TileCondition, int, int[]) */
+	private int getNullNeighbors(Chunk chunk, int source, int mask, 
+			int[] neighbors) {
+		Adjacency adjacency = adjacency();
+		TileStore store = tileStore();
+		int count = 0;
+		for (int d = 0; d < Adjacency.DEGREE; d++) {
+			int neighbor = adjacency.neighbor(source, d);
+			if ((mask & (1 << d)) != 0 && neighbor != source && 
+					chunk.contains(neighbor) && !store.hasTile(neighbor)) {
+				neighbors[count++] = neighbor;
+			}
+		}
+		return count;
+	}
+	
+	/** Join the islands of chunks into one. The root of each chunk is joined
+	 * to the roots of the chunks to its east and south by a corridor of land,
+	 * which turns every null tile and cliff in its way into land. The roots
+	 * of the chunks then form a connected grid. */
+	private void stitchChunks(Chunk[] chunks) {
+		if (chunks.length == 1) {
+			return;
+		}
+		Debugger.DEBUG("Stitching Chunks...");
+		
+		int chunkCols = Math.max(1, width / Common.CHUNK_SIZE);
+		for (int i = 0; i < chunks.length; i++) {
+			if ((i + 1) % chunkCols != 0) {
+				carveCorridor(chunks[i], chunks[i + 1].root);
+			}
+			if (i + chunkCols < chunks.length) {
+				carveCorridor(chunks[i], chunks[i + chunkCols].root);
+			}
+		}
+	}
+	
+	/** Turn the tiles on a path from the root of chunk to tile index to into
+	 * land, first along the root's row and then along to's column. */
+	private void carveCorridor(Chunk chunk, int to) {
+		Adjacency adjacency = adjacency();
+		int row = adjacency.row(chunk.root);
+		int col = adjacency.col(chunk.root);
+		int toRow = adjacency.row(to);
+		int toCol = adjacency.col(to);
+		while (row != toRow || col != toCol) {
+			if (col != toCol) {
+				col += Common.unit_scalar(toCol - col);
+			}
+			else {
+				row += Common.unit_scalar(toRow - row);
+			}
+			
+			Position p = new Position(row, col);
+			if (at(p) == null) {
+				set(p, new Land(skin, randomTileState(p.toLocation())));
+				chunk.numTiles++;
+			}
+			else if (!at(p).flyable) {
+				Land land = new Land(skin, new TileState(p.toLocation()));
+				Tile.copy(land, at(p));
+				set(p, land);
+				chunk.numTiles++;
+			}
+		}
 	}
 	
+	/** Plant the flowers chosen by chunks, in order, numbering them in that
+	 * order. */
+	private void plantFlowers(Chunk[] chunks) {
+		for (Chunk chunk : chunks) {
+			for (Seedling seedling : chunk.seedlings) {
+				Flower flower = newFlower(seedling.name, 
+						seedling.position.toLocation(), seedling.intensity);
+				at(seedling.position).tileState.addFlower(flower);
+				learningFlowers.add(flower);
+				learningFlowerPositions.add(seedling.position);
+			}
+		}
+	}
 	
 	/** Simulate the expansion of mountainous terrain. Each initial mountain
 	 * generated from the initial pass is expanded. Each mountain selects
@@ -872,19 +1698,23 @@ class Map {
 	 * obstacles. If the guy you are looking at has obstacles in his list, 
 	 * besides you, that aren't in your list, then he is not a candidate to 
 	 * become a mountain. If he doesn't, then you may select him to be a 
-	 * mountain.
+	 * mountain, as long as that does not cut the tiles around him apart.
 	 * 
-	 * @param cliffs A list of all initial mountain tiles.
+	 * @param chunk The chunk whose initial mountain tiles are grown.
+	 * @see danaus.Connectivity
 	 */
-	private void growCliffs(LinkedList<Position> cliffs) {
+	private void growCliffs(Chunk chunk) {
 		if (Common.A3) {
 			Debugger.DEBUG("Skipping cliff growth...");
 		}
 		else{
 			Debugger.DEBUG("Growing Cliffs...");
 		
-			for (Position seed : cliffs) {
-				growCliff(seed);
+			for (Position seed : chunk.cliffs) {
+				// A corridor may have turned the seed into land
+				if (!at(seed).flyable) {
+					growCliff(seed, chunk);
+				}
 			}
 		}
 	}
@@ -892,11 +1722,12 @@ class Map {
 	/** Grow a mountain range.
 	 *  
 	 * @param cliffPos A cliff location
-	 * @see danaus.Map#growCliffs(LinkedList)
+	 * @param chunk The chunk in which the range grows.
+	 * @see danaus.Map#growCliffs(Chunk)
 	 */
-	private void growCliff(Position cliffPos) {
+	private void growCliff(Position cliffPos, Chunk chunk) {
 		// the maximum number of tiles that will become cliffs
-		int maxCliff = rand.nextInt(Common.MIN_CLIFF_LENGTH, Common.MAX_CLIFF_LENGTH);
+		int maxCliff = chunk.rand.nextInt(min_cliff_length, max_cliff_length);
 		// Possible cliff directions
 		DirectionCondition cliffDirections[] = {
 				new DirectionConditions.Up(),
@@ -905,61 +1736,63 @@ class Map {
 				new DirectionConditions.Left()
 		};
 		// Actual cliff direction
-		DirectionCondition direction = rand.nextElement(cliffDirections);
+		int direction = Adjacency.mask(chunk.rand.nextElement(cliffDirections));
 		// the cliff candidate neighbors at a location
-		Position neighbors[] = getCliffCandidates(cliffPos, direction);
-		
-		for (int numCliff = 1; neighbors.length != 0 && numCliff <= maxCliff; numCliff++) {
-			cliffPos = rand.nextElement(neighbors);
-			Cliff cliff = new Cliff(skin, new TileState(cliffPos.toLocation()));
-			Tile.copy(cliff, at(cliffPos));
-			set(cliffPos, cliff);
-			neighbors = getCliffCandidates(cliffPos, direction);
-			park.state.numTiles--;
+		int cliff = index(cliffPos);
+		int neighbors[] = new int[Adjacency.DEGREE];
+		int count = getCliffCandidates(cliff, direction, chunk, neighbors);
+		
+		for (int numCliff = 1; count != 0 && numCliff <= maxCliff; numCliff++) {
+			cliff = neighbors[chunk.rand.nextInt(count)];
+			cliffPos = position(cliff);
+			Cliff tile = new Cliff(skin, new TileState(cliffPos.toLocation()));
+			Tile.copy(tile, at(cliffPos));
+			set(cliffPos, tile);
+			chunk.connectivity.block(cliff);
+			count = getCliffCandidates(cliff, direction, chunk, neighbors);
+			chunk.numTiles--;
 			sketch();
 		} 
 	}
 	
-	/** Return a list of cliff neighbor candidates. A location is a candidate
-	 * to become a cliff if converting it to a cliff can not disconnect the 
-	 * map.
+	/** Store in neighbors the cliff candidate neighbors of tile index source
+	 * that lie in a direction of the direction mask mask, in the order of
+	 * Common.DIRECTIONS, and return the number of them. A tile is a candidate
+	 * to become a cliff if it can be flown to, has no flowers, hugs source,
+	 * and converting it to a cliff can not disconnect the map.
+	 * <br>
+	 * If chunk is not the whole map, a candidate must also lie inside it, 
+	 * at least two tiles from its edges, and must be known not to disconnect
+	 * the map from its own neighbors alone. Then no tile of another chunk
+	 * is read or written.
 	 * 
-	 * @param source An initial cliff position.
-	 * @param dc The DirectionCondition the cliffs must pass in order to be 
-	 * considered candidates.
-	 * @return A list of neighboring cliff candidates.
-	 * @see danaus.Map#growCliffs(LinkedList)
+	 * @param source An initial cliff tile index.
+	 * @param chunk The chunk in which cliffs grow.
+	 * @param neighbors An array of at least Adjacency.DEGREE elements.
+	 * @see danaus.Map#growCliffs(Chunk)
+	 * @see danaus.Connectivity#hugs(int, int)
 	 */
-	private Position[] getCliffCandidates(Position source, DirectionCondition dc) {
-		// The obstacle neighbors of the initial location
-		Position obstacles[] = getPositions(source, 
-				new TileConditions.Obstacles(), null);
-		final HashSet<Position> sourceObstacles = 
-				new HashSet<Position>(Arrays.asList(obstacles));
-		
-		return getPositions(source,
-			/* Get only tiles that cannot disconnect graph. */
-			new TileCondition() {
-				public boolean tileCondition(Tile tile) {
-					// the obstacle neighbors of source's neighbor
-					Position obstacles[] = 
-							getPositions(new Position(tile.tileState.location), 
-							new TileConditions.Obstacles(), null); 
-					HashSet<Position> neighborObstacles = new 
-							HashSet<Position>(Arrays.asList(obstacles));
-					
-					/* This is similar to the intersection of the two sets. If
-					 * the tile is a candidate the only obstacle neighbor he has
-					 * that source does not will be source itself.*/
-					neighborObstacles.removeAll(sourceObstacles);
-				
-					return (tile.flyable) &&
-						tile.tileState.flowers.isEmpty() &&
-						neighborObstacles.size() == 1;
-				}
-			}, 
-			dc
-		);
+	private int getCliffCandidates(int source, int mask, Chunk chunk, 
+			int[] neighbors) {
+		Adjacency adjacency = adjacency();
+		Connectivity connectivity = chunk.connectivity;
+		int count = 0;
+		for (int d = 0; d < Adjacency.DEGREE; d++) {
+			int neighbor = adjacency.neighbor(source, d);
+			if ((mask & (1 << d)) == 0 || neighbor == source ||
+					!chunk.isInterior(neighbor)) {
+				continue;
+			}
+			
+			Tile tile = at(neighbor);
+			if (tile.flyable && !chunk.isFlowered(neighbor) &&
+					connectivity.hugs(source, d) && (chunk.whole ?
+							!connectivity.isCut(neighbor) : 
+							connectivity.isLocal(neighbor))) {
+				neighbors[count++] = neighbor;
+			}
+		}
+		return count;
 	}
 			
 	/** Simulate the growth of forests in a map. For each forest tile, a random
@@ -968,37 +1801,49 @@ class Map {
 	 * is similar to a depth-first search, and it creates a growing out effect
 	 * that is similar to the growth of a forest.
 	 * 
-	 * @param forests A list of all the initial forests in a map.
+	 * @param chunk The chunk whose initial forests are grown.
 	 */
-	private void growForests(LinkedList<Position> forests) {
+	private void growForests(Chunk chunk) {
 		Debugger.DEBUG("Growing Forests...");
 		
-		numForests = forests.size();
-		while (!forests.isEmpty() && numForests < Common.MAX_FORESTS) {
-			growForest(forests.pollFirst(), forests);			
+		LinkedList<Position> forests = chunk.forests;
+		chunk.numForests = forests.size();
+		while (!forests.isEmpty() && chunk.numForests < chunk.maxForests) {
+			growForest(forests.pollFirst(), chunk);			
 		}
 	}
 	
 	/**
 	 * Grows the neighbors around a forest location and appends any new forests
-	 * to the global list of forests.
+	 * to the chunk's list of forests.
 	 * 
 	 * @param seed An initial forest location.
-	 * @param forests The global list of forests.
-	 * @see danaus.Map#growForests(LinkedList)
+	 * @param chunk The chunk in which the forest grows.
+	 * @see danaus.Map#growForests(Chunk)
 	 */
-	private void growForest(Position seed, LinkedList<Position> forests) {
-		/* Get the neighbors that are land. */
-		Position neighbors[] = getPositions(seed, new TileConditions.Lands(), null);
+	private void growForest(Position seed, Chunk chunk) {
+		/* Get the neighbors in the chunk that are land. */
+		Adjacency adjacency = adjacency();
+		int source = index(seed);
+		int neighbors[] = new int[Adjacency.DEGREE];
+		int count = 0;
+		for (int d = 0; d < Adjacency.DEGREE; d++) {
+			int neighbor = adjacency.neighbor(source, d);
+			if (neighbor != source && chunk.contains(neighbor) && 
+					LANDS.tileCondition(at(neighbor))) {
+				neighbors[count++] = neighbor;
+			}
+		}
 				
 		/* Randomly select a fraction of the neighbors to become forests. */
-		for (Position neighbor : neighbors) {
-			if (rand.nextBoolean(Common.FOREST_GROW_PROBABILITY)) {
+		for (int i = 0; i < count; i++) {
+			if (chunk.rand.nextBoolean(Common.FOREST_GROW_PROBABILITY)) {
+				Position neighbor = position(neighbors[i]);
 				Forest shrub = new Forest(skin, new TileState(neighbor.toLocation()));
 				Tile.copy(shrub, at(neighbor));
 				set(neighbor, shrub);
-				forests.add(neighbor);
-				numForests++;
+				chunk.forests.add(neighbor);
+				chunk.numForests++;
 				sketch();
 			}
 		}
@@ -1010,30 +1855,81 @@ class Map {
 	 * aromas, and re-applying wind.
 	 */
 	public void beginRunning() {
+		int first = runningFlowers.size();
 		reflower();
-		spreadAromas(runningFlowerPositions);
-		spreadWind(runningFlowers);
+		spreadWind(runningFlowers.subList(first, runningFlowers.size()));
 	}
 	
 	/** Randomly add flowers to a map. When a simulation transitions from
 	 * the learning to the running phase, additional flowers are randomly
-	 * added to the map.
+	 * added to the map. Only the aromas at the tiles that receive flowers are
+	 * spread, so the work done is proportional to the flowers added.
 	 */
 	public void reflower() {
 		if (!randomFlowers) {return;}
 		
+		List<Position> flowerPositions = new ArrayList<Position>();
 		for (int i = 0; i < expected_running_flowers; ++i) {
 			Position flowerPos = randomPosition();
 			Tile tile = at(flowerPos);
 			if (tile.flyable) {
 				runningFlowerPositions.add(flowerPos);
+				flowerPositions.add(flowerPos);
 				Flower flower = randomFlower(flowerPos);
 				runningFlowers.add(flower);
 				tile.tileState.addFlower(flower);
 			}
 		}
 		
-		spreadAromas(runningFlowerPositions);
+		spreadAromas(flowerPositions);
+	}
+	
+	/** Add flower to the tile at its location and spread its aroma. Only
+	 * flower's aroma is spread, and wind is not spread over it; see
+	 * spreadWind(List). The map's lists of learning and running flowers are
+	 * left unchanged. Return false, adding nothing, if flower is null or
+	 * its tile cannot be flown to.
+	 * 
+	 * Precondition: the map's aromas have been initialized.
+	 */
+	public boolean addFlower(Flower flower) {
+		if (null == flower) {
+			return false;
+		}
+		
+		Position flowerPos = new Position(flower.location);
+		Tile tile = at(flowerPos);
+		if (!tile.flyable) {
+			return false;
+		}
+		
+		tile.tileState.addFlower(flower);
+		int source = flowerPos.row * width + flowerPos.col;
+		if (aromaStore.isLazy()) {
+			aromaStore.add(new AromaField(flower, source));
+		}
+		else {
+			aromaStore.add(aromaSpreader.spread(new Flower[] {flower},
+					new int[] {source}, false)[0]);
+		}
+		return true;
+	}
+	
+	/** Remove flower from the tile at its location and retract its aroma
+	 * from every tile. The aromas of all other flowers are untouched. The
+	 * map's lists of learning and running flowers are left unchanged. Return
+	 * true iff flower was on the map.
+	 * 
+	 * Precondition: the map's aromas have been initialized.
+	 */
+	public boolean removeFlower(Flower flower) {
+		if (null == flower) {
+			return false;
+		}
+		
+		boolean removed = at(new Position(flower.location))
+				.tileState.removeFlower(flower);
+		return aromaStore.remove(flower) || removed;
 	}
 	
 	/** Return a random or default light, depending on the map's settings.
@@ -1055,7 +1951,7 @@ class Map {
 	 */
 	private double getAromaIntensity() {
 		return (randomAromaIntensity) ? 
-				randomAromaIntensity() : default_aroma_intensity;
+				randomAromaIntensity(rand) : default_aroma_intensity;
 	}
 	
 	/** Return a random light. 
@@ -1071,25 +1967,39 @@ class Map {
 	private Wind randomWind() {
 		int intensity = 0;
 		Direction direction = Direction.N;
-		return new Wind(intensity, direction);
+		return Wind.valueOf(intensity, direction);
 	}
 	
-	/** Return a random aroma intensity.
+	/** Return a random aroma intensity drawn from random.
 	 * @return A random aroma intensity.
 	 */
-	private double randomAromaIntensity() {
-		return rand.nextDouble(min_aroma_intensity, max_aroma_intensity);
+	private double randomAromaIntensity(Randomer random) {
+		return random.nextDouble(min_aroma_intensity, max_aroma_intensity);
 	}
 	
 	/** Return a random flower.
 	 * @return A random flower.
 	 */
 	private Flower randomFlower(Position position) {
-		int flowerNum = rand.nextElement(Common.FLOWER_NUMBERS);
+		Seedling seedling = randomSeedling(position, rand);
+		return newFlower(seedling.name, position.toLocation(), 
+				seedling.intensity);
+	}
+	
+	/** Return a random flower at position, drawn from random, that is yet to
+	 * be given an id. */
+	private Seedling randomSeedling(Position position, Randomer random) {
+		int flowerNum = random.nextElement(Common.FLOWER_NUMBERS);
 		double aromaIntensity = (randomAromaIntensity) ? 
-				randomAromaIntensity() : default_aroma_intensity;
-		return new Flower("flower_" + flowerNum, position.toLocation(), 
-				aromaIntensity);
+				randomAromaIntensity(random) : default_aroma_intensity;
+		return new Seedling(position, "flower_" + flowerNum, aromaIntensity);
+	}
+	
+	/** Return a new flower named name at location loc with aroma intensity
+	 * ai, whose id is the next id of this map. 
+	 * @see danaus.Flower#Flower(String, Location, double, long) */
+	private Flower newFlower(String name, Location loc, double ai) {
+		return new Flower(name, loc, ai, nextFlowerId++);
 	}
 	
 	/** Return a random Position. */
@@ -1150,71 +2060,80 @@ class Map {
 	private void initNormalize() {
 		Debugger.DEBUG("Initializing Aroma, Wind, and Butterfly...");
 		
+		initAromaStore();
 		spreadAromas(learningFlowerPositions);
 		spreadWind(learningFlowers);
 		initButterfly();
 	}
 		
+	/** Create the map's aroma store and spreader, and attach the store to
+	 * every tile. */
+	private void initAromaStore() {
+		aromaSpreader= new AromaSpreader(adjacency(), tileStore().flyable(), 
+				aroma_threshold);
+		
+		AromaCache cache= !context().lazyAromas ? null :
+				new AromaCache(aromaSpreader, Common.AROMA_CACHE_BYTES);
+		aromaStore= new AromaStore(height, width, cache);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				tiles[row][col].tileState.aromaStore= aromaStore;
+			}
+		}
+	}
+	
 	/** For each flower on the map, spread the initial aroma across the map. 
 	 * The aroma falls off with the square of the distance plus one. That is,
 	 * at a distance of 0 from the flower, the aroma is 1/((0+1)^2) the strength
-	 * of the initial aroma. 
+	 * of the initial aroma. The minimum distance to a flower is used, and
+	 * aromas are spread travelling in all eight directions. 
+	 * 
+	 * Only the number of steps from each flower to each tile is recorded, in
+	 * an aroma field. If Common.PARALLEL_AROMAS is true, the fields are
+	 * computed in parallel. Either way, they are added to the aroma store in
+	 * the order of the flowers on the tiles of runningFlowerPositions2.
+	 * 
+	 * If lazyAromas of the map's simulation context is true, only the
+	 * flowers and their positions are recorded here, and the aroma store
+	 * looks up the steps to a tile when the tile's aromas are first read.
+	 * @see danaus.AromaSpreader
+	 * @see danaus.AromaCache
 	 */
 	private void spreadAromas(List<Position> runningFlowerPositions2) {
 		Debugger.DEBUG("Spreading Aroma...");
 		
-		for (Position flowerPos : runningFlowerPositions2) {
-			for (Flower flower : at(flowerPos).tileState.flowers) {
-				spreadAroma(flower, flowerPos);
+		PhaseTimer.Phase previous = park.timer.enter(PhaseTimer.Phase.AROMA);
+		try {
+			List<Flower> flowers= new ArrayList<Flower>();
+			List<Integer> sources= new ArrayList<Integer>();
+			for (Position flowerPos : runningFlowerPositions2) {
+				for (Flower flower : at(flowerPos).tileState.flowers) {
+					flowers.add(flower);
+					sources.add(flowerPos.row * width + flowerPos.col);
+				}
+			}
+			
+			if (aromaStore.isLazy()) {
+				AromaField fields[] = new AromaField[flowers.size()];
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = new AromaField(flowers.get(i), sources.get(i));
+				}
+				aromaStore.add(fields);
+				return;
 			}
+			
+			int sourceArray[]= new int[sources.size()];
+			for (int i = 0; i < sourceArray.length; i++) {
+				sourceArray[i]= sources.get(i);
+			}
+			
+			aromaStore.add(aromaSpreader.spread(
+					flowers.toArray(new Flower[flowers.size()]), sourceArray,
+					Common.PARALLEL_AROMAS));
+		}
+		finally {
+			park.timer.leave(previous);
 		}
-	}
-	
-	/** For each flower on the map, radiate its aroma across the map. An
-	 * aroma decays with the square of the distance to the flower that created
-	 * it. The minimum distance to a flower is used. Aromas are spread 
-	 * travelling in non-diagonal directions.
-	 */
-	private void spreadAroma(Flower flower, Position flowerPos) {
-		// A hashmap of nodes that have been visited mapped to the number of
-		// steps away from the flower they are.
-		HashMap<Position, Integer> visited = new HashMap<Position, Integer>();
-		// The locations with neighbors who have not yet been visited
-		LinkedList<Position> frontier = new LinkedList<Position>();
-		// The current number of steps away from the flower 
-		int steps= 0;
-		// The largest number of steps that can be taken while an aroma is still
-		// detectable
-		int maxSteps = Aroma.getMaxSteps(flower.aromaIntensity);
-					
-		/* Seed the search */
-		visited.put(flowerPos, 0);
-		frontier.add(flowerPos);
-		
-		/* Calculate the steps for each tile. */
-		 while (!(frontier.isEmpty()) && steps < maxSteps) {
-			 Position frontiersman= frontier.pollFirst();
-			 steps= visited.get(frontiersman);
-			 			 
-			 if (steps < maxSteps) {
-				 Position neighbors[] = getPositions(frontiersman,
-						 new TileConditions.Flyables(),
-						 null);
-				 for (Position neighbor : neighbors) {
-					 if (!visited.containsKey(neighbor)) {
-						 visited.put(neighbor, steps + 1);
-						 frontier.addLast(neighbor);
-					 }
-				 }
-			 }
-		 } 
-		 		 
-		 /* Populate each tile with an aroma. */
-		 for (Position location : visited.keySet()) {
-			 double intensity = Aroma.calculateIntensity(flower.aromaIntensity,
-					 visited.get(location));
-			 at(location).tileState.addAroma(new Aroma(intensity, flower));
-		 }
 	}
 	
 	/** Initialize the map's butterfly at it's beginning location.
@@ -1226,14 +2145,15 @@ class Map {
 	private void initButterfly() {
 		Debugger.DEBUG("Initializing Butterfly...");
 		try {
-			Class<?> butterflyClass = Class.forName(Common.CLASS_NAMES.get(0));
+			Class<?> butterflyClass = Class.forName(context().className);
 			butterfly = (AbstractButterfly) butterflyClass.newInstance();
 			butterfly.location = butterflyStart.toLocation();
 			butterfly.setMap(this);
+			butterfly.getPower().setInfinite(context().infiniteEnergy);
 			at(butterflyStart).tileState.butterfly = butterfly;
 			at(butterflyStart).turnEntered = 0;
 		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-			Debugger.ERROR(Common.CLASS_NAMES.get(0) + " could not be instantiated!");
+			Debugger.ERROR(context().className + " could not be instantiated!");
 			e.printStackTrace();
 			System.exit(1);
 		}
@@ -1245,41 +2165,40 @@ class Map {
 	 * in the direction of the wind. All tiles iterated through initially as
 	 * aromas are transfered. In this initial spread, aromas can become negative.
 	 * The map is then iterated through again to zero out any negative aromas.
+	 * 
+	 * The transfers are the same for every flower, so they are computed once
+	 * and recorded in the aroma store, which applies them as aromas are read.
+	 * Only the aromas of the flowers in runningFlowers2 are touched.
 	 */
-	private void spreadWind(List<Flower> runningFlowers2) {
+	void spreadWind(List<Flower> runningFlowers2) {
 		Debugger.DEBUG("Spreading Wind...");
 		
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				/* Gather information about the current position */
-				Position sourcePos = new Position(row, col);
-				Tile source = at(sourcePos);
-				int intensity = source.tileState.wind.intensity;
-				Direction direction = source.tileState.wind.direction;
-				
-				/* Gather information about the position in the wind's 
-				 * direction. A null position indicates wrap around. */
-				Position toPos = getPosition(sourcePos, direction);
-				if (null != toPos) {
-					Tile to = at(toPos);
-				
-					/* Transfer aroma. */
-					source.tileState.subtractFromAromas(runningFlowers2, intensity);
-					to.tileState.addToAromas(runningFlowers2, intensity);
-				}
+		PhaseTimer.Phase previous = park.timer.enter(PhaseTimer.Phase.WIND);
+		try {
+			if (!aromaStore.hasWindDeltas()) {
+				aromaStore.setWindDeltas(windDeltas());
 			}
+			aromaStore.spreadWind(runningFlowers2);
 		}
-		
-		/* Transferring aromas can result in negative aromas, which is an 
-		 * impossible event. Zero all the negative aromas. */
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				Position position = new Position(row, col);
-				at(position).tileState.zeroAromas();
-			}
+		finally {
+			park.timer.leave(previous);
 		}
 	}
 	
+	/** Return the wind transfers at every tile, indexed by row * width + col.
+	 * Entry i lists the amounts wind adds to the aromas at tile i, in the
+	 * order the tiles are iterated through, or is null if wind never changes
+	 * the aromas at tile i. If Common.PARALLEL_AROMAS is true, bands of rows
+	 * are computed in parallel.
+	 * @see danaus.Map#spreadWind(List)
+	 * @see danaus.WindSpreader
+	 */
+	private int[][] windDeltas() {
+		TileStore store = tileStore();
+		return new WindSpreader(adjacency(), store.windIntensities(), 
+				store.windDirections()).deltas(Common.PARALLEL_AROMAS);
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Flying
 	////////////////////////////////////////////////////////////////////////////
@@ -1295,6 +2214,9 @@ class Map {
 	 */
 	public void fly(Direction d, Speed s) {
 		Position toPosition = getPosition(new Position(butterfly.location), d);
+		if (null != recorder()) {
+			recorder().fly(d, s);
+		}
 		fly(toPosition, s, d, false);
 	}
 	
@@ -1306,6 +2228,9 @@ class Map {
 	 * Second, a butterfly must land on a tile to collect its flowers.
 	 */
 	public void land() {
+		if (null != recorder()) {
+			recorder().land();
+		}
 		park.state.step++;
 
 		Position position= new Position(butterfly.location);
@@ -1317,13 +2242,16 @@ class Map {
 	
 	/** Don't use this yet. */
 	public void collect(Flower flower) {
+		if (null != recorder()) {
+			recorder().collect(flower);
+		}
 		if (park.phase == SimulationPhase.LEARNING) {
 			throw new PrematureCollectionException();
 		}
 		
 		Tile tile= at(new Position(butterfly.location));
 		if (null != flower && tile.tileState.flowers.contains(flower)) {
-			park.state.foundFlowers.add(flower);
+			park.state.found(flower);
 		}
 		else {
 			butterfly.subtractPower(Common.WRONG_COLLECT_POWER_COST);
@@ -1336,8 +2264,11 @@ class Map {
 	 * currently on. Whenever a butterfly updates its state, it loses power. 
 	 */
 	public void refreshState() {
+		if (null != recorder()) {
+			recorder().refresh();
+		}
 		butterfly.subtractPower(Common.REFRESH_STATE_POWER_COST);
-		butterfly.state = new TileState(at(new Position(butterfly.location)).tileState);
+		butterfly.state = at(new Position(butterfly.location)).tileState.snapshot();
 	}
 
 	/** Fly a butterfly. First, the game's turn is incremented. Then, a 
@@ -1530,32 +2461,16 @@ class Map {
 			TileCondition tileFilter, DirectionCondition directionFilter) {
 		Debugger.NULL_CHECK(source, "null position in getDirections()");
 
-		// All directions that satisfy the direction condition and that point
-		// to a tile that is unique and satisfies the tile condition
-		List<Direction> goodDirections = new ArrayList<Direction>();
-		// True if the tile in the specified direction passes all tile conditions
-		boolean tilePass;
-		// True if the direction passes all direction conditions
-		boolean directionPass;
-
-		/* Iterate through all directions, capturing all good directions. */
-		for (Direction direction : Common.DIRECTIONS) {
-			Position neighbor = getPosition(source, direction);
-			
-			// neighbor may be null if neighbor and source are identical
-			if (neighbor != null) {
-				tilePass = (tileFilter == null) || 
-						tileFilter.tileCondition(at(neighbor));
-				directionPass = (directionFilter == null) || 
-						directionFilter.directionCondition(direction);
-			
-				if (tilePass && directionPass) {
-					goodDirections.add(direction);
-				}
-			}
+		int neighbors[] = new int[Adjacency.DEGREE];
+		int directions[] = new int[Adjacency.DEGREE];
+		int count = getNeighbors(index(source), tileFilter, 
+				Adjacency.mask(directionFilter), neighbors, directions);
+		
+		Direction goodDirections[] = new Direction[count];
+		for (int i = 0; i < count; i++) {
+			goodDirections[i] = Common.DIRECTIONS[directions[i]];
 		}
-
-		return goodDirections.toArray(new Direction[goodDirections.size()]);
+		return goodDirections;
 	}
 		
 	/** A similar function to getDirections, this function returns positions
@@ -1565,16 +2480,86 @@ class Map {
 	 */
 	private Position[] getPositions(Position source,
 			TileCondition tileFilter, DirectionCondition directionFilter) {
-		Direction directions[] = getDirections(source, tileFilter, directionFilter);
-		Position positions[] = new Position[directions.length];
+		Debugger.NULL_CHECK(source, "null position in getPositions()");
 		
-		for (int i = 0; i < directions.length; i++) {
-			positions[i] = getPosition(source, directions[i]);
-		}
+		int neighbors[] = new int[Adjacency.DEGREE];
+		int count = getNeighbors(index(source), tileFilter, 
+				Adjacency.mask(directionFilter), neighbors);
 		
+		Position positions[] = new Position[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = position(neighbors[i]);
+		}
 		return positions;
 	}
 	
+	/** Store in neighbors the tile indices of the neighbors of tile index
+	 * source that are distinct from source, lie in a direction of the 
+	 * direction mask mask, and satisfy tileFilter (if it is not null), in
+	 * the order of Common.DIRECTIONS. Return the number of such neighbors.
+	 * Nothing is allocated, so this can be used in tight loops.
+	 * 
+	 * @param neighbors An array of at least Adjacency.DEGREE elements.
+	 * @see danaus.Map#getDirections(Position, TileCondition, DirectionCondition)
+	 * @see danaus.Adjacency#mask(DirectionCondition)
+	 */
+	private int getNeighbors(int source, TileCondition tileFilter, int mask,
+			int[] neighbors) {
+		return getNeighbors(source, tileFilter, mask, neighbors, null);
+	}
+	
+	/** Like getNeighbors(int, TileCondition, int, int[]), but also store in
+	 * directions, if it is not null, the ordinal of the direction of each
+	 * neighbor. */
+	private int getNeighbors(int source, TileCondition tileFilter, int mask,
+			int[] neighbors, int[] directions) {
+		Adjacency adjacency = adjacency();
+		int count = 0;
+		for (int d = 0; d < Adjacency.DEGREE; d++) {
+			if ((mask & (1 << d)) == 0) {
+				continue;
+			}
+			
+			// the neighbor is source itself if the map wraps around to it
+			int neighbor = adjacency.neighbor(source, d);
+			if (neighbor != source && passes(neighbor, tileFilter)) {
+				if (directions != null) {
+					directions[count] = d;
+				}
+				neighbors[count++] = neighbor;
+			}
+		}
+		return count;
+	}
+	
+	/** Return the number of neighbors getNeighbors(source, tileFilter, mask,
+	 * ...) finds, without allocating anything. */
+	private int countNeighbors(int source, TileCondition tileFilter, int mask) {
+		Adjacency adjacency = adjacency();
+		int count = 0;
+		for (int d = 0; d < Adjacency.DEGREE; d++) {
+			int neighbor = adjacency.neighbor(source, d);
+			if ((mask & (1 << d)) != 0 && neighbor != source &&
+					passes(neighbor, tileFilter)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/** Return true iff the tile at tile index tile satisfies tileFilter, or
+	 * tileFilter is null. Whether a tile is null is read from the tile
+	 * store's occupancy, which is all the generator asks of most tiles. */
+	private boolean passes(int tile, TileCondition tileFilter) {
+		if (tileFilter == null) {
+			return true;
+		}
+		if (tileFilter == NULLS) {
+			return !tileStore().hasTile(tile);
+		}
+		return tileFilter.tileCondition(at(tile));
+	}
+	
 	/** Return the position reached by beginning at the source position and
 	 * moving exactly one tile in the specified direction. Due to the continuous
 	 * nature of the map, the tile reached may be the same as the source tile.
@@ -1589,18 +2574,49 @@ class Map {
 		Debugger.NULL_CHECK(source, "null position in getLocation()");
 		Debugger.NULL_CHECK(direction, "null direction in getLocation()");
 		
-		/* The row and column of the tile in the specified direction. */
-		int newRow = wrapRow(source.row + direction.dRow);
-		int newCol = wrapCol(source.col + direction.dCol);
+		int tile = index(source);
+		int neighbor = adjacency().neighbor(tile, direction);
 		
-		/* If the new row and column are the same as the old row and column, 
-		 * we've wrapped around the map and come back to ourselves. In this 
-		 * event, return null. */
-		if (newRow == source.row && newCol == source.col) {
+		/* If the neighbor is the source, we've wrapped around the map and 
+		 * come back to ourselves. In this event, return null. */
+		if (neighbor == tile) {
 			return null;
 		}
 		
-		return new Position(newRow, newCol);
+		return position(neighbor);
+	}
+	
+	/** Return the settings of the map's simulation that are not shared with
+	 * other simulations: its seed, its butterfly's class, and the settings
+	 * that shape the map. */
+	private SimulationContext context() {
+		return park.simulator.context;
+	}
+	
+	/** Return the recorder of the butterfly's flights, or null if they are
+	 * not recorded. */
+	private FlightRecorder recorder() {
+		return park.simulator.recorder;
+	}
+	
+	/** Return the neighbors of every tile of the map, computing them if the
+	 * map has not yet been given its size or has been resized since. */
+	private Adjacency adjacency() {
+		if (adjacency == null || adjacency.height != height || 
+				adjacency.width != width) {
+			adjacency = new Adjacency(height, width);
+		}
+		return adjacency;
+	}
+	
+	/** Return the tile index of position p, row * width + col. */
+	private int index(Position p) {
+		return p.row * width + p.col;
+	}
+	
+	/** Return the position of tile index tile. */
+	private Position position(int tile) {
+		return new Position(tile / width, tile % width);
 	}
 		
 	////////////////////////////////////////////////////////////////////////////
@@ -1618,6 +2634,12 @@ class Map {
 		return tiles[p.row][p.col];
 	}
 	
+	/** Return the tile at tile index tile. 
+	 * @see danaus.Map#at(Position) */
+	private Tile at(int tile) {
+		return tiles[tile / width][tile % width];
+	}
+	
 	/** Set the tile at position p. The previous tile at the
 	 * specified tile is overriden and the new tile is inserted. Both tiles,
 	 * the one being replaced and the one being inserted, may be null.
@@ -1628,6 +2650,40 @@ class Map {
 	private void set(Position p, Tile tile) {
 		Debugger.NULL_CHECK(p, "null position in set(Position, Tile)!");
 		tiles[p.row][p.col]= tile;
+		tileStore().set(index(p), tile);
+	}
+	
+	/** Return the fingerprints of the tile states of the map's flyable tiles,
+	 * indexed by tile index, and 0 at the other tiles. They are computed the
+	 * first time they are asked for after the map's aromas change, as they
+	 * do whenever flowers are added, removed, or spread, so grading the map
+	 * again costs nothing.
+	 * @see danaus.TileState#fingerprint()
+	 * @see danaus.StateGrader */
+	long[] fingerprints() {
+		if (fingerprints != null && fingerprintsVersion == aromaStore.version()) {
+			return fingerprints;
+		}
+		
+		fingerprintsVersion = aromaStore.version();
+		fingerprints = new long[height * width];
+		for (int tile = 0; tile < fingerprints.length; tile++) {
+			if (at(tile).flyable) {
+				fingerprints[tile] = at(tile).tileState.fingerprint();
+			}
+		}
+		return fingerprints;
+	}
+	
+	/** Return the primitive store of the map's tiles, making an empty one if
+	 * the map has not yet been given its size or has been resized since. 
+	 * Every tile set with set(Position, Tile) is recorded in it. */
+	private TileStore tileStore() {
+		if (tileStore == null || tileStore.height != height || 
+				tileStore.width != width) {
+			tileStore = new TileStore(height, width);
+		}
+		return tileStore;
 	}
 	
 	////////////////////////////////////////////////////////////////////////////
@@ -1640,16 +2696,32 @@ class Map {
 	public int getHeight() {
 		return height;
 	}
+	/** Convert all the null tiles in chunk to water tiles with non-random
+	 * tile states.
+	 */
+	private void nullToWater(Chunk chunk) {
+		nullToWater(chunk.row, chunk.col, chunk.height, chunk.width);
+	}
+	
 	/** Convert all the null tiles in a map to water tiles with non-random
 	 * tile states.
 	 */
 	private void nullToWater() {
+		nullToWater(0, 0, height, width);
+	}
+	
+	/** Convert the null tiles in rows top..top+rows-1 and columns 
+	 * left..left+cols-1 to water tiles with non-random tile states.
+	 */
+	private void nullToWater(int top, int left, int rows, int cols) {
 		Debugger.DEBUG("Converting Null to Water...");
 		
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				if (tiles[row][col] == null) {
-					Position p = new Position(row, col);
+		TileStore store = tileStore();
+		for (int row = top; row < top + rows; row++) {
+			for (int col = left; col < left + cols; col++) {
+				int i = row * width + col;
+				if (!store.hasTile(i)) {
+					Position p = position(i);
 					set(p, new Water(skin, new TileState(p.toLocation())));
 				}
 			}
@@ -1734,12 +2806,23 @@ class Map {
 		// flowers
 		System.out.printf("%-20s : %10b\n", "randomFlowers", randomFlowers);
 		System.out.printf("%-20s : %10d\n", "expected_flowers", expected_learning_flowers);
+		System.out.printf("%-20s : %10.3f\n", "flower_density", flower_density);
+		
+		// terrain
+		System.out.printf("%-20s : %10d\n", "min_height", min_height);
+		System.out.printf("%-20s : %10d\n", "max_height", max_height);
+		System.out.printf("%-20s : %10d\n", "min_width", min_width);
+		System.out.printf("%-20s : %10d\n", "max_width", max_width);
+		System.out.printf("%-20s : %10.2f\n", "land_fraction", land_fraction);
+		System.out.printf("%-20s : %10.2f\n", "forest_fraction", forest_fraction);
+		System.out.printf("%-20s : %10.2f\n", "cliff_fraction", cliff_fraction);
 		
 		// aroma
 		System.out.printf("%-20s : %10b\n", "randomAroma", randomAromaIntensity);
 		System.out.printf("%-20s : %10.2f\n", "default_aroma", default_aroma_intensity);
 		System.out.printf("%-20s : %10.2f\n", "min_aroma", min_aroma_intensity);
 		System.out.printf("%-20s : %10.2f\n", "max_aroma", max_aroma_intensity);
+		System.out.printf("%-20s : %10.2f\n", "aroma_threshold", aroma_threshold);
 	}
 	
 	/** Return a string representation of the object printed to show a map. It's
@@ -1886,6 +2969,162 @@ class Map {
 		}
 	}
 	
+	////////////////////////////////////////////////////////////////////////////
+	// Class Chunk
+	////////////////////////////////////////////////////////////////////////////
+	
+	/** An instance is a rectangle of a map's tiles that is generated on its
+	 * own, with its own randomizer. A chunk that is the whole map wraps 
+	 * around the map's edges. Any other chunk stops at its own edges, so that
+	 * chunks generated at the same time never touch one another's tiles.
+	 * @see danaus.Map#initRandomTiles()
+	 */
+	private class Chunk {
+		/** The top row and left column of the chunk. */
+		final int row;
+		final int col;
+		/** The number of rows and columns of the chunk. */
+		final int height;
+		final int width;
+		/** The chunk's randomizer. */
+		final Randomer rand;
+		/** True iff the chunk is the whole map. */
+		final boolean whole;
+		/** The most land tiles the chunk's island may grow. */
+		final int maxLand;
+		/** The most forest tiles the chunk may grow. */
+		final int maxForests;
+		
+		/** The tile index of the root of the chunk's island. */
+		int root;
+		/** The number of forest tiles of the chunk. */
+		int numForests;
+		/** The change the chunk makes to the park's number of tiles. */
+		long numTiles;
+		/** The initial cliffs and forests of the chunk. */
+		final LinkedList<Position> cliffs = new LinkedList<Position>();
+		final LinkedList<Position> forests = new LinkedList<Position>();
+		/** The flowers to plant in the chunk, in the order they were chosen. */
+		final List<Seedling> seedlings = new ArrayList<Seedling>();
+		/** True at the chunk's own index of each tile chosen for a flower. */
+		private final boolean[] flowered;
+		/** The obstacles of the whole map, as cliffs grow. */
+		Connectivity connectivity;
+		
+		/** Constructor: the chunk of height rows and width columns whose top
+		 * left tile is at row and col, generated with rand. whole is true iff
+		 * it is the whole map. */
+		Chunk(int row, int col, int height, int width, Randomer rand, 
+				boolean whole) {
+			this.row = row;
+			this.col = col;
+			this.height = height;
+			this.width = width;
+			this.rand = rand;
+			this.whole = whole;
+			maxLand = (int) ((height * width) * land_fraction);
+			maxForests = (int) (maxLand * forest_fraction);
+			flowered = new boolean[height * width];
+		}
+		
+		/** Return the number of tiles of the chunk. */
+		int size() {
+			return height * width;
+		}
+		
+		/** Return the chunk's own index of the tile at tile index tile, which
+		 * must be in the chunk. Chunk indices run by row and then column. */
+		int local(int tile) {
+			return (tile / Map.this.width - row) * width + 
+					(tile % Map.this.width - col);
+		}
+		
+		/** Return the tile index of the tile with chunk index local. */
+		int global(int local) {
+			return (row + local / width) * Map.this.width + col + local % width;
+		}
+		
+		/** Return true iff tile index tile is in the chunk. */
+		boolean contains(int tile) {
+			if (whole) {
+				return true;
+			}
+			int r = tile / Map.this.width;
+			int c = tile % Map.this.width;
+			return row <= r && r < row + height && col <= c && c < col + width;
+		}
+		
+		/** Return true iff tile index tile is in the chunk, and, unless the
+		 * chunk is the whole map, so are its neighbors and theirs. */
+		boolean isInterior(int tile) {
+			if (whole) {
+				return true;
+			}
+			int r = tile / Map.this.width;
+			int c = tile % Map.this.width;
+			return row + 2 <= r && r < row + height - 2 &&
+					col + 2 <= c && c < col + width - 2;
+		}
+		
+		/** Choose seedling's tile for a flower. */
+		void plant(Seedling seedling) {
+			flowered[local(index(seedling.position))] = true;
+			seedlings.add(seedling);
+		}
+		
+		/** Return true iff tile index tile, which must be in the chunk, has
+		 * been chosen for a flower. */
+		boolean isFlowered(int tile) {
+			return flowered[local(tile)];
+		}
+	}
+	
+	/** An instance is a flower chosen during generation that is yet to be
+	 * given an id. */
+	private class Seedling {
+		final Position position;
+		final String name;
+		final double intensity;
+		
+		/** Constructor: a flower named name at position with aroma intensity
+		 * intensity. */
+		Seedling(Position position, String name, double intensity) {
+			this.position = position;
+			this.name = name;
+			this.intensity = intensity;
+		}
+	}
+	
+	/** An instance runs a phase of generation on a range of chunks, splitting
+	 * the range into single chunks that are run in parallel. */
+	@SuppressWarnings("serial")
+	private class ChunkTask extends RecursiveAction {
+		private final Chunk[] chunks;
+		private final int phase;
+		private final int lo;
+		private final int hi;
+		
+		/** Constructor: a task that runs phase on chunks[lo..hi-1]. */
+		ChunkTask(Chunk[] chunks, int phase, int lo, int hi) {
+			this.chunks = chunks;
+			this.phase = phase;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		/** Run the range, or split it in two if it has more than one chunk. */
+		protected @Override void compute() {
+			if (hi - lo == 1) {
+				runChunk(chunks[lo], phase);
+				return;
+			}
+			
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ChunkTask(chunks, phase, lo, mid),
+					new ChunkTask(chunks, phase, mid, hi));
+		}
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Class Position
 	////////////////////////////////////////////////////////////////////////////
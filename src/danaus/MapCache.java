@@ -0,0 +1,213 @@
+package danaus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** An instance is the entry of one map in the on-disk map cache. A map is
+ * cached only if it can be reproduced: it must have been made with a given
+ * seed, and from the same map file, if any, and the same settings of the
+ * map's simulation context. These are hashed into the key of the entry,
+ * which names its file in Common.MAP_CACHE_DIR.
+ * <br>
+ * An entry file holds a header, then the map as written by the map, deflated:
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   byte[] key (KEY_LENGTH bytes)
+ *   int    length of the map, inflated
+ *   long   CRC-32 of the map, inflated
+ *   byte[] the map, deflated
+ * </pre>
+ * An entry whose magic, version, key, length, or checksum does not match is
+ * ignored, and is overwritten when the map is next cached.
+ * @see danaus.Map#initCached(MapCache)
+ */
+class MapCache {
+	/** The first four bytes of every entry file: "DMC" and a zero. */
+	static final int MAGIC= 0x444D4300;
+	/** The version of the entry format and of the maps written into it.
+	 * Change it whenever maps are generated, or written, differently, so that
+	 * old entries are no longer read. */
+	static final int VERSION= 2;
+	/** The number of bytes of a key. */
+	static final int KEY_LENGTH= 32;
+	/** The extension of entry files. */
+	static final String EXTENSION= ".dmc";
+
+	/** The file of this entry. */
+	final File file;
+	/** The key of this entry. */
+	private final byte[] key;
+
+	/** Constructor: the entry with key key, in directory dir. */
+	private MapCache(File dir, byte[] key) {
+		this.key= key;
+		StringBuilder name= new StringBuilder();
+		for (byte b : key) {
+			name.append(String.format("%02x", b));
+		}
+		file= new File(dir, name + EXTENSION);
+	}
+
+	/** Return the entry of the random map made with the seed and settings
+	 * of context, or null if maps are not cached or cannot be reproduced. */
+	static MapCache entry(SimulationContext context) {
+		return isCaching(context.seed) ? entry(context, (byte[]) null) : null;
+	}
+
+	/** Return the entry of the map made with the seed and settings of
+	 * context from map file filename, or null if maps are not cached or
+	 * cannot be reproduced. */
+	static MapCache entry(SimulationContext context, String filename)
+			throws IOException {
+		return isCaching(context.seed) ? entry(context,
+				Files.readAllBytes(new File(filename).toPath())) : null;
+	}
+
+	/** Return true iff maps made with seed seed are cached. Maps are not
+	 * cached if no seed was given, since then they cannot be reproduced. */
+	private static boolean isCaching(Integer seed) {
+		return Common.MAP_CACHE_DIR != null && seed != null;
+	}
+
+	/** Return the entry of the map made with the seed and settings of
+	 * context from the map file with contents mapFile, or a random map if
+	 * mapFile is null. Precondition: the seed of context is not null. */
+	private static MapCache entry(SimulationContext context, byte[] mapFile) {
+		try {
+			MessageDigest digest= MessageDigest.getInstance("SHA-256");
+			ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+			DataOutputStream out= new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeInt(context.seed);
+			out.writeUTF(String.valueOf(context.mapHeight));
+			out.writeUTF(String.valueOf(context.mapWidth));
+			out.writeUTF(String.valueOf(context.landFraction));
+			out.writeUTF(String.valueOf(context.forestFraction));
+			out.writeUTF(String.valueOf(context.cliffFraction));
+			out.writeUTF(String.valueOf(context.flowerDensity));
+			out.writeUTF(String.valueOf(context.aromaThreshold));
+			out.writeBoolean(context.lazyAromas);
+			out.writeBoolean(context.chunkedMaps);
+			out.writeInt(Common.CHUNK_SIZE);
+			out.writeBoolean(Common.A3);
+			out.writeBoolean(mapFile != null);
+			out.flush();
+			digest.update(bytes.toByteArray());
+			if (mapFile != null) {
+				digest.update(mapFile);
+			}
+			return new MapCache(new File(Common.MAP_CACHE_DIR), digest.digest());
+		}
+		catch (IOException | NoSuchAlgorithmException e) {
+			Debugger.WARNING("cannot make map cache key: " + e);
+			return null;
+		}
+	}
+
+	/** Return the map cached in this entry, inflated, or null if there is
+	 * none or it cannot be used. */
+	byte[] read() {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try {
+			ByteBuffer buffer= ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (buffer.remaining() < 8 + KEY_LENGTH + 12 ||
+					buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				Debugger.WARNING("ignoring map cache entry " + file +
+						" of another version");
+				return null;
+			}
+			byte entryKey[]= new byte[KEY_LENGTH];
+			buffer.get(entryKey);
+			int length= buffer.getInt();
+			long checksum= buffer.getLong();
+			if (!Arrays.equals(entryKey, key) || length < 0) {
+				Debugger.WARNING("ignoring damaged map cache entry " + file);
+				return null;
+			}
+
+			Inflater inflater= new Inflater();
+			inflater.setInput(buffer.array(), buffer.position(),
+					buffer.remaining());
+			byte map[]= new byte[length];
+			int inflated= inflater.inflate(map);
+			boolean finished= inflater.finished();
+			inflater.end();
+
+			CRC32 crc= new CRC32();
+			crc.update(map, 0, inflated);
+			if (inflated != length || !finished || crc.getValue() != checksum) {
+				Debugger.WARNING("ignoring damaged map cache entry " + file);
+				return null;
+			}
+			return map;
+		}
+		catch (IOException | DataFormatException e) {
+			Debugger.WARNING("cannot read map cache entry " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/** Cache map, inflated, in this entry, replacing any map cached in it.
+	 * The entry is written to a temporary file and then moved into place, so
+	 * a reader never sees half an entry. */
+	void write(byte[] map) {
+		CRC32 crc= new CRC32();
+		crc.update(map);
+
+		Deflater deflater= new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(map);
+		deflater.finish();
+		ByteArrayOutputStream bytes= new ByteArrayOutputStream(map.length / 4 + 64);
+		byte chunk[]= new byte[1 << 16];
+		while (!deflater.finished()) {
+			int n= deflater.deflate(chunk);
+			bytes.write(chunk, 0, n);
+		}
+		deflater.end();
+
+		File temp= null;
+		try {
+			File dir= file.getParentFile();
+			Files.createDirectories(dir.toPath());
+			temp= File.createTempFile("map", EXTENSION + ".tmp", dir);
+			DataOutputStream out= new DataOutputStream(
+					Files.newOutputStream(temp.toPath()));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(key);
+				out.writeInt(map.length);
+				out.writeLong(crc.getValue());
+				bytes.writeTo(out);
+			}
+			finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			Debugger.WARNING("cannot write map cache entry " + file + ": " + e);
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+}
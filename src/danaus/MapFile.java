@@ -0,0 +1,598 @@
+package danaus;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/** An instance is the contents of a map file, read in a single streaming
+ * pass: its settings elements and its tiles.
+ * <br>
+ * The tiles are the text directly inside the map element, each run of text
+ * between other nodes trimmed, all of it joined together. Rows of tiles are
+ * separated by semicolons; a leading semicolon and an empty last row are
+ * ignored. A tile begins with a tile token and runs up to whitespace, a
+ * comma, or the next tile token; anything else between tiles is ignored.
+ * <br>
+ * Each tile is parsed as soon as its text ends, into primitive arrays of
+ * the type, light, wind, flowers, and aroma intensities of every tile, so
+ * neither the text nor the tiles are held as strings. What a tile leaves
+ * out, or gives in a form that cannot be parsed, is left for the map to
+ * fill in from its settings, which may come after the tiles in the file.
+ * <br>
+ * A setting is the text content of the first element with a given name
+ * inside the first settings element with a given name, wherever they are in
+ * the file, as DOM's getElementsByTagName(...) would find them.
+ * @see danaus.Map#Map(Park, String)
+ */
+class MapFile {
+	/** The names of the settings elements of a map file. */
+	static final String[] SETTINGS=
+		{"skin", "light", "wind", "flowers", "aroma", "terrain"};
+	/** The property that makes the JDK's parser report CDATA sections as
+	 * such, rather than as characters. CDATA sections hold no tiles. */
+	private static final String REPORT_CDATA= 
+			"http://java.sun.com/xml/stream/properties/report-cdata-event";
+	/** The tile tokens, each of which begins a tile. */
+	private static final String TOKENS= Common.LAND_TOKEN + Common.WATER_TOKEN +
+			Common.FOREST_TOKEN + Common.CLIFF_TOKEN;
+	/** The types of the tiles of each token in TOKENS, in the same order. */
+	private static final TileType[] TOKEN_TYPES=
+		{TileType.LAND, TileType.WATER, TileType.FOREST, TileType.CLIFF};
+	/** The type recorded for a tile whose type is not a tile token. */
+	private static final byte INVALID= -1;
+
+	/** The flags of a tile: the butterfly begins on it, and it gives a valid
+	 * light, a valid wind, flowers, and aroma intensities. */
+	private static final byte BUTTERFLY= 1;
+	private static final byte LIGHT= 2;
+	private static final byte WIND= 4;
+	private static final byte FLOWERS= 8;
+	private static final byte AROMAS= 16;
+	/** The fields of a tile, separated by '.' characters. */
+	private static final int TYPE_INDEX= 0;
+	private static final int LIGHT_INDEX= 1;
+	private static final int WIND_INDEX= 2;
+	private static final int FLOWER_INDEX= 3;
+	private static final int AROMA_INDEX= 4;
+
+	/** The text content of each setting, keyed by the name of its settings
+	 * element and then by its own name. A settings element's own text
+	 * content is keyed by the empty string. */
+	private final java.util.Map<String, java.util.Map<String, String>> settings;
+	/** The number of rows of tiles. */
+	private int height;
+	/** The number of tiles of the widest row. */
+	private int width;
+	/** True iff the map element has any text. */
+	private boolean hasText;
+
+	/** rowStarts[r] is the number of tiles before row r, for r in
+	 * 0..height. The tiles are numbered in the order they are read. */
+	private int[] rowStarts;
+	/** The number of tiles read. */
+	private int size;
+	/** The ordinal of the TileType of each tile, or INVALID. */
+	private byte[] types;
+	/** The flags of each tile. */
+	private byte[] flags;
+	/** The light of each tile, if it has flag LIGHT. */
+	private int[] lights;
+	/** The wind of each tile, packed as TileStore packs it, if it has flag
+	 * WIND. */
+	private int[] winds;
+	/** The names of the flowers of tile i are flowerNames[flowerStarts[i]..
+	 * flowerStarts[i+1]-1], if it has flag FLOWERS. Equal names are shared. */
+	private int[] flowerStarts;
+	private String[] flowerNames;
+	/** The aroma intensities of tile i are aromas[aromaStarts[i]..
+	 * aromaStarts[i+1]-1], if it has flag AROMAS. */
+	private int[] aromaStarts;
+	private double[] aromas;
+	/** The flower names read, each keyed by itself. */
+	private final java.util.Map<String, String> names;
+
+	/** The text of the tile being read. */
+	private final StringBuilder tile;
+	/** True iff a tile is being read. */
+	private boolean inTile;
+	/** True iff the row being read has nothing but whitespace so far. */
+	private boolean rowIsBlank;
+	/** True iff a semicolon has been read. */
+	private boolean readSemicolon;
+	/** True iff the run of text being read has had anything but whitespace. */
+	private boolean runStarted;
+	/** True iff whitespace has been read since the last other character of
+	 * the run of text being read. It is dropped if the run ends first. */
+	private boolean spacePending;
+
+	/** Constructor: an empty map file. */
+	private MapFile() {
+		settings= new HashMap<String, java.util.Map<String, String>>();
+		rowStarts= new int[16];
+		types= new byte[16];
+		flags= new byte[16];
+		lights= new int[16];
+		winds= new int[16];
+		flowerStarts= new int[17];
+		flowerNames= new String[16];
+		aromaStarts= new int[17];
+		aromas= new double[16];
+		names= new HashMap<String, String>();
+		tile= new StringBuilder();
+		rowIsBlank= true;
+	}
+
+	/** Return the contents of map file filename. Throw an XMLStreamException
+	 * if it is not well-formed XML. */
+	static MapFile read(String filename) throws XMLStreamException, IOException {
+		Debugger.NULL_CHECK(filename, "null filename in MapFile.read(...)");
+
+		XMLInputFactory factory= XMLInputFactory.newInstance();
+		if (factory.isPropertySupported(REPORT_CDATA)) {
+			factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+		}
+
+		File file= new File(filename);
+		InputStream in= new BufferedInputStream(Files.newInputStream(file.toPath()));
+		try {
+			XMLStreamReader reader= 
+					factory.createXMLStreamReader(file.toURI().toString(), in);
+			try {
+				MapFile mapFile= new MapFile();
+				mapFile.read(reader);
+				return mapFile;
+			}
+			finally {
+				reader.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/** Return true iff the file has a settings element named name. */
+	boolean hasSettings(String name) {
+		return settings.containsKey(name);
+	}
+
+	/** Return the text content of the first settings element named name, or
+	 * null if there is none. */
+	String text(String name) {
+		return text(name, "");
+	}
+
+	/** Return the text content of the first element named child inside the
+	 * first settings element named name, or null if there is none. */
+	String text(String name, String child) {
+		java.util.Map<String, String> setting= settings.get(name);
+		return (setting == null) ? null : setting.get(child);
+	}
+
+	/** Return true iff the map element has any text, so that the map is
+	 * given by its tiles rather than generated randomly. */
+	boolean hasTiles() {
+		return hasText;
+	}
+
+	/** Return the number of rows of tiles. */
+	int height() {
+		return height;
+	}
+
+	/** Return the number of tiles of the widest row. */
+	int width() {
+		return width;
+	}
+
+	/** Return the number of tiles of row r. */
+	int length(int r) {
+		return rowStarts[r + 1] - rowStarts[r];
+	}
+
+	/** Return the number of tile c of row r among all the tiles, which the
+	 * methods below take. */
+	int tile(int r, int c) {
+		return rowStarts[r] + c;
+	}
+
+	/** Return the type of tile t, or null if its type is not a tile token. */
+	TileType type(int t) {
+		return (types[t] == INVALID) ? null : TileType.values()[types[t]];
+	}
+
+	/** Return true iff the butterfly begins on tile t. */
+	boolean hasButterfly(int t) {
+		return (flags[t] & BUTTERFLY) != 0;
+	}
+
+	/** Return true iff tile t gives a valid light. */
+	boolean hasLight(int t) {
+		return (flags[t] & LIGHT) != 0;
+	}
+
+	/** Return the light of tile t.
+	 * Precondition: hasLight(t). */
+	int light(int t) {
+		return lights[t];
+	}
+
+	/** Return true iff tile t gives a valid wind. */
+	boolean hasWind(int t) {
+		return (flags[t] & WIND) != 0;
+	}
+
+	/** Return the wind of tile t.
+	 * Precondition: hasWind(t). */
+	Wind wind(int t) {
+		return TileStore.unpack(winds[t]);
+	}
+
+	/** Return true iff tile t gives its flowers. */
+	boolean hasFlowers(int t) {
+		return (flags[t] & FLOWERS) != 0;
+	}
+
+	/** Return the number of flowers of tile t. */
+	int flowerCount(int t) {
+		return flowerStarts[t + 1] - flowerStarts[t];
+	}
+
+	/** Return the name of flower i of tile t. */
+	String flowerName(int t, int i) {
+		return flowerNames[flowerStarts[t] + i];
+	}
+
+	/** Return true iff tile t gives aroma intensities. */
+	boolean hasAromas(int t) {
+		return (flags[t] & AROMAS) != 0;
+	}
+
+	/** Return the number of valid aroma intensities of tile t. */
+	int aromaCount(int t) {
+		return aromaStarts[t + 1] - aromaStarts[t];
+	}
+
+	/** Return aroma intensity i of tile t. */
+	double aroma(int t, int i) {
+		return aromas[aromaStarts[t] + i];
+	}
+
+	/** Read the map element and everything in it from reader. */
+	private void read(XMLStreamReader reader) throws XMLStreamException {
+		/* For each open element inside the map element: its settings, if it
+		 * is the first settings element of its name, or null; the settings
+		 * its text content belongs to, or null if none; and its text content
+		 * so far, or null if it belongs to no setting. */
+		List<java.util.Map<String, String>> open= 
+				new ArrayList<java.util.Map<String, String>>();
+		List<List<Setting>> targets= new ArrayList<List<Setting>>();
+		List<StringBuilder> contents= new ArrayList<StringBuilder>();
+		int capturing= 0;
+
+		while (reader.hasNext() &&
+				reader.next() != XMLStreamConstants.START_ELEMENT) {
+			// Skip everything before the map element
+		}
+		while (reader.hasNext()) {
+			int event= reader.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT: {
+					endRun();
+					String name= reader.getLocalName();
+					List<Setting> elementTargets= null;
+
+					/* The element is a setting of every open settings element
+					 * that has none of its name yet. */
+					for (java.util.Map<String, String> setting : open) {
+						if (setting != null && !setting.containsKey(name)) {
+							setting.put(name, null);
+							elementTargets= Setting.add(elementTargets, setting, name);
+						}
+					}
+					java.util.Map<String, String> setting= null;
+					if (isSettings(name) && !settings.containsKey(name)) {
+						setting= new HashMap<String, String>();
+						settings.put(name, setting);
+						elementTargets= Setting.add(elementTargets, setting, "");
+					}
+
+					open.add(setting);
+					targets.add(elementTargets);
+					contents.add(elementTargets == null ? null : new StringBuilder());
+					if (elementTargets != null) {
+						capturing++;
+					}
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT: {
+					endRun();
+					if (open.isEmpty()) {
+						endRows();
+						// Read the rest, so that it is checked to be well-formed
+						while (reader.hasNext()) {
+							reader.next();
+						}
+						return;
+					}
+					int last= open.size() - 1;
+					open.remove(last);
+					List<Setting> elementTargets= targets.remove(last);
+					StringBuilder content= contents.remove(last);
+					if (elementTargets != null) {
+						for (Setting target : elementTargets) {
+							target.owner.put(target.name, content.toString());
+						}
+						capturing--;
+					}
+					break;
+				}
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.CDATA: {
+					if (capturing != 0) {
+						for (StringBuilder content : contents) {
+							if (content != null) {
+								content.append(reader.getTextCharacters(),
+										reader.getTextStart(), reader.getTextLength());
+							}
+						}
+					}
+					/* Only text directly inside the map element, and not in a
+					 * CDATA section, holds tiles. */
+					if (open.isEmpty()) {
+						if (event == XMLStreamConstants.CDATA) {
+							endRun();
+						}
+						else {
+							characters(reader.getTextCharacters(),
+									reader.getTextStart(), reader.getTextLength());
+						}
+					}
+					break;
+				}
+				default:
+					endRun();
+					break;
+			}
+		}
+		endRows();
+	}
+
+	/** Return true iff name is the name of a settings element. */
+	private static boolean isSettings(String name) {
+		for (String s : SETTINGS) {
+			if (s.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Read text[start..start+length-1], part of a run of text directly
+	 * inside the map element. Whitespace at either end of the run is
+	 * dropped. */
+	private void characters(char[] text, int start, int length) {
+		for (int i= start; i < start + length; i++) {
+			char c= text[i];
+			if (c <= ' ') {
+				spacePending= runStarted;
+				continue;
+			}
+			if (spacePending) {
+				tileCharacter(' ');
+				spacePending= false;
+			}
+			runStarted= true;
+			hasText= true;
+			tileCharacter(c);
+		}
+	}
+
+	/** End the run of text being read, if any. */
+	private void endRun() {
+		runStarted= false;
+		spacePending= false;
+	}
+
+	/** Read character c of the tiles. */
+	private void tileCharacter(char c) {
+		if (c == ';') {
+			endTile();
+			endRow();
+		}
+		else if (isWhitespace(c)) {
+			endTile();
+		}
+		else if (c == ',') {
+			endTile();
+			rowIsBlank= false;
+		}
+		else if (TOKENS.indexOf(c) != -1) {
+			endTile();
+			inTile= true;
+			tile.append(c);
+			rowIsBlank= false;
+		}
+		else {
+			if (inTile) {
+				tile.append(c);
+			}
+			rowIsBlank= false;
+		}
+	}
+
+	/** Return true iff c is whitespace, as \\s is in a regular expression. */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+				c == '\f' || c == '\r';
+	}
+
+	/** End the tile being read, if any, parsing it into the row being
+	 * read. */
+	private void endTile() {
+		if (inTile) {
+			addTile(tile.toString());
+			tile.setLength(0);
+			inTile= false;
+		}
+	}
+
+	/** Parse text, the text of a tile, and add it to the row being read. Its
+	 * fields are separated by '.' characters: its type, which begins with a
+	 * tile token and may hold the butterfly token, then its light, its
+	 * wind, the suffixes of the names of its flowers, and their aroma
+	 * intensities, the last two separated by '-' characters. */
+	private void addTile(String text) {
+		if (size == types.length) {
+			int capacity= 2 * size;
+			types= Arrays.copyOf(types, capacity);
+			flags= Arrays.copyOf(flags, capacity);
+			lights= Arrays.copyOf(lights, capacity);
+			winds= Arrays.copyOf(winds, capacity);
+			flowerStarts= Arrays.copyOf(flowerStarts, capacity + 1);
+			aromaStarts= Arrays.copyOf(aromaStarts, capacity + 1);
+		}
+		int t= size++;
+		// Splitting on a single character does not compile a regular expression
+		String fields[]= text.split("\\.");
+		byte tileFlags= 0;
+
+		String type= fields[TYPE_INDEX].trim();
+		if (type.indexOf(Common.BUTTERFLY_TOKEN) != -1) {
+			tileFlags |= BUTTERFLY;
+			type= type.replace(Common.BUTTERFLY_TOKEN, "");
+		}
+		int token= (type.length() == 1) ? TOKENS.indexOf(type.charAt(0)) : -1;
+		if (token == -1) {
+			Debugger.WARNING("Invalid tile token in parseTile: " + type);
+			types[t]= INVALID;
+		}
+		else {
+			types[t]= (byte) TOKEN_TYPES[token].ordinal();
+		}
+
+		if (LIGHT_INDEX < fields.length) {
+			try {
+				lights[t]= Math.max(0, Integer.parseInt(fields[LIGHT_INDEX].trim()));
+				tileFlags |= LIGHT;
+			}
+			catch (NumberFormatException e) {
+				// The map's light is used instead
+			}
+		}
+
+		if (WIND_INDEX < fields.length) {
+			try {
+				winds[t]= TileStore.pack(Wind.parseWind(fields[WIND_INDEX]));
+				tileFlags |= WIND;
+			}
+			catch (RuntimeException e) {
+				// The map's wind is used instead
+			}
+		}
+
+		int flowerEnd= flowerStarts[t];
+		if (FLOWER_INDEX < fields.length) {
+			tileFlags |= FLOWERS;
+			for (String suffix : fields[FLOWER_INDEX].split("-")) {
+				String name= "flower_" + suffix;
+				String shared= names.get(name);
+				if (shared == null) {
+					names.put(name, name);
+					shared= name;
+				}
+				if (flowerEnd == flowerNames.length) {
+					flowerNames= Arrays.copyOf(flowerNames, 2 * flowerEnd);
+				}
+				flowerNames[flowerEnd++]= shared;
+			}
+		}
+		flowerStarts[t + 1]= flowerEnd;
+
+		int aromaEnd= aromaStarts[t];
+		if (AROMA_INDEX < fields.length) {
+			tileFlags |= AROMAS;
+			for (String aroma : fields[AROMA_INDEX].split("-")) {
+				try {
+					double intensity= Math.max(0, Double.parseDouble(aroma));
+					if (aromaEnd == aromas.length) {
+						aromas= Arrays.copyOf(aromas, 2 * aromaEnd);
+					}
+					aromas[aromaEnd++]= intensity;
+				}
+				catch (NumberFormatException e) {
+					// An aroma that cannot be parsed is left out
+				}
+			}
+		}
+		aromaStarts[t + 1]= aromaEnd;
+
+		flags[t]= tileFlags;
+	}
+
+	/** End the row being read at a semicolon. A blank row before the first
+	 * semicolon is not a row. */
+	private void endRow() {
+		if (readSemicolon || !rowIsBlank) {
+			addRow();
+		}
+		readSemicolon= true;
+	}
+
+	/** End the last row, unless it is blank. */
+	private void endRows() {
+		endTile();
+		if (!rowIsBlank) {
+			addRow();
+		}
+	}
+
+	/** End the row being read, with the tiles read since the last row
+	 * ended, and start the next. */
+	private void addRow() {
+		if (height + 1 == rowStarts.length) {
+			rowStarts= Arrays.copyOf(rowStarts, 2 * rowStarts.length);
+		}
+		rowStarts[++height]= size;
+		width= Math.max(width, length(height - 1));
+		rowIsBlank= true;
+	}
+
+	/** An instance is a setting that the text content of an element is the
+	 * value of. */
+	private static class Setting {
+		/** The settings of the settings element the setting belongs to. */
+		final java.util.Map<String, String> owner;
+		/** The name of the setting. */
+		final String name;
+
+		/** Constructor: setting name of owner. */
+		Setting(java.util.Map<String, String> owner, String name) {
+			this.owner= owner;
+			this.name= name;
+		}
+
+		/** Return settings, or a new list if it is null, with setting name of
+		 * owner added. */
+		static List<Setting> add(List<Setting> settings,
+				java.util.Map<String, String> owner, String name) {
+			if (settings == null) {
+				settings= new ArrayList<Setting>(1);
+			}
+			settings.add(new Setting(owner, name));
+			return settings;
+		}
+	}
+}
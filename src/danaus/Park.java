@@ -5,8 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /** An instance represents the park on which a butterfly flies. In terms of 
  * abstraction, a park is aware of the concept of a simulation. A park knows
@@ -30,10 +29,14 @@ public class Park {
 	/** The current phase of the simulation. */
 	SimulationPhase phase;
 	
-	/** The time taken for a butterfly to learn a map. */
+	/** The time taken for a butterfly to learn a map, not counting the time
+	 * spent waiting for the GUI. */
 	long learningTime;
-	/** The time taken for a butterfly to execute on a map. */
+	/** The time taken for a butterfly to execute on a map, not counting the
+	 * time spent waiting for the GUI. */
 	long runningTime;	
+	/** The timer of the phases of the simulation, from making the map on. */
+	final PhaseTimer timer= new PhaseTimer();
 	
 	/** Initialize this park with a random map associated with simulator sim.
 	 */
@@ -52,12 +55,10 @@ public class Park {
 	 * 
 	 * @param sim A simulator.
 	 * @param f The filename of the map file.
-	 * @throws ParserConfigurationException
-	 * @throws SAXException
+	 * @throws XMLStreamException
 	 * @throws IOException
 	 */
-	Park(Simulator sim, String f) throws 
-	ParserConfigurationException, SAXException, IOException {
+	Park(Simulator sim, String f) throws XMLStreamException, IOException {
         // Initialize the park state first, as the map references it.
 		phase= SimulationPhase.LEARNING;
 		simulator= sim;
@@ -72,33 +73,32 @@ public class Park {
 	/** Begin a simulation. A butterfly first learns a map and then executes
 	 * on the map.  */ 
 	void simulate() {
-		long start= 0;
-		long stop= 0;
-		
 		// Learn the map
 		Debugger.DEBUG("Begin Learning...");
 		
-		start= System.nanoTime();
-		TileState[][] states= map.butterfly.learn();
-		stop= System.nanoTime();
+		TileState[][] states;
+		PhaseTimer.Phase previous= timer.enter(PhaseTimer.Phase.LEARNING);
+		try {
+			states= map.butterfly.learn();
+		}
+		finally {
+			timer.leave(previous);
+		}
+		learningTime= timer.wall(PhaseTimer.Phase.LEARNING);
 		
-		learningScore= gradeStates(states);
-		learningTime= stop - start;
+		previous= timer.enter(PhaseTimer.Phase.GRADING);
+		try {
+			learningScore= gradeStates(states);
+		}
+		finally {
+			timer.leave(previous);
+		}
 		
 		if (!Common.A3) {
 			//Run the map
 			Debugger.DEBUG("Begin Running...");
 		
-			if(!Common.HEADLESS) {
-				Color runColor= new Color(238, 232, 213); 
-				simulator.gui.northPanel.setBackground(runColor);
-				simulator.gui.statePanel.setBackground(runColor);
-				simulator.gui.tileInfoPanel.setBackground(runColor);
-			}
-		
-			phase= SimulationPhase.RUNNING;
-			map.reflower();
-			simulator.retile();
+			beginRunning();
 			ArrayList<Flower> allFlowers= new ArrayList<Flower>();
 			allFlowers.addAll(map.learningFlowers);
 			allFlowers.addAll(map.runningFlowers);
@@ -106,27 +106,56 @@ public class Park {
 				(int) (Common.MIN_REQUIRED_FLOWERS_FRACTION * allFlowers.size()),
 				(int) (Common.MAX_REQUIRED_FLOWERS_FRACTION * allFlowers.size())
 				);
-			state.requiredFlowers= 
-					(ArrayList<Flower>) map.rand.sample(allFlowers, requiredFlowersSize);
+			state.require(map.rand.sample(allFlowers, requiredFlowersSize));
+			if (null != simulator.recorder) {
+				simulator.recorder.running(learningScore, state);
+			}
 			List<Long> requiredIds= new ArrayList<Long>();
 			for (Flower f : state.requiredFlowers) {
 				requiredIds.add(f.getFlowerId());
 			}
 		
-			start= System.nanoTime();
-			map.butterfly.run(requiredIds);
-			stop= System.nanoTime();
-		
-			runningTime= stop - start;
+			previous= timer.enter(PhaseTimer.Phase.RUNNING);
+			try {
+				map.butterfly.run(requiredIds);
+			}
+			finally {
+				timer.leave(previous);
+			}
+			runningTime= timer.wall(PhaseTimer.Phase.RUNNING);
+		}
+	}
+	
+	/** Move from the learning phase to the running phase: show it on the
+	 * GUI, if there is one, and plant the running flowers. The required
+	 * flowers are left to be chosen. */
+	void beginRunning() {
+		if(!Common.HEADLESS) {
+			Color runColor= new Color(238, 232, 213); 
+			simulator.gui.northPanel.setBackground(runColor);
+			simulator.gui.statePanel.setBackground(runColor);
+			simulator.gui.tileInfoPanel.setBackground(runColor);
+		}
+	
+		phase= SimulationPhase.RUNNING;
+		PhaseTimer.Phase previous= timer.enter(PhaseTimer.Phase.REFLOWER);
+		try {
+			map.reflower();
 		}
+		finally {
+			timer.leave(previous);
+		}
+		simulator.retile();
 	}
 	
 	/** Grade a set of tile states against the true tile states of the map. A
 	 * point is awarded for every tile provided that matches the actual tiles.
 	 * If any part of the provided map is null, a score of zero is awarded. 
+	 * Bands of rows are graded in parallel.
 	 * 
 	 * @param states A two dimensional array of tile states. 
 	 * @return A percentage of correct tile states.
+	 * @see danaus.StateGrader
 	 */
 	private double gradeStates(TileState[][] states) {
 		if (null == states || null == states[0]) {
@@ -135,21 +164,7 @@ public class Park {
 		
 		int actualHeight= map.tiles.length;
 		int actualWidth= map.tiles[0].length;
-		int statesHeight= states.length;
-		int statesWidth= states[0].length;
-		
-		int width= Math.min(actualWidth, statesWidth);
-		int height= Math.min(actualHeight, statesHeight);
-		
-		int points= 0;
-		for (int row= 0; row < height; row++) {
-			for (int col= 0; col < width; col++) {
-				if (!map.tiles[row][col].flyable || 
-					map.tiles[row][col].tileState.equals(states[row][col])) {
-					points++;
-				}
-			}
-		}
+		int points= new StateGrader(map, states).points(true);
 		
 		return points / (double) (actualHeight * actualWidth) * 100;
 	}
@@ -177,30 +192,32 @@ public class Park {
 		simulator.update();
 	}
 	
+	/** Return the number of required flowers the butterfly collected. */
 	public int numberCorrect() {
-		List<Flower> reqCopy= new ArrayList<Flower>(state.requiredFlowers);
-		List<Flower> foundCopy= new ArrayList<Flower>(state.foundFlowers);
-		reqCopy.retainAll(foundCopy);
-		return reqCopy.size();
+		return state.scorecard.correct();
 	}
 	
 	/** Return the victory status of the park --true iff the butterfly collected
-	 * all the flowers. 
-     */
-	public boolean isVictorious() {		
-		List<Flower> reqCopy= new ArrayList<Flower>(state.requiredFlowers);
-		List<Flower> foundCopy1= new ArrayList<Flower>(state.foundFlowers);
-		List<Flower> foundCopy2= new ArrayList<Flower>(state.foundFlowers);
-		foundCopy1.removeAll(reqCopy); // Extra flowers.
-		reqCopy.removeAll(foundCopy2); // Unfound flowers.
+	 * all the flowers, and no others. Warn of each extra flower it collected
+	 * and each required flower it did not.
+	 * @see danaus.Scorecard
+	 */
+	public boolean isVictorious() {
+		Scorecard scorecard= state.scorecard;
+		if (scorecard.isVictorious()) {
+			return true;
+		}
 		
-		for (Flower extra: foundCopy1) {
-			Debugger.WARNING("Extra flower found: " + extra.toString());
+		for (Flower found : state.foundFlowers) {
+			if (!scorecard.isRequired(found)) {
+				Debugger.WARNING("Extra flower found: " + found.toString());
+			}
 		}
-		for (Flower unfound : reqCopy) {
-			Debugger.WARNING("Unfound flower: " + unfound.toString());
+		for (Flower required : state.requiredFlowers) {
+			if (!scorecard.isFound(required)) {
+				Debugger.WARNING("Unfound flower: " + required.toString());
+			}
 		}
-		
-		return reqCopy.size() == 0 && foundCopy1.size() == 0;
+		return false;
 	}
 }
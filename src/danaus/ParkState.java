@@ -30,6 +30,10 @@ public class ParkState {
 	/** The flowers the player has found. */
 	List<Flower> foundFlowers;
 	
+	/** The score kept of the required and found flowers, as they are chosen
+	 * and found. */
+	final Scorecard scorecard= new Scorecard();
+	
 	/** The total power spent by the player. */
 	long powerSpent;
 	/** The total power consumed by the player. */
@@ -39,6 +43,44 @@ public class ParkState {
 	/** The number of water collisions. */
 	long waterCollisions;
 	
+	/** Make flowers the required flowers the player must find. */
+	void require(List<Flower> flowers) {
+		requiredFlowers= flowers;
+		scorecard.require(flowers);
+	}
+	
+	/** Record that the player found flower. */
+	void found(Flower flower) {
+		foundFlowers.add(flower);
+		scorecard.collect(flower);
+	}
+	
+	/** Return a hash of this state: of its counts, and of the ids of its
+	 * required and found flowers, in order. Two simulations that make the
+	 * same moves on the same map have states with the same hash.
+	 * @see danaus.FlightTrace */
+	long hash() {
+		long h= 1125899906842597L;
+		long counts[]= {step, slowSteps, numTiles, exploredTiles, powerSpent,
+				powerConsumed, cliffCollisions, waterCollisions};
+		for (long count : counts) {
+			h= 31 * h + count;
+		}
+		return hash(hash(h, requiredFlowers), foundFlowers);
+	}
+	
+	/** Return hash h combined with the ids of flowers, in order. */
+	private static long hash(long h, List<Flower> flowers) {
+		if (flowers == null) {
+			return 31 * h - 1;
+		}
+		h= 31 * h + flowers.size();
+		for (Flower flower : flowers) {
+			h= 31 * h + flower.getFlowerId();
+		}
+		return h;
+	}
+	
 	/**Return a string representation of the object. 
 	 *
 	 * @return a string representation of the object.
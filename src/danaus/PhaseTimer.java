@@ -0,0 +1,186 @@
+package danaus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Formatter;
+import java.util.Locale;
+
+/** An instance times the phases of a park's simulation: the wall time, the
+ * CPU time of the thread, and the bytes the thread allocated in each. The
+ * simulation is in at most one phase at a time. Entering a phase while in
+ * another charges the time since to the other, and leaving it returns to
+ * the other, so a phase nested in another, such as spreading aromas while
+ * the map is made, is not charged to both.
+ * <br>
+ * The time the simulation spends waiting for the GUI to animate it is a
+ * phase of its own, GUI_WAIT, so it is charged to no other phase. Work done
+ * on other threads, as by the ForkJoin pool that spreads aromas in
+ * parallel, is in the wall time of a phase but not in its CPU time or
+ * allocated bytes.
+ * @see danaus.Park#timer
+ */
+class PhaseTimer {
+	/** The phases of a simulation that are timed. */
+	enum Phase {
+		PARSE("Map Parse"),
+		CACHE("Map Cache"),
+		GENERATION("Map Generation"),
+		AROMA("Aroma Spread"),
+		WIND("Wind Spread"),
+		LEARNING("Learning"),
+		GRADING("Grading"),
+		REFLOWER("Reflower"),
+		RUNNING("Running"),
+		GUI_WAIT("GUI Wait");
+
+		/** The name of the phase in the statistics. */
+		final String label;
+
+		Phase(String label) {
+			this.label= label;
+		}
+	}
+
+	/** The threads of the JVM, whose CPU time is measured. */
+	private static final ThreadMXBean THREADS= ManagementFactory.getThreadMXBean();
+	/** The threads of the JVM, if their allocated bytes can be measured, or
+	 * null if they cannot. */
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS=
+			allocations();
+
+	/** The wall time, CPU time, and allocated bytes of each phase, indexed
+	 * by its ordinal. A CPU time or allocated bytes is -1 if it cannot be
+	 * measured. */
+	private final long[] wall= new long[Phase.values().length];
+	private final long[] cpu= new long[Phase.values().length];
+	private final long[] allocated= new long[Phase.values().length];
+
+	/** The phase the simulation is in, or null if it is in none. */
+	private Phase current;
+	/** The wall time, CPU time, and allocated bytes of the thread when the
+	 * time of the current phase was last charged. */
+	private long wallMark;
+	private long cpuMark;
+	private long allocatedMark;
+
+	/** Constructor: a timer of a simulation in no phase. */
+	PhaseTimer() {
+		mark();
+	}
+
+	/** Enter phase, charging the time since the last change of phase to the
+	 * current one, and return the phase it was in, or null if none. Leave it
+	 * by passing the phase returned to leave(Phase).
+	 * Precondition: phase is not null, and the phase is left on the thread
+	 * that entered it. */
+	synchronized Phase enter(Phase phase) {
+		charge();
+		Phase previous= current;
+		current= phase;
+		return previous;
+	}
+
+	/** Leave the current phase for phase previous, which enter(Phase)
+	 * returned, charging the time since the last change of phase to the
+	 * current one. */
+	synchronized void leave(Phase previous) {
+		charge();
+		current= previous;
+	}
+
+	/** Return the wall time of phase, in nanoseconds. */
+	synchronized long wall(Phase phase) {
+		return wall[phase.ordinal()];
+	}
+
+	/** Return the CPU time of phase, in nanoseconds, or -1 if it cannot be
+	 * measured. */
+	synchronized long cpu(Phase phase) {
+		return (cpuMark < 0) ? -1 : cpu[phase.ordinal()];
+	}
+
+	/** Return the bytes allocated in phase, or -1 if they cannot be
+	 * measured. */
+	synchronized long allocated(Phase phase) {
+		return (allocatedMark < 0) ? -1 : allocated[phase.ordinal()];
+	}
+
+	/** Add the time since the last change of phase to the current phase. */
+	private void charge() {
+		long wallStart= wallMark;
+		long cpuStart= cpuMark;
+		long allocatedStart= allocatedMark;
+		mark();
+		if (current == null) {
+			return;
+		}
+		int i= current.ordinal();
+		wall[i] += wallMark - wallStart;
+		cpu[i] += cpuMark - cpuStart;
+		allocated[i] += allocatedMark - allocatedStart;
+	}
+
+	/** Record the wall time, CPU time, and allocated bytes of the thread. */
+	private void mark() {
+		wallMark= System.nanoTime();
+		cpuMark= THREADS.isCurrentThreadCpuTimeSupported() ?
+				THREADS.getCurrentThreadCpuTime() : -1;
+		allocatedMark= (ALLOCATIONS == null) ? -1 :
+				ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** Return the threads of the JVM, if their allocated bytes can be
+	 * measured, or null if they cannot, as on a JVM that is not HotSpot. */
+	private static com.sun.management.ThreadMXBean allocations() {
+		try {
+			if (THREADS instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threads=
+						(com.sun.management.ThreadMXBean) THREADS;
+				if (threads.isThreadAllocatedMemorySupported() &&
+						threads.isThreadAllocatedMemoryEnabled()) {
+					return threads;
+				}
+			}
+		}
+		catch (LinkageError e) {
+			// com.sun.management is not there
+		}
+		return null;
+	}
+
+	/** Return a table of the wall time, CPU time, and allocated bytes of each
+	 * phase, and of all but GUI_WAIT together. */
+	public synchronized @Override String toString() {
+		StringBuilder builder= new StringBuilder();
+		Formatter formatter= new Formatter(builder, Locale.US);
+		formatter.format("%-16s %12s %12s %16s\n", "Phase", "Wall (s)",
+				"CPU (s)", "Allocated (B)");
+
+		long totalWall= 0;
+		long totalCpu= 0;
+		long totalAllocated= 0;
+		for (Phase phase : Phase.values()) {
+			format(formatter, phase.label, wall(phase), cpu(phase),
+					allocated(phase));
+			if (phase != Phase.GUI_WAIT) {
+				totalWall += wall(phase);
+				totalCpu += cpu(phase);
+				totalAllocated += allocated(phase);
+			}
+		}
+		format(formatter, "Total", totalWall, (cpuMark < 0) ? -1 : totalCpu,
+				(allocatedMark < 0) ? -1 : totalAllocated);
+
+		formatter.close();
+		return builder.substring(0, builder.length() - 1);
+	}
+
+	/** Format a row of the table with label, wall time wall, CPU time cpu,
+	 * and allocated bytes allocated, with n/a for those that are -1. */
+	private static void format(Formatter formatter, String label, long wall,
+			long cpu, long allocated) {
+		formatter.format("%-16s %12.6f %12s %16s\n", label, wall / 1000000000.0,
+				(cpu < 0) ? "n/a" : String.format(Locale.US, "%.6f", cpu / 1000000000.0),
+				(allocated < 0) ? "n/a" : String.format(Locale.US, "%,d", allocated));
+	}
+}
@@ -9,6 +9,10 @@ package danaus;
 public class Power implements Comparable<Power> {
 	/** Power, in the range MIN_POWER..MAX_POWER. */
 	private int power;
+	/** True iff power never changes from MAX_POWER once it is added to or
+	 * subtracted from.
+	 * @see danaus.Common#INFINITE_ENERGY */
+	private boolean infinite;
 	
 	/** Constructor: an object with the default power DEFAULT_POWER. */
 	Power() {
@@ -22,6 +26,12 @@ public class Power implements Comparable<Power> {
 	Power(int p) {
 	    assert p >= Common.MIN_POWER;
 		power= fixPower(p);
+		infinite= Common.INFINITE_ENERGY;
+	}
+	
+	/** Make power infinite iff infinite is true. */
+	void setInfinite(boolean infinite) {
+		this.infinite= infinite;
 	}
 	
 	/** Return the power of this object. */
@@ -35,7 +45,7 @@ public class Power implements Comparable<Power> {
 	 * Throw a NoPowerException if the power gets below MIN_POWER. 
      */
 	public void addPower(int p) {
-		if (Common.INFINITE_ENERGY) {
+		if (infinite) {
 			power= Common.MAX_POWER;
 		}
 		else {
@@ -50,7 +60,7 @@ public class Power implements Comparable<Power> {
 	 * Throw a NoPowerException if the power gets below MIN_POWER.
 	 */
 	public void subtractPower(int p) {
-		if (Common.INFINITE_ENERGY) {
+		if (infinite) {
 			power= Common.MAX_POWER;
 		}
 		else {
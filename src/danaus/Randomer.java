@@ -11,12 +11,49 @@ import java.util.Random;
  */
 @SuppressWarnings("serial")
 public class Randomer extends Random {
+	/** The multiplier, addend and mask of the linear congruential generator
+	 * of Random, which this class steps itself so its state can be read. */
+	private static final long MULTIPLIER= 0x5DEECE66DL;
+	private static final long ADDEND= 0xBL;
+	private static final long MASK= (1L << 48) - 1;
+
+	/** The 48-bit state of the generator. It has no initializer, since
+	 * Random's constructor sets it through setSeed(...) before the fields of
+	 * this class are initialized. */
+	private long state;
+
 	/** Constructor: an instance with a random seed. */
 	public Randomer() {}
 
     /** Constructor: an instance with seed seed. */
 	public Randomer(long seed) {super(seed);}
 
+	/** Set the seed of this generator to seed, as Random does. */
+	public @Override synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		state= (seed ^ MULTIPLIER) & MASK;
+	}
+
+	/** Return the next pseudorandom number with bits random bits, as
+	 * Random does. */
+	protected @Override synchronized int next(int bits) {
+		state= (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/** Return the 48-bit state of this generator. A generator given it by
+	 * setState(...) draws the same numbers this one draws from now on.
+	 * Numbers from nextGaussian() are not kept in it. */
+	synchronized long getState() {
+		return state;
+	}
+
+	/** Set the 48-bit state of this generator to state.
+	 * @see danaus.Randomer#getState() */
+	synchronized void setState(long state) {
+		setSeed(state ^ MULTIPLIER);
+	}
+
     /** Return a random integer in the range low..high. */
 	public int nextInt(int low, int high) {	
 		return nextInt(high - low + 1) + low;
@@ -0,0 +1,114 @@
+package danaus;
+
+import java.util.BitSet;
+import java.util.List;
+
+/** An instance keeps the score of a run: which flowers are required, which
+ * have been found, and which of those found are extra, as sets of flower ids
+ * kept as bits. It is told of each collection as it happens, so whether the
+ * run is won, and how far along it is, are known at once, however many
+ * flowers there are.
+ * <br>
+ * Flower ids are given out by the map from 0 up, so they index bits
+ * directly. A flower counts once however often it is collected, as the
+ * lists of the park state did when they were compared at the end.
+ * @see danaus.ParkState#scorecard
+ */
+class Scorecard {
+	/** The ids of the required flowers. */
+	private final BitSet required= new BitSet();
+	/** The ids of the flowers found. */
+	private final BitSet found= new BitSet();
+
+	/** The number of required flowers. */
+	private int requiredCount;
+	/** The number of flowers found, each counted once. */
+	private int foundCount;
+	/** The number of required flowers found. */
+	private int correctCount;
+	/** The number of collections of flowers, counting a flower collected
+	 * twice twice. */
+	private int collections;
+	/** True iff the required flowers have been chosen. */
+	private boolean chosen;
+
+	/** Make flowers the required flowers, in place of any chosen before.
+	 * Precondition: flowers is not null. */
+	void require(List<Flower> flowers) {
+		required.clear();
+		for (Flower flower : flowers) {
+			required.set(bit(flower));
+		}
+		requiredCount= required.cardinality();
+		BitSet correct= (BitSet) required.clone();
+		correct.and(found);
+		correctCount= correct.cardinality();
+		chosen= true;
+	}
+
+	/** Record that flower, which is on the butterfly's tile, was collected. */
+	void collect(Flower flower) {
+		collections++;
+		int bit= bit(flower);
+		if (found.get(bit)) {
+			return;
+		}
+		found.set(bit);
+		foundCount++;
+		if (required.get(bit)) {
+			correctCount++;
+		}
+	}
+
+	/** Return true iff the required flowers have been chosen. */
+	boolean isChosen() {
+		return chosen;
+	}
+
+	/** Return true iff flower is required. */
+	boolean isRequired(Flower flower) {
+		return required.get(bit(flower));
+	}
+
+	/** Return true iff flower has been found. */
+	boolean isFound(Flower flower) {
+		return found.get(bit(flower));
+	}
+
+	/** Return the number of required flowers, or 0 if they have not been
+	 * chosen. */
+	int required() {
+		return requiredCount;
+	}
+
+	/** Return the number of required flowers found. */
+	int correct() {
+		return correctCount;
+	}
+
+	/** Return the number of flowers found that are not required. */
+	int extra() {
+		return foundCount - correctCount;
+	}
+
+	/** Return the number of collections of flowers, counting a flower
+	 * collected twice twice. */
+	int collections() {
+		return collections;
+	}
+
+	/** Return true iff every required flower, and no other, has been found. */
+	boolean isVictorious() {
+		return correctCount == requiredCount && foundCount == correctCount;
+	}
+
+	/** Return the bit of flower's id.
+	 * Precondition: flower is not null. */
+	private static int bit(Flower flower) {
+		long id= flower.getFlowerId();
+		if (id < 0 || id > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("flower id out of range: " + id);
+		}
+		return (int) id;
+	}
+}
@@ -0,0 +1,106 @@
+package danaus;
+
+/** An instance holds the settings of one simulation that can differ from one
+ * simulation to the next in the same JVM: its seed, its map file, the class
+ * of its butterfly, the file its flights are recorded to, and the settings
+ * of Common that shape its map and its butterfly's power. A simulation reads
+ * these from its context rather than from Common, so simulations run side
+ * by side in a batch, or replayed from a flight trace, do not see each
+ * other's. Every other setting is read from Common, and is the same for
+ * every simulation of a batch.
+ * @see danaus.Batch
+ * @see danaus.FlightTrace
+ */
+class SimulationContext {
+	/** The seed of the map's randomizer, or null for a random seed. */
+	final Integer seed;
+	/** The map file to read the map from, or null for a random map. */
+	final String mapFilename;
+	/** The name of the class of the butterfly, prefixed with its package. */
+	final String className;
+	/** The trace file to record the butterfly's flights to, or null if they
+	 * are not recorded.
+	 * @see danaus.FlightRecorder */
+	final String traceFilename;
+
+	/** The settings of the map and the butterfly's power, each null or false
+	 * if it is not given.
+	 * @see danaus.Common#AROMA_THRESHOLD
+	 * @see danaus.Common#MAP_HEIGHT
+	 * @see danaus.Common#CHUNKED_MAPS
+	 * @see danaus.Common#LAZY_AROMAS
+	 * @see danaus.Common#INFINITE_ENERGY */
+	final Double aromaThreshold;
+	final Integer mapHeight;
+	final Integer mapWidth;
+	final Double landFraction;
+	final Double forestFraction;
+	final Double cliffFraction;
+	final Double flowerDensity;
+	final boolean chunkedMaps;
+	final boolean lazyAromas;
+	final boolean infiniteEnergy;
+
+	/** Constructor: a context with seed seed, map file mapFilename, and
+	 * butterfly class className, whose flights are not recorded, and with
+	 * the settings of the map and power that Common has now.
+	 * Precondition: className is not null. */
+	SimulationContext(Integer seed, String mapFilename, String className) {
+		this(seed, mapFilename, className, null);
+	}
+
+	/** Constructor: a context with seed seed, map file mapFilename, and
+	 * butterfly class className, whose flights are recorded to trace file
+	 * traceFilename, unless it is null, and with the settings of the map and
+	 * power that Common has now.
+	 * Precondition: className is not null. */
+	SimulationContext(Integer seed, String mapFilename, String className,
+			String traceFilename) {
+		this(seed, mapFilename, className, traceFilename,
+				Common.AROMA_THRESHOLD, Common.MAP_HEIGHT, Common.MAP_WIDTH,
+				Common.MAP_LAND_FRACTION, Common.MAP_FOREST_FRACTION,
+				Common.MAP_CLIFF_FRACTION, Common.MAP_FLOWER_DENSITY,
+				Common.CHUNKED_MAPS, Common.LAZY_AROMAS, Common.INFINITE_ENERGY);
+	}
+
+	/** Constructor: a context with seed seed, map file mapFilename, and
+	 * butterfly class className, whose flights are recorded to trace file
+	 * traceFilename, unless it is null, and with the settings of the map and
+	 * power given, in the order of the fields of this class.
+	 * Precondition: className is not null. */
+	SimulationContext(Integer seed, String mapFilename, String className,
+			String traceFilename, Double aromaThreshold, Integer mapHeight,
+			Integer mapWidth, Double landFraction, Double forestFraction,
+			Double cliffFraction, Double flowerDensity, boolean chunkedMaps,
+			boolean lazyAromas, boolean infiniteEnergy) {
+		Debugger.NULL_CHECK(className, "null className in SimulationContext");
+		this.seed= seed;
+		this.mapFilename= mapFilename;
+		this.className= className;
+		this.traceFilename= traceFilename;
+		this.aromaThreshold= aromaThreshold;
+		this.mapHeight= mapHeight;
+		this.mapWidth= mapWidth;
+		this.landFraction= landFraction;
+		this.forestFraction= forestFraction;
+		this.cliffFraction= cliffFraction;
+		this.flowerDensity= flowerDensity;
+		this.chunkedMaps= chunkedMaps;
+		this.lazyAromas= lazyAromas;
+		this.infiniteEnergy= infiniteEnergy;
+	}
+
+	/** Return the context given on the command line, with map file
+	 * mapFilename: the seed, the first butterfly class, the trace file, and
+	 * the settings of the map and power of Common. */
+	static SimulationContext fromCommandLine(String mapFilename) {
+		return new SimulationContext(Common.SEED, mapFilename,
+				Common.CLASS_NAMES.get(0), Common.TRACE_FILENAME);
+	}
+
+	/** Return a string representation of this context. */
+	public @Override String toString() {
+		return ((mapFilename == null) ? "random" : mapFilename) +
+				" " + ((seed == null) ? "-" : seed) + " " + className;
+	}
+}
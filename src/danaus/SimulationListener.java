@@ -0,0 +1,27 @@
+package danaus;
+
+/** A callback interface told of the events of a simulation as they happen,
+ * by the thread running the simulation. A simulator passes every event to
+ * its listener, which shows it to the user, or ignores it if there is no GUI.
+ * A listener should return quickly, since the simulation waits for it.
+ * @see danaus.Simulator#listener
+ */
+public interface SimulationListener {
+	/** The butterfly ended a turn at (toRow, toCol), having started it at
+	 * (fromRow, fromCol). It flew in direction heading, or did not fly if
+	 * heading is null, slowed down by slowDown. */
+	public void moved(int slowDown, Direction heading, 
+			int fromRow, int fromCol, int toRow, int toCol);
+
+	/** The state of the park changed without the butterfly moving. */
+	public void updated();
+
+	/** The map's tiles, given by tiles, sprouted flowers, as they do when the
+	 * simulation begins running. */
+	public void retiled(Tile[][] tiles);
+
+	/** The park was replaced by a new park on the same map, whose tiles are
+	 * given by tiles, as it is when a replay seeks backward.
+	 * @see danaus.FlightReplay */
+	public void reset(Tile[][] tiles);
+}
@@ -3,8 +3,7 @@ package danaus;
 import java.awt.Color;
 import java.io.IOException;
 import java.util.concurrent.Semaphore;
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /** An instance represents the heart of Danaus' simulation engine. The 
  * controller in the Model-View-Controller pattern, a simulator connects the
@@ -32,6 +31,15 @@ public class Simulator {
 	/** When the Simulator owns the semaphore, the GUI cannot move. When the 
 	 * GUI owns the semaphore, the simulator cannot run. */
 	public Semaphore GUIMoving;
+	/** The settings of this simulator's simulation that are not shared with
+	 * other simulations in the same JVM. */
+	final SimulationContext context;
+	/** The listener told of the events of this simulator's simulation. It
+	 * ignores them unless there is a GUI. */
+	SimulationListener listener= new HeadlessListener();
+	/** The recorder of the butterfly's flights, or null if they are not
+	 * recorded. */
+	FlightRecorder recorder;
 	
 	////////////////////////////////////////////////////////////////////////////
 	// Static Methods
@@ -44,12 +52,26 @@ public class Simulator {
 	 * @see danaus.Simulator#handle_arguments(String[])
 	 */
 	public static void main(String args[]) 
-	throws ParserConfigurationException, SAXException, IOException {		
+	throws XMLStreamException, IOException {		
 		Debugger.DEBUG("Simulation Enterred...");
 		
 		Debugger.DEBUG("Parsing Arguments...");
 		Simulator.handle_arguments(args);
 		Common.INFINITE_ENERGY= true;
+		
+		if (null != Common.REPLAY_FILENAME) {
+			Debugger.DEBUG("Replaying Flight Trace...");
+			replay(Common.REPLAY_FILENAME);
+			return;
+		}
+		
+		if (Common.BATCH) {
+			Debugger.DEBUG("Running Batch...");
+			if (0 != Batch.fromCommandLine().run(System.out)) {
+				System.exit(1);
+			}
+			return;
+		}
 				
 		final Simulator simulator;
 		if (null == Common.MAP_FILENAME) {
@@ -59,10 +81,18 @@ public class Simulator {
 			simulator= new Simulator(Common.MAP_FILENAME);
 		}
 		
+		if (null != Common.CONVERT_FILENAME) {
+			Debugger.DEBUG("Converting Map...");
+			simulator.park.map.writeBinary(Common.CONVERT_FILENAME, 
+					Common.CONVERT_AROMAS);
+			return;
+		}
+		
 		if (!Common.HEADLESS) {
 			Debugger.DEBUG("GUI Initializing...");
 			GUI gui= new GUI(simulator);
 			simulator.gui= gui;
+			simulator.listener= gui.listener;
 			gui.updateState(simulator.park.state, simulator.park.map.butterfly);
 			gui.setVisible(true);
 		}
@@ -84,6 +114,53 @@ public class Simulator {
 		}
 	}
 	
+	/** Replay trace file filename: show it on a GUI, whose controls play it,
+	 * or, if headless, replay it at once, check it, and print the game
+	 * statistics it ended with. Exit with error 1 if it cannot be read or
+	 * does not match its map.
+	 * @see danaus.FlightReplay
+	 */
+	private static void replay(String filename) {
+		FlightReplay replay= null;
+		try {
+			replay= new FlightReplay(FlightTrace.read(filename));
+		}
+		catch (XMLStreamException | IOException e) {
+			Debugger.ERROR("cannot replay " + filename + ": " + e.getMessage());
+			System.exit(1);
+		}
+		Simulator simulator= replay.simulator;
+		
+		if (!Common.HEADLESS) {
+			Debugger.DEBUG("GUI Initializing...");
+			GUI gui= new GUI(simulator);
+			simulator.gui= gui;
+			simulator.listener= gui.listener;
+			gui.addReplay(replay);
+			gui.updateState(simulator.park.state, simulator.park.map.butterfly);
+			gui.setVisible(true);
+			Thread thread= new Thread(replay, "replay");
+			thread.setDaemon(true);
+			thread.start();
+			return;
+		}
+		
+		boolean verified= replay.replayAll();
+		if (simulator.park.state.scorecard.isChosen()) {
+			if (simulator.park.isVictorious()) {
+				simulator.victory();
+			}
+			else {
+				simulator.failure();
+			}
+		}
+		if (!verified) {
+			System.exit(1);
+		}
+		System.out.println("Replayed " + replay.length() + " records of " + 
+				filename + ": verified.");
+	}
+	
 	/** Handle command line arguments. Arguments must be formatted as if they
 	 * were parsed by the getopt command. That is, options cannot be grouped,
 	 * arguments must follow the options separated by whitespace, etc. Class
@@ -112,6 +189,7 @@ public class Simulator {
 			case ("-f"):
 			case ("--file"):
 				Common.MAP_FILENAME = sysv[i + 1];
+				Common.MAP_FILENAMES.add(sysv[i + 1]);
 				i += 2;
 				break;
 			case ("-d"):
@@ -129,6 +207,88 @@ public class Simulator {
 				Common.INFINITE_ENERGY = true;
 				i++;
 				break;
+			case ("-p"):
+			case ("--parallel"):
+				Common.PARALLEL_AROMAS = true;
+				i++;
+				break;
+			case ("-c"):
+			case ("--chunked"):
+				Common.CHUNKED_MAPS = true;
+				i++;
+				break;
+			case ("-l"):
+			case ("--lazy"):
+				Common.LAZY_AROMAS = true;
+				i++;
+				break;
+			case ("-t"):
+			case ("--threshold"):
+				Common.AROMA_THRESHOLD = Math.max(0, Double.parseDouble(sysv[i + 1]));
+				i += 2;
+				break;
+			case ("--height"):
+				Common.MAP_HEIGHT = Integer.parseInt(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--width"):
+				Common.MAP_WIDTH = Integer.parseInt(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--land"):
+				Common.MAP_LAND_FRACTION = Double.parseDouble(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--forest"):
+				Common.MAP_FOREST_FRACTION = Double.parseDouble(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--cliff"):
+				Common.MAP_CLIFF_FRACTION = Double.parseDouble(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--density"):
+				Common.MAP_FLOWER_DENSITY = Double.parseDouble(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--cache"):
+				Common.MAP_CACHE_DIR = sysv[i + 1];
+				i += 2;
+				break;
+			case ("--convert"):
+				Common.CONVERT_FILENAME = sysv[i + 1];
+				i += 2;
+				break;
+			case ("--aromas"):
+				Common.CONVERT_AROMAS = true;
+				i++;
+				break;
+			case ("-b"):
+			case ("--batch"):
+				Common.BATCH = true;
+				Common.HEADLESS = true;
+				i++;
+				break;
+			case ("--lockstep"):
+				Common.LOCKSTEP = true;
+				i++;
+				break;
+			case ("--seeds"):
+				addSeeds(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--workers"):
+				Common.BATCH_WORKERS = Integer.parseInt(sysv[i + 1]);
+				i += 2;
+				break;
+			case ("--record"):
+				Common.TRACE_FILENAME = sysv[i + 1];
+				i += 2;
+				break;
+			case ("--replay"):
+				Common.REPLAY_FILENAME = sysv[i + 1];
+				i += 2;
+				break;
 			default:
 				Common.CLASS_NAMES.add(sysv[i]);
 				i++;
@@ -142,6 +302,22 @@ public class Simulator {
 		}
 	}
 	
+	/** Add the seeds of range to Common.BATCH_SEEDS. range is either a seed
+	 * or an inclusive range of seeds first..last. */
+	private static void addSeeds(String range) {
+		int dots = range.indexOf("..");
+		if (dots == -1) {
+			Common.BATCH_SEEDS.add(Integer.parseInt(range));
+			return;
+		}
+		
+		int first = Integer.parseInt(range.substring(0, dots));
+		int last = Integer.parseInt(range.substring(dots + 2));
+		for (long seed = first; seed <= last; seed++) {
+			Common.BATCH_SEEDS.add((int) seed);
+		}
+	}
+	
 	/** Print the usage of this application. */
 	public static void usage() {
 		String call    = "java danaus.Simulator ";
@@ -150,8 +326,20 @@ public class Simulator {
 		options       += "[-d | --debug] ";
 		options       += "[-w | --warning] ";
 		options       += "[-i | --infinite] ";
+		options       += "[-p | --parallel] ";
+		options       += "[-l | --lazy] ";
+		options       += "[-c | --chunked] ";
 		options 	  += "[-s | --seed seed] ";
 		options 	  += "[-f | --file file] ";
+		options 	  += "[-t | --threshold intensity] ";
+		options 	  += "[--height rows] [--width columns] ";
+		options 	  += "[--land fraction] [--forest fraction] ";
+		options 	  += "[--cliff fraction] [--density fraction] ";
+		options 	  += "[--cache directory] ";
+		options 	  += "[--convert file] [--aromas] ";
+		options 	  += "[--lockstep] ";
+		options 	  += "[-b | --batch] [--seeds first..last] [--workers n] ";
+		options 	  += "[--record file] [--replay file] ";
 		String params  = "[class]...";
 		System.out.println("USAGE " + call + options + params); 
 	}
@@ -162,57 +350,81 @@ public class Simulator {
 	
 	/** Constructor: an instance operating on a random map. */
 	Simulator() {
+		context= SimulationContext.fromCommandLine(null);
 		park= new Park(this);
 		GUIMoving= new Semaphore(1);
 		Common.acquire_or_exit(GUIMoving);
 	}
 	
 	/** Constructor: an instance using the map given by filename. 
-     * Throw a ParserConfigurationException, SAXException, or IOEXception if 
-     * there is a problem with the map.
+     * Throw an XMLStreamException or IOException if there is a problem with
+     * the map.
 	 */
-	Simulator(String filename) throws ParserConfigurationException, 
-	SAXException, IOException {
+	Simulator(String filename) throws XMLStreamException, IOException {
+		context= SimulationContext.fromCommandLine(filename);
 		park= new Park(this, filename);
 		GUIMoving= new Semaphore(1);
 		Common.acquire_or_exit(GUIMoving);
 	}
 	
-	/* Begin the simulation. */
-	public void simulate() {
-		park.simulate();
+	/** Constructor: an instance simulating context, on its map file or, if
+	 * it has none, on a random map. Throw an XMLStreamException or
+	 * IOException if there is a problem with the map.
+	 */
+	Simulator(SimulationContext context) 
+			throws XMLStreamException, IOException {
+		this.context= context;
+		reset();
+		GUIMoving= new Semaphore(1);
+		Common.acquire_or_exit(GUIMoving);
 	}
 	
-	/** Update the GUI if one is being used.  */
-	public synchronized void update(int speed, Direction direction, 
-			int fromRow, int fromCol, int toRow, int toCol) {
-		if (Common.HEADLESS) {
-			return;
+	/** Give this simulator a new park on its context's map file or, if it
+	 * has none, on a random map made with its seed. Throw an
+	 * XMLStreamException or IOException if there is a problem with the map.
+	 */
+	void reset() throws XMLStreamException, IOException {
+		if (null == context.mapFilename) {
+			park= new Park(this);
+		}
+		else {
+			park= new Park(this, context.mapFilename);
 		}
-		
-		GUIMoving.release();
-		gui.updateState(park.state, park.map.butterfly);
-		gui.move(speed, direction, toRow, toCol);
-		Common.acquire_or_exit(GUIMoving);
 	}
 	
-	/**Update the GUI if one is being used. */
-	public synchronized void update() {
-		if (Common.HEADLESS) {
-			return;
+	/* Begin the simulation, recording the butterfly's flights if the context
+	 * gives a trace file. */
+	public void simulate() {
+		if (null != context.traceFilename) {
+			recorder= FlightRecorder.open(context.traceFilename, this);
+		}
+		try {
+			park.simulate();
+		}
+		finally {
+			if (null != recorder) {
+				recorder.close(park.state, park.map.butterfly.location);
+			}
 		}
-		
-		GUIMoving.release();
-		gui.updateState(park.state, park.map.butterfly);
-		Common.acquire_or_exit(GUIMoving);
 	}
 	
-	/**Inform the GUI to retile itself. This is executed during the transition
-	 * to running mode. */
+	/** Tell the listener that the butterfly moved.
+	 * @see danaus.SimulationListener#moved(int, Direction, int, int, int, int)
+	 */
+	public void update(int speed, Direction direction, 
+			int fromRow, int fromCol, int toRow, int toCol) {
+		listener.moved(speed, direction, fromRow, fromCol, toRow, toCol);
+	}
+	
+	/** Tell the listener that the state of the park changed. */
+	public void update() {
+		listener.updated();
+	}
+	
+	/** Tell the listener that the map's tiles sprouted flowers. This is
+	 * executed during the transition to running mode. */
 	public void retile() {
-		if (!Common.HEADLESS) {
-			gui.retile(park.map.tiles);
-		}
+		listener.retiled(park.map.tiles);
 	}
 	
 	/** Congratulate the player on their victory. */
@@ -250,6 +462,8 @@ public class Simulator {
 			System.out.println("WIN");
 			System.out.println("=================================");
 			System.out.println(getPerfStats());
+			System.out.println("---------------------------------");
+			System.out.println(park.timer);
 		}
 		else {
 			System.out.println("Simulation complete.");
@@ -269,6 +483,8 @@ public class Simulator {
 		System.out.println("LOSE.");
 		System.out.println("==================================");
 		System.out.println(getPerfStats());
+		System.out.println("----------------------------------");
+		System.out.println(park.timer);
 	}
 	
 	/** Return a string version of the game's performance statistics. */
@@ -320,8 +536,8 @@ public class Simulator {
 			);
 			String flowersCorrect= String.format(
 				"%-" + colOneSize + "s: %" + halfColTwoSize + "s/%" + halfColTwoSize + "s", 
-				"Flowers Found", park.state.foundFlowers.size(), 
-				park.state.requiredFlowers.size()
+				"Flowers Found", park.state.scorecard.collections(), 
+				park.state.scorecard.required()
 			);
 	
 			return turns + 
@@ -369,8 +585,8 @@ public class Simulator {
 			);
 			String flowersCorrect= String.format(
 				"%-" + colOneSize + "s: %" + halfColTwoSize + "s/%" + halfColTwoSize + "s", 
-				"Flowers Found", park.state.foundFlowers.size(), 
-				park.state.requiredFlowers.size()
+				"Flowers Found", park.state.scorecard.collections(), 
+				park.state.scorecard.required()
 			);
 	
 			return turns + 
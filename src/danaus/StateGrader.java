@@ -0,0 +1,98 @@
+package danaus;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** An instance grades the tile states a butterfly learned against the true
+ * tile states of its map. A tile state is only compared in full with the
+ * true one if their fingerprints match; a tile state whose fingerprint
+ * differs cannot be equal to it, so it is passed over at the cost of a
+ * hash. The fingerprints of the true tile states are kept by the map, so
+ * only those of the tile states graded are computed here. Each tile is
+ * graded on its own, so bands of rows are graded on separate threads.
+ * @see danaus.TileState#fingerprint()
+ * @see danaus.Map#fingerprints()
+ * @see danaus.Park#gradeStates(TileState[][])
+ */
+class StateGrader {
+	/** The smallest number of rows a thread grades. Smaller bands are not
+	 * worth the cost of handing out. */
+	static final int MIN_PARALLEL_ROWS= 8;
+
+	/** The true tiles of the map. */
+	private final Tile[][] tiles;
+	/** The fingerprints of the true tile states, indexed by tile index. */
+	private final long[] fingerprints;
+	/** The number of columns of the map. */
+	private final int mapWidth;
+	/** The tile states graded. */
+	private final TileState[][] states;
+	/** The number of columns graded. */
+	private final int width;
+
+	/** Constructor: a grader of states against the tiles of map, over the
+	 * rows and columns both have.
+	 * Precondition: states and states[0] are not null. */
+	StateGrader(Map map, TileState[][] states) {
+		tiles= map.tiles;
+		fingerprints= map.fingerprints();
+		mapWidth= map.getWidth();
+		this.states= states;
+		width= Math.min(tiles[0].length, states[0].length);
+	}
+
+	/** Return the number of tiles graded that are not flyable or whose tile
+	 * states are equal to the true ones. If parallel is true, bands of rows
+	 * are graded on a ForkJoin pool. */
+	int points(boolean parallel) {
+		int height= Math.min(tiles.length, states.length);
+		if (parallel && height > MIN_PARALLEL_ROWS) {
+			return ForkJoinPool.commonPool().invoke(new GradeTask(0, height));
+		}
+		return points(0, height);
+	}
+
+	/** Return the points of rows lo..hi-1. */
+	private int points(int lo, int hi) {
+		int points= 0;
+		for (int row= lo; row < hi; row++) {
+			for (int col= 0; col < width; col++) {
+				Tile tile= tiles[row][col];
+				TileState state= states[row][col];
+				if (!tile.flyable || (state != null &&
+						state.fingerprint() == fingerprints[row * mapWidth + col] &&
+						tile.tileState.equals(state))) {
+					points++;
+				}
+			}
+		}
+		return points;
+	}
+
+	/** An instance grades a band of rows, splitting it into bands that are
+	 * graded in parallel. */
+	@SuppressWarnings("serial")
+	private class GradeTask extends RecursiveTask<Integer> {
+		private final int lo;
+		private final int hi;
+
+		/** Constructor: a task that grades rows lo..hi-1. */
+		GradeTask(int lo, int hi) {
+			this.lo= lo;
+			this.hi= hi;
+		}
+
+		/** Grade the band, or split it in two if it is large enough. */
+		protected @Override Integer compute() {
+			if (hi - lo <= MIN_PARALLEL_ROWS) {
+				return points(lo, hi);
+			}
+
+			int mid= (lo + hi) >>> 1;
+			GradeTask top= new GradeTask(lo, mid);
+			top.fork();
+			int bottom= new GradeTask(mid, hi).compute();
+			return top.join() + bottom;
+		}
+	}
+}
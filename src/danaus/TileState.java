@@ -1,6 +1,7 @@
 package danaus;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**  An instance represents the state of a tile. */
@@ -19,9 +20,21 @@ public class TileState implements Comparable<TileState> {
 	public Wind wind;
 	
 	/** A list of the aromas at a tile. Only aromas with an intensity greater
-	 * the minimum aroma intensity are included. */
+	 * the minimum aroma intensity are included. This list is used only when
+	 * the tile state does not belong to an aroma store. A tile state that is
+	 * not a copy shares one empty list until it is attached to a store. */
 	List<Aroma> aromas;
 	
+	/** Finds the aromas of a tile by flower id, or null if it has not been
+	 * made. It is only used when the tile state does not belong to an aroma
+	 * store, and is shared with the tile state this one was copied from. */
+	private AromaIndex aromaIndex;
+	
+	/** The aroma store of the map this tile state belongs to, or null if the
+	 * tile state is a copy. The aromas of a tile belonging to a store are
+	 * derived from the store. */
+	AromaStore aromaStore;
+	
 	/** A list of flowers at a tile. */
 	List<Flower> flowers;
 	
@@ -31,9 +44,19 @@ public class TileState implements Comparable<TileState> {
 	/** The type of Tile this TileState belongs to. */
 	public TileType type;
 	
+	/** The number of times the flowers of this tile state have changed. */
+	private int version;
+	/** The last snapshot of this tile state, or null if none has been
+	 * taken. It is reused for as long as it is current. */
+	private TileState snapshot;
+	/** The version of this tile state, and of its aroma store, when snapshot
+	 * was taken. */
+	private int snapshotVersion;
+	private long snapshotAromaVersion;
+	
 	/** Constructor: a naked tile state. Used often in random map generation. */
 	TileState(Location loc) {
-		this(loc, 0, new Wind(0, Direction.N), new ArrayList<Flower>());
+		this(loc, 0, Wind.valueOf(0, Direction.N), new ArrayList<Flower>());
 	}
 	
 	/** Constructor: a instance with location loc, light li, wind w, and flowers f. <br><br>
@@ -48,7 +71,7 @@ public class TileState implements Comparable<TileState> {
 		location = loc;
 		light    = li;
 		wind     = w;
-		aromas   = new ArrayList<Aroma>();
+		aromas   = Collections.emptyList();
 		flowers  = f;
 	}
 	
@@ -56,13 +79,49 @@ public class TileState implements Comparable<TileState> {
 	TileState(TileState other) {
 		location= new Location(other.location);
 		light= other.light;
-		wind= new Wind(other.wind);
-		aromas= new ArrayList<Aroma>(other.aromas);
+		wind= other.wind; // winds are immutable, so they can be shared
+		aromas= new ArrayList<Aroma>(other.getAromas());
+		aromaIndex= other.getAromaIndex();
 		flowers= new ArrayList<Flower>(other.flowers);
 		butterfly= other.butterfly;
 		type= other.type;
 	}
 	
+	/** Return a snapshot of this tile state: a tile state equal to it that
+	 * does not change as it does. The location, wind, and aromas of the
+	 * snapshot are shared with this tile state rather than copied, and its
+	 * lists cannot be modified. The same snapshot is returned until this
+	 * tile state, its flowers, or the aromas of its map change, so taking a
+	 * snapshot of a tile that nothing has changed on costs nothing.
+	 * @see danaus.Map#refreshState() */
+	TileState snapshot() {
+		long aromaVersion= (aromaStore == null) ? 0 : aromaStore.version();
+		if (snapshot != null && snapshotVersion == version && 
+				snapshotAromaVersion == aromaVersion && 
+				snapshot.light == light && snapshot.wind == wind && 
+				snapshot.location.equals(location) && snapshot.type == type &&
+				snapshot.butterfly == butterfly) {
+			return snapshot;
+		}
+		
+		List<Flower> snapshotFlowers= flowers.isEmpty() ? 
+				Collections.<Flower>emptyList() : 
+				Collections.unmodifiableList(new ArrayList<Flower>(flowers));
+		TileState s= new TileState(location, light, wind, snapshotFlowers);
+		/* aromasAt(...) makes a new list, so only a tile state without a
+		 * store has its aromas copied. */
+		s.aromas= Collections.unmodifiableList((aromaStore != null) ? 
+				getAromas() : new ArrayList<Aroma>(aromas));
+		s.aromaIndex= getAromaIndex();
+		s.butterfly= butterfly;
+		s.type= type;
+		
+		snapshot= s;
+		snapshotVersion= version;
+		snapshotAromaVersion= aromaVersion;
+		return s;
+	}
+	
 	/** Return flowers at this tile. */
 	public List<Flower> getFlowers() {
 		return flowers;
@@ -70,9 +129,43 @@ public class TileState implements Comparable<TileState> {
 	
 	/** Return aromas at this tile. */
 	public List<Aroma> getAromas() {
+		if (aromaStore != null) {
+			return aromaStore.aromasAt(location);
+		}
 		return aromas;
 	}
 	
+	/** Return the aroma of the flower with id flowerId at this tile, or null
+	 * if the flower's aroma does not reach it. If the list of aromas has
+	 * several aromas of the flower, the last one is returned. The aroma is
+	 * found by binary search, without scanning the list of aromas. */
+	public Aroma getAroma(long flowerId) {
+		if (aromaStore != null) {
+			return aromaStore.aromaAt(location, flowerId);
+		}
+		int i= getAromaIndex().find(flowerId);
+		return (i < 0) ? null : aromas.get(i);
+	}
+	
+	/** Return the intensity of the aroma of the flower with id flowerId at
+	 * this tile, or 0 if the flower's aroma does not reach it.
+	 * @see danaus.TileState#getAroma(long) */
+	public double getIntensity(long flowerId) {
+		Aroma aroma= getAroma(flowerId);
+		return (aroma == null) ? 0 : aroma.intensity;
+	}
+	
+	/** Return the index that finds the aromas of this tile by flower id. */
+	private AromaIndex getAromaIndex() {
+		if (aromaStore != null) {
+			return aromaStore.lookupAt(location);
+		}
+		if (aromaIndex == null) {
+			aromaIndex= AromaIndex.of(aromas);
+		}
+		return aromaIndex;
+	}
+	
 	/** Add non-null flower f to the tilestate's list of flowers and return true.
 	 * If f is null, don't add it, and return false. */
 	boolean addFlower(Flower f) {
@@ -81,48 +174,26 @@ public class TileState implements Comparable<TileState> {
 		}
 		
 		flowers.add(f);
+		version++;
 		return true;
 	}
 	
-	/** Add non-null ar to the tilestate's aroma list and return true.
-	 * If ar is null, don't add it, and return false.  */
-	boolean addAroma(Aroma ar) {
-		if (ar == null) {
+	/** Remove flower f from the tilestate's list of flowers. Return true iff
+	 * f was at this tile. */
+	boolean removeFlower(Flower f) {
+		if (!flowers.remove(f)) {
 			return false;
 		}
-		
-		aromas.add(ar);
-		return false;
-	}
-	
-	/** For each aroma in this tile state's list of aromas, increase its
-	 * intensity by v if flowers contains the aroma's flower.  */
-	void addToAromas(List<Flower> flowers, double v) {
-		for (Aroma aroma : aromas) {
-			if (flowers.contains(aroma.flower)) {
-				aroma.intensity += v;
-			}
-		}
-	}
-	
-	/** Subtract v from every aroma in the tile state's list of aromas. */
-	void subtractFromAromas(List<Flower> flowers, double v) {
-		addToAromas(flowers, -v);
-	}
-	
-	/** Zero out all the aromas in the tile state's list of aromas.
-	 * @see danaus.Aroma#zero().
-     */
-	void zeroAromas() {
-		for (Aroma aroma : aromas) {
-			aroma.zero();
-		}
+		version++;
+		return true;
 	}
 	
 	/** Return "yes" if this tile state has at least one aroma and "no" 
      * otherwise.  */
 	public String toStringAromas() {
-		if (aromas.isEmpty()) {
+		boolean empty= (aromaStore != null) ? 
+				!aromaStore.hasAromasAt(location) : aromas.isEmpty();
+		if (empty) {
 			return "no";
 		}
 		return "yes";
@@ -151,6 +222,7 @@ public class TileState implements Comparable<TileState> {
 		string += "w:" + wind + ", ";
 	    
 	    string += "a:";
+	    List<Aroma> aromas= getAromas();
 	    if (aromas != null) {
 	    	for (Aroma aroma : aromas) {
 	    		string += "(" + String.format("%.2f", aroma.intensity) + ",";  
@@ -186,6 +258,50 @@ public class TileState implements Comparable<TileState> {
 		return compareTo(((TileState)obj)) == 0;
 	}
 	
+	/** Return a fingerprint of this tile state: a hash of the properties that
+	 * equals(...) requires of every tile state equal to it. Tile states that
+	 * are equal have the same fingerprint, so tile states whose fingerprints
+	 * differ are not equal; tile states with the same fingerprint may or may
+	 * not be.
+	 * <br>
+	 * The properties are its location, light, and wind, the number of its
+	 * aromas and the intensity of the first, and, if it has no aromas, the
+	 * number of its flowers and the low 32 bits of the id of the first. No
+	 * more of the lists is required, since compareTo(...) stops at the first
+	 * aroma or flower that differs and may find it no different: aromas with
+	 * the same intensity compare as equal whatever their flowers.
+	 * @see danaus.StateGrader */
+	long fingerprint() {
+		long h= 1125899906842597L;
+		h= 31 * h + location.row;
+		h= 31 * h + location.col;
+		h= 31 * h + light;
+		h= 31 * h + wind.intensity;
+		h= 31 * h + wind.direction.ordinal();
+		
+		int count;
+		double first;
+		if (aromaStore != null) {
+			count= aromaStore.countAt(location);
+			first= (count == 0) ? 0 : aromaStore.intensityAt(location, 0);
+		}
+		else {
+			count= aromas.size();
+			first= (count == 0) ? 0 : aromas.get(0).intensity;
+		}
+		h= 31 * h + count;
+		if (count != 0) {
+			// Adding 0 makes -0.0 the same as 0.0, which it equals
+			return 31 * h + Double.doubleToLongBits(first + 0.0);
+		}
+		
+		h= 31 * h + flowers.size();
+		if (!flowers.isEmpty()) {
+			h= 31 * h + (int) flowers.get(0).getFlowerId();
+		}
+		return h;
+	}
+	
 	/** Return a hash code value for the object. This method is supported for
 	 * the benefit of hashtables such as those provided by java.util.Hashtable. 
      */
@@ -212,12 +328,14 @@ public class TileState implements Comparable<TileState> {
 		if (! wind.equals(t.wind)) {
 			return wind.compareTo(t.wind);
 		}
-		if (aromas.size() != t.aromas.size()) {
-			return aromas.size() - t.aromas.size();
+		List<Aroma> aromas= getAromas();
+		List<Aroma> tAromas= t.getAromas();
+		if (aromas.size() != tAromas.size()) {
+			return aromas.size() - tAromas.size();
 		}
 		for (int i = 0; i < aromas.size(); ++i) {
-			if (! aromas.get(i).equals(t.aromas.get(i))) {
-				return aromas.get(i).compareTo(t.aromas.get(i));
+			if (! aromas.get(i).equals(tAromas.get(i))) {
+				return aromas.get(i).compareTo(tAromas.get(i));
 			}
 		}
 		if (flowers.size() != t.flowers.size()) {
@@ -0,0 +1,144 @@
+package danaus;
+
+import java.util.Arrays;
+
+/** An instance holds the per-tile data of a map that the map's own scans
+ * need, as parallel primitive arrays indexed by tile index, row * width +
+ * col. A scan over these arrays touches a few bytes per tile, in order,
+ * instead of following a Tile and a TileState object for each tile.
+ * <br>
+ * The Tile and TileState objects of a map remain the view used by the GUI
+ * and by butterflies. The map records a tile here whenever it sets one, so
+ * the arrays describe each tile as it was when it was set.
+ * @see danaus.Map#set(Position, Tile)
+ */
+class TileStore {
+	/** The type recorded at a tile index that has no tile. */
+	static final byte NONE= -1;
+
+	/** The number of bits of a packed wind that hold the direction. */
+	private static final int DIRECTION_BITS= 3;
+	/** The mask of the bits of a packed wind that hold the direction. */
+	private static final int DIRECTION_MASK= (1 << DIRECTION_BITS) - 1;
+
+	/** The height of the map (in rows). */
+	final int height;
+	/** The width of the map (in columns). */
+	final int width;
+
+	/** The ordinal of the TileType of each tile, or NONE. */
+	private final byte[] types;
+	/** True at each tile that can be flown to. */
+	private final boolean[] flyable;
+	/** The light of each tile. */
+	private final int[] lights;
+	/** The wind of each tile, packed as intensity << DIRECTION_BITS | the
+	 * ordinal of the direction. */
+	private final int[] winds;
+
+	/** Constructor: a store for a map with height rows and width columns
+	 * that has no tiles yet. */
+	TileStore(int height, int width) {
+		this.height= height;
+		this.width= width;
+		types= new byte[height * width];
+		Arrays.fill(types, NONE);
+		flyable= new boolean[height * width];
+		lights= new int[height * width];
+		winds= new int[height * width];
+	}
+
+	/** Record tile, which may be null, at tile index i. */
+	void set(int i, Tile tile) {
+		if (tile == null) {
+			types[i]= NONE;
+			flyable[i]= false;
+			lights[i]= 0;
+			winds[i]= 0;
+			return;
+		}
+
+		types[i]= (byte) tile.getType().ordinal();
+		flyable[i]= tile.flyable;
+		lights[i]= tile.tileState.light;
+		winds[i]= pack(tile.tileState.wind);
+	}
+
+	/** Return wind packed into an int, as winds are stored. */
+	static int pack(Wind wind) {
+		return (wind.intensity << DIRECTION_BITS) | wind.direction.ordinal();
+	}
+
+	/** Return the wind packed into packed by pack(Wind). */
+	static Wind unpack(int packed) {
+		return Wind.valueOf(packed >>> DIRECTION_BITS,
+				Common.DIRECTIONS[packed & DIRECTION_MASK]);
+	}
+
+	/** Return true iff a tile has been recorded at tile index i. */
+	boolean hasTile(int i) {
+		return types[i] != NONE;
+	}
+
+	/** Return the type of the tile at tile index i, or null if there is no
+	 * tile there. */
+	TileType type(int i) {
+		return (types[i] == NONE) ? null : TileType.values()[types[i]];
+	}
+
+	/** Return true iff the tile at tile index i can be flown to. */
+	boolean isFlyable(int i) {
+		return flyable[i];
+	}
+
+	/** Return a new array that is true at each tile index that can be flown
+	 * to. */
+	boolean[] flyable() {
+		return flyable.clone();
+	}
+
+	/** Return the light of the tile at tile index i. */
+	int light(int i) {
+		return lights[i];
+	}
+
+	/** Return the wind of the tile at tile index i. */
+	Wind wind(int i) {
+		return unpack(winds[i]);
+	}
+
+	/** Return the wind of the tile at tile index i, packed by pack(Wind). */
+	int packedWind(int i) {
+		return winds[i];
+	}
+
+	/** Return the intensity of the wind of the tile at tile index i. */
+	int windIntensity(int i) {
+		return winds[i] >>> DIRECTION_BITS;
+	}
+
+	/** Return the ordinal of the direction of the wind of the tile at tile
+	 * index i. */
+	int windDirection(int i) {
+		return winds[i] & DIRECTION_MASK;
+	}
+
+	/** Return a new array of the wind intensities of every tile. */
+	int[] windIntensities() {
+		int intensities[]= new int[winds.length];
+		for (int i= 0; i < winds.length; i++) {
+			intensities[i]= windIntensity(i);
+		}
+		return intensities;
+	}
+
+	/** Return a new array of the ordinals of the wind directions of every
+	 * tile. */
+	int[] windDirections() {
+		int directions[]= new int[winds.length];
+		for (int i= 0; i < winds.length; i++) {
+			directions[i]= windDirection(i);
+		}
+		return directions;
+	}
+}
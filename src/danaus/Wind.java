@@ -7,6 +7,28 @@ import java.util.regex.Pattern;
  * intensity and a cardinal direction. 
  */
 public class Wind implements Comparable<Wind> {
+	/** The patterns of the intensity and the direction of a wind string,
+	 * compiled once rather than for every wind parsed.
+	 * @see danaus.Wind#parseWind(String) */
+	private static final Pattern INTENSITY_PATTERN= 
+			Pattern.compile("-?\\p{Digit}++");
+	private static final Pattern DIRECTION_PATTERN= 
+			Pattern.compile("[neswNESW]++");
+	
+	/** Winds of intensity less than this are shared; see valueOf(...). */
+	static final int SHARED_INTENSITIES= 64;
+	/** The shared winds: SHARED[d][in] is the wind of intensity in and the
+	 * direction with ordinal d. */
+	private static final Wind[][] SHARED= 
+			new Wind[Direction.values().length][SHARED_INTENSITIES];
+	static {
+		for (Direction d : Direction.values()) {
+			for (int in= 0; in < SHARED_INTENSITIES; in++) {
+				SHARED[d.ordinal()][in]= new Wind(in, d);
+			}
+		}
+	}
+	
 	/** The non-negative intensity of the wind. */
 	public final int intensity;
 	/** The cardinal direction of the wind. */
@@ -29,6 +51,18 @@ public class Wind implements Comparable<Wind> {
 		direction = other.direction;
 	}
 	
+	/** Return a wind with intensity in and direction d, as new Wind(in, d)
+	 * would. Winds are immutable, so the common ones are made once and
+	 * shared by every tile that has them, rather than made for every tile.
+	 */
+	public static Wind valueOf(int in, Direction d) {
+		in= Math.max(0, in);
+		if (d != null && in < SHARED_INTENSITIES) {
+			return SHARED[d.ordinal()][in];
+		}
+		return new Wind(in, d);
+	}
+	
 	/** Parse s into a wind object and return the object.
 	 * Precondition: s has one of the following forms:
 	 *       30 N, N 30, 30N, N30.
@@ -42,10 +76,8 @@ public class Wind implements Comparable<Wind> {
 		
 		/* Regular expressions for the intensity and direction allow the wind
 		 * strings to be very flexible. */
-		Pattern intensityPattern= Pattern.compile("-?\\p{Digit}++");
-		Matcher intensityMatcher= intensityPattern.matcher(s);
-		Pattern directionPattern= Pattern.compile("[neswNESW]++");
-		Matcher directionMatcher= directionPattern.matcher(s);
+		Matcher intensityMatcher= INTENSITY_PATTERN.matcher(s);
+		Matcher directionMatcher= DIRECTION_PATTERN.matcher(s);
 		
 		/* If the regular expressions are not found within the wind string, the
 		 * wind string is considered invalid. */
@@ -62,7 +94,7 @@ public class Wind implements Comparable<Wind> {
 
 			int intensity= Math.max(0, Integer.parseInt(intensityString));
 			Direction direction= Direction.parseDirection(directionString);
-			return new Wind(intensity, direction);
+			return valueOf(intensity, direction);
 		}
 		catch (NumberFormatException e) {
 			throw new WindFormatException();
@@ -0,0 +1,141 @@
+package danaus;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** An instance computes the transfers of aroma that wind makes at every tile
+ * of a map. The wind of a tile moves aroma from the tile to the neighbor it
+ * blows toward, so the transfers at a tile are those of its own wind and of
+ * the winds of the (at most eight) neighbors that blow toward it. Each tile
+ * is computed on its own from the winds around it, like a stencil, so bands
+ * of rows can be computed on separate threads.
+ * <br>
+ * The transfers at a tile are listed in the order of the tiles that cause
+ * them, by row and then column, which is the order in which a sweep over
+ * the map from the top left would make them.
+ *
+ * @see danaus.Map#spreadWind(List)
+ */
+class WindSpreader {
+	/** The smallest number of rows a thread computes. Smaller bands are not
+	 * worth the cost of handing out. */
+	static final int MIN_PARALLEL_ROWS= 8;
+
+	/** The height of the map (in rows). */
+	private final int height;
+	/** The width of the map (in columns). */
+	private final int width;
+	/** The neighbors of every tile of the map. */
+	private final Adjacency adjacency;
+	/** The intensity of the wind at each tile index. */
+	private final int[] intensity;
+	/** The ordinal of the direction of the wind at each tile index. */
+	private final int[] direction;
+
+	/** Constructor: a spreader over a map with neighbors adjacency whose
+	 * winds have intensities intensity and directions with ordinals
+	 * direction, both indexed by row * width + col. */
+	WindSpreader(Adjacency adjacency, int[] intensity, int[] direction) {
+		this.height= adjacency.height;
+		this.width= adjacency.width;
+		this.adjacency= adjacency;
+		this.intensity= intensity;
+		this.direction= direction;
+	}
+
+	/** Return the wind transfers at every tile, indexed by row * width + col.
+	 * Entry i lists the amounts wind adds to the aromas at tile i, in order,
+	 * or is null if wind never changes the aromas at tile i. Transfers of no
+	 * aroma, and winds that wrap around the map onto their own tile, are
+	 * left out. If parallel is true, bands of rows are computed on a
+	 * ForkJoin pool. */
+	int[][] deltas(boolean parallel) {
+		int deltas[][]= new int[height * width][];
+		if (parallel && height > MIN_PARALLEL_ROWS) {
+			ForkJoinPool.commonPool().invoke(new DeltaTask(deltas, 0, height));
+		}
+		else {
+			deltas(deltas, 0, height);
+		}
+		return deltas;
+	}
+
+	/** Compute the transfers of rows lo..hi-1 into deltas. */
+	private void deltas(int[][] deltas, int lo, int hi) {
+		// The tile indices causing the transfers at a tile, and the transfers
+		int sources[]= new int[Adjacency.DEGREE + 1];
+		int amounts[]= new int[Adjacency.DEGREE + 1];
+
+		for (int row= lo; row < hi; row++) {
+			for (int col= 0; col < width; col++) {
+				int tile= row * width + col;
+				int n= 0;
+
+				/* The tile's own wind takes aroma away from it. */
+				if (intensity[tile] != 0 &&
+						adjacency.neighbor(tile, direction[tile]) != tile) {
+					sources[n]= tile;
+					amounts[n++]= -intensity[tile];
+				}
+
+				/* The wind of a neighbor blowing toward the tile brings aroma
+				 * to it. */
+				for (int d= 0; d < Adjacency.DEGREE; d++) {
+					int from= adjacency.neighbor(tile, opposite(d));
+					if (from != tile && intensity[from] != 0 &&
+							direction[from] == d) {
+						// Insert in the order of the tiles causing transfers
+						int k= n++;
+						for (; k > 0 && sources[k - 1] > from; k--) {
+							sources[k]= sources[k - 1];
+							amounts[k]= amounts[k - 1];
+						}
+						sources[k]= from;
+						amounts[k]= intensity[from];
+					}
+				}
+
+				if (n != 0) {
+					int tileDeltas[]= new int[n];
+					System.arraycopy(amounts, 0, tileDeltas, 0, n);
+					deltas[tile]= tileDeltas;
+				}
+			}
+		}
+	}
+
+	/** Return the ordinal of the direction opposite the direction with
+	 * ordinal d. */
+	private static int opposite(int d) {
+		return (d + Adjacency.DEGREE / 2) % Adjacency.DEGREE;
+	}
+
+	/** An instance computes the transfers of a band of rows, splitting it
+	 * into bands that are computed in parallel. */
+	@SuppressWarnings("serial")
+	private class DeltaTask extends RecursiveAction {
+		private final int[][] deltas;
+		private final int lo;
+		private final int hi;
+
+		/** Constructor: a task that computes the transfers of rows lo..hi-1
+		 * into deltas. */
+		DeltaTask(int[][] deltas, int lo, int hi) {
+			this.deltas= deltas;
+			this.lo= lo;
+			this.hi= hi;
+		}
+
+		/** Compute the band, or split it in two if it is large enough. */
+		protected @Override void compute() {
+			if (hi - lo <= MIN_PARALLEL_ROWS) {
+				deltas(deltas, lo, hi);
+				return;
+			}
+
+			int mid= (lo + hi) >>> 1;
+			invokeAll(new DeltaTask(deltas, lo, mid),
+					new DeltaTask(deltas, mid, hi));
+		}
+	}
+}
@@ -151,13 +151,9 @@ public class Butterfly extends AbstractButterfly {
 		for (Long newFlowerId : newFlowerIds) {
 			// Get aromas on current tile
 			refreshState();
-			List<Aroma> aromas = state.getAromas();
 			
 			// Get the corresponding aroma
-			Aroma curAroma = null;
-			for (Aroma aroma : aromas)
-				if (aroma.getFlowerId() == newFlowerId)
-					curAroma = aroma;
+			Aroma curAroma = state.getAroma(newFlowerId);
 			
 			// Find the direction in which curAroma has greater intensity
 			Aroma nextAroma = null;
@@ -181,10 +177,7 @@ public class Butterfly extends AbstractButterfly {
 							!mapStates[nextRow][nextCol].equals(TileState.nil)) {
 						fly(dir, Speed.NORMAL);
 						refreshState();
-						aromas = state.getAromas();
-						for (Aroma aroma : aromas)
-							if (aroma.getFlowerId() == newFlowerId)
-								nextAroma = aroma;
+						nextAroma = state.getAroma(newFlowerId);
 						
 						if (nextAroma.intensity > curAroma.intensity) {
 							// Correct direction and not arrived